@@ -1,10 +1,15 @@
 package ru.biosoft.jobcontrol;
 
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -19,9 +24,13 @@ abstract public class AbstractJobControl implements JobControl
     /** elapsed time when percent is 0 */
     private final static long MAXIMAL_TIME = 60 * 60 * 60 * 1000;
 
+    private static final AtomicLong lastJobId = new AtomicLong();
+
     /** The logger to print logs. */
     protected Logger log;
 
+    private final long jobId = lastJobId.incrementAndGet();
+
     protected Date startedDate;
 
     /**
@@ -39,7 +48,7 @@ abstract public class AbstractJobControl implements JobControl
     public AbstractJobControl(Logger log)
     {
         this.log = log;
-        createdDate = Calendar.getInstance().getTime();
+        createdTime = System.currentTimeMillis();
     }
 
     /**
@@ -90,9 +99,25 @@ abstract public class AbstractJobControl implements JobControl
         }
 
         reset();
-        startedDate = Calendar.getInstance().getTime();
+        attempt = pendingAttempt > 0 ? pendingAttempt : 1;
+        pendingAttempt = 0;
+        retryDelay = -1;
+        startedTime = System.currentTimeMillis();
+        startedDate = new Date(startedTime);
+        endedTime = -1;
+        progressTime = startedTime;
         isTerminated = false;
+        timedOut = false;
+        thread = Thread.currentThread();
+        synchronized( threads )
+        {
+            interruptedThreads.clear();
+        }
+        attachThread();
+        activity++;
         status = RUNNING;
+        publishState();
+        logTransition(Level.FINE, JobLifecycleLog.STARTED, JobLifecycleLog.NO_DURATION, null);
 
         fireJobStarted(msg);
         runStatus = COMPLETED;
@@ -106,12 +131,34 @@ abstract public class AbstractJobControl implements JobControl
      */
     public void exceptionOccured(JobControlException ex)
     {
-        if( log != null )
+        // the exception is logged synchronously, lifecycle log records the transition only
+        if( log != null && ex != loggedException )
             log.log(Level.FINE, "exceptionOccurred() ", ex);
+        logTransition(Level.FINE, JobLifecycleLog.EXCEPTION, JobLifecycleLog.NO_DURATION, null);
 
         runStatus = ex.getStatus();
     }
 
+    /** exception which was already logged by the caller of {@link #exceptionOccured(JobControlException)} */
+    private volatile JobControlException loggedException;
+
+    /**
+     * Calls {@link #exceptionOccured(JobControlException)} for the exception already logged by the caller,
+     * so it is not logged again.
+     */
+    void exceptionOccured(JobControlException ex, boolean logged)
+    {
+        loggedException = logged ? ex : null;
+        try
+        {
+            exceptionOccured(ex);
+        }
+        finally
+        {
+            loggedException = null;
+        }
+    }
+
     /**
      * Returns whether status is terminated.
      * 
@@ -153,8 +200,13 @@ abstract public class AbstractJobControl implements JobControl
             setTerminated(runStatus);
         }
 
+        prepareRetry(null);
         fireJobTerminated(msg, null);
+        releaseTerminatedResults();
         resetFlags();
+        detachThreads();
+        logEnded();
+        scheduleRetry();
     }
 
     public void end(JobControlException ex)
@@ -164,8 +216,13 @@ abstract public class AbstractJobControl implements JobControl
             setTerminated(runStatus);
         }
 
+        prepareRetry(ex);
         fireJobTerminated(null, ex);
+        releaseTerminatedResults();
         resetFlags();
+        detachThreads();
+        logEnded();
+        scheduleRetry();
     }
 
     // ////////////////////////////////////////////////////////////////////////
@@ -195,9 +252,6 @@ abstract public class AbstractJobControl implements JobControl
         finally
         {
             end(jcex);
-            
-            if( log != null )
-            	log.log(Level.FINE, "end called");
         }
     }
 
@@ -207,14 +261,14 @@ abstract public class AbstractJobControl implements JobControl
     @Override
     public void pause()
     {
-        if( log != null )
-        	log.log(Level.FINE, "pause()");
-
         if( status == RUNNING )
         {
             latch = new CountDownLatch( 1 );
             isPaused = true;
             status = PAUSED;
+            publishState();
+            pausedTime = System.currentTimeMillis();
+            logTransition(Level.FINE, JobLifecycleLog.PAUSED, JobLifecycleLog.NO_DURATION, null);
             fireJobPaused();
         }
     }
@@ -225,13 +279,13 @@ abstract public class AbstractJobControl implements JobControl
     @Override
     public void resume()
     {
-        if( log != null )
-        	log.log(Level.FINE, "resume()");
-
         if( status == PAUSED )
         {
+            activity++;
             isPaused = false;
             status = RUNNING;
+            publishState();
+            logTransition(Level.FINE, JobLifecycleLog.RESUMED, System.currentTimeMillis() - pausedTime, null);
             fireJobResumed();
             CountDownLatch latch = this.latch;
             if(latch != null)
@@ -248,11 +302,11 @@ abstract public class AbstractJobControl implements JobControl
     @Override
     public void terminate()
     {
-        if( log != null )
-        	log.log(Level.FINE, "terminate()");
+        cancelRetry();
 
         if( status == RUNNING || status == PAUSED )
         {
+            logTransition(Level.FINE, JobLifecycleLog.TERMINATE_REQUESTED, JobLifecycleLog.NO_DURATION, null);
             setTerminated(TERMINATED_BY_REQUEST);
 
             CountDownLatch latch = this.latch;
@@ -261,13 +315,323 @@ abstract public class AbstractJobControl implements JobControl
                 latch.countDown();
             }
             this.latch = null;
+
+            if( interruptOnTerminate )
+                interruptThreads();
+        }
+    }
+
+    private long pausedTime;
+
+    /**
+     * Passes lifecycle transition to {@link JobLifecycleLog} if the job logger is loggable at the level.
+     * Does not allocate if logging is disabled.
+     *
+     * @param level level of the record
+     * @param transition one of {@link JobLifecycleLog} transition constants
+     * @param duration duration in milliseconds or {@link JobLifecycleLog#NO_DURATION}
+     * @param thrown exception or <code>null</code>
+     */
+    protected void logTransition(Level level, int transition, long duration, Throwable thrown)
+    {
+        if( log != null && log.isLoggable(level) )
+            JobLifecycleLog.getDefault().log(log, level, jobId, transition, duration, thrown);
+    }
+
+    private void logEnded()
+    {
+        long start = getStartedTime();
+        logTransition(Level.FINE, JobLifecycleLog.ENDED, start == -1 ? JobLifecycleLog.NO_DURATION : System.currentTimeMillis() - start,
+                null);
+    }
+
+    private volatile boolean timedOut = false;
+
+    /**
+     * Terminates the job because its deadline was exceeded.
+     * 
+     * Status is set to {@link #TERMINATED_BY_REQUEST}, {@link #checkStatus()}
+     * throws {@link JobTimeoutException}.
+     */
+    public void terminateByTimeout()
+    {
+        if( status == RUNNING || status == PAUSED )
+        {
+            logTransition(Level.FINE, JobLifecycleLog.TIMED_OUT, JobLifecycleLog.NO_DURATION, null);
+            timedOut = true;
+            terminate();
+        }
+    }
+
+    /**
+     * Returns true if the job was terminated because its deadline was exceeded.
+     */
+    public boolean isTimedOut()
+    {
+        return timedOut;
+    }
+
+    private volatile Thread thread;
+    private final Set<Thread> threads = new HashSet<>();
+    private volatile boolean interruptOnTerminate = false;
+    /** threads interrupted by {@link #terminate()} which are not detached yet, guarded by threads */
+    private final Set<Thread> interruptedThreads = new HashSet<>();
+
+    /**
+     * Sets whether {@link #terminate()} interrupts threads executing the job, so the job blocked in
+     * <code>Thread.sleep</code>, <code>Object.wait</code> or interruptible channel I/O is stopped promptly.
+     * Thread which called {@link #begin()} and threads added by {@link #attachThread()} are interrupted.
+     * Interrupt status set by the job is cleared when the thread is detached from the job,
+     * interrupts sent by others are preserved.
+     * 
+     * @param interruptOnTerminate true to interrupt threads on termination
+     */
+    public void setInterruptOnTerminate(boolean interruptOnTerminate)
+    {
+        this.interruptOnTerminate = interruptOnTerminate;
+    }
+
+    public boolean isInterruptOnTerminate()
+    {
+        return interruptOnTerminate;
+    }
+
+    /**
+     * Registers current thread as executing the job, e.g. worker thread of the parallel job.
+     * Don't forget to call {@link #detachThread()} when the thread finishes its work.
+     */
+    public void attachThread()
+    {
+        synchronized( threads )
+        {
+            threads.add(Thread.currentThread());
+        }
+    }
+
+    /**
+     * Unregisters current thread added by {@link #attachThread()}.
+     * Clears interrupt status of the thread if it was interrupted by {@link #terminate()}.
+     */
+    public void detachThread()
+    {
+        Thread current = Thread.currentThread();
+        boolean interrupted;
+        synchronized( threads )
+        {
+            threads.remove(current);
+            interrupted = interruptedThreads.remove(current);
         }
+        // no interrupts from this job can arrive after removal
+        if( interrupted )
+            Thread.interrupted();
+    }
+
+    private void detachThreads()
+    {
+        Thread thread = this.thread;
+        this.thread = null;
+        synchronized( threads )
+        {
+            threads.remove(thread);
+            // interrupt status of other thread cannot be cleared
+            if( thread != Thread.currentThread() )
+                interruptedThreads.remove(thread);
+        }
+        detachThread();
+    }
+
+    private void interruptThreads()
+    {
+        Thread current = Thread.currentThread();
+        synchronized( threads )
+        {
+            for( Thread t : threads )
+            {
+                if( t != current && interruptedThreads.add(t) )
+                {
+                    t.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns thread which runs the job or <code>null</code> if the job is not running.
+     */
+    public Thread getThread()
+    {
+        return thread;
+    }
+
+    private volatile int activity = 0;
+
+    /**
+     * Returns counter which is incremented each time the job shows activity:
+     * changes preparedness, checks status or is resumed.
+     * 
+     * @see JobWatchdog
+     */
+    public int getActivity()
+    {
+        return activity;
+    }
+
+    private JobDeadline deadline;
+
+    /**
+     * Sets time budget of the job replacing previous one.
+     * 
+     * If the job is running, deadline is armed immediately, otherwise it is armed when the job starts.
+     * 
+     * @param deadline new deadline or <code>null</code> to remove the deadline
+     */
+    public synchronized void setDeadline(JobDeadline deadline)
+    {
+        if( this.deadline != null )
+        {
+            removeListener(this.deadline);
+            this.deadline.detach();
+        }
+        this.deadline = deadline;
+        if( deadline != null )
+        {
+            addListener(deadline);
+            deadline.attach(this);
+        }
+    }
+
+    /**
+     * Returns time budget of the job or <code>null</code> if it was not set.
+     */
+    public synchronized JobDeadline getDeadline()
+    {
+        return deadline;
+    }
+
+    private RetryPolicy retryPolicy;
+    private volatile int attempt = 1;
+    private volatile int pendingAttempt;
+    private volatile long retryDelay = -1;
+    private HashedTimingWheel.Timeout retryTimeout;
+
+    /**
+     * Sets policy of re-running the job when it is terminated by error.
+     * Retries are run by the policy executor, not by the executor which ran the first attempt.
+     * 
+     * @param retryPolicy policy or <code>null</code> to disable retries
+     */
+    public synchronized void setRetryPolicy(RetryPolicy retryPolicy)
+    {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Returns policy of re-running the job or <code>null</code> if it was not set.
+     */
+    public synchronized RetryPolicy getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    /**
+     * Returns number of the current or last attempt of the job starting from 1.
+     */
+    public int getAttempt()
+    {
+        return attempt;
+    }
+
+    /**
+     * Cancels scheduled retry of the job.
+     * 
+     * @return true if retry was cancelled by this call
+     */
+    public synchronized boolean cancelRetry()
+    {
+        HashedTimingWheel.Timeout timeout = retryTimeout;
+        retryTimeout = null;
+        return timeout != null && timeout.cancel();
+    }
+
+    private synchronized void prepareRetry(JobControlException ex)
+    {
+        retryDelay = retryPolicy == null || status != TERMINATED_BY_ERROR ? -1 : retryPolicy.getDelay(attempt, ex);
+    }
+
+    private synchronized void scheduleRetry()
+    {
+        if( retryDelay < 0 )
+            return;
+        final RetryPolicy policy = retryPolicy;
+        final int nextAttempt = attempt + 1;
+        long delay = retryDelay;
+        retryDelay = -1;
+        retryTimeout = HashedTimingWheel.getDefault().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    policy.getExecutor().execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            pendingAttempt = nextAttempt;
+                            AbstractJobControl.this.run();
+                        }
+                    });
+                }
+                catch( RejectedExecutionException e )
+                {
+                    if( log != null )
+                        log.log(Level.SEVERE, "Cannot retry job " + jobId, e);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private JobControlEvent withAttempt(JobControlEvent event)
+    {
+        event.setAttempt(attempt, retryDelay);
+        return event;
+    }
+
+    private volatile Object contentKey;
+
+    /**
+     * Sets key identifying the computation, jobs with equal keys produce equal results.
+     * Key should implement <code>equals</code> and <code>hashCode</code> by content, e.g. list of job parameters.
+     * 
+     * @param contentKey key or <code>null</code> if the job should not be deduplicated
+     * @see SingleFlightJobExecutor
+     */
+    public void setContentKey(Object contentKey)
+    {
+        this.contentKey = contentKey;
+    }
+
+    /**
+     * Returns key identifying the computation or <code>null</code> if it was not set.
+     */
+    public Object getContentKey()
+    {
+        return contentKey;
     }
 
     ///////////////////////////////////////////////////////////////////////////
     // Info methods
     //
 
+    /**
+     * Returns identifier of the job unique within this JVM.
+     */
+    public long getJobId()
+    {
+        return jobId;
+    }
+
     @Override
     public int getStatus()
     {
@@ -309,77 +673,199 @@ abstract public class AbstractJobControl implements JobControl
         return preparedness;
     }
 
-    private final Date createdDate;
+    private final long createdTime;
 
     @Override
     public long getCreatedTime()
     {
-        return createdDate == null ? -1 : createdDate.getTime();
+        return createdTime;
     }
 
+    private long startedTime = -1;
+
     @Override
     public long getStartedTime()
     {
-        if( startedDate == null )
-            return -1;
-        return startedDate.getTime();
+        return startedTime;
     }
 
-    private Date endedDate;
+    private long endedTime = -1;
 
     @Override
     public long getEndedTime()
     {
-        return endedDate == null ? -1 : endedDate.getTime();
+        return endedTime;
     }
 
     @Override
     public long getElapsedTime()
     {
         long start = getStartedTime();
-        long curTime = Calendar.getInstance().getTime().getTime();
 
         if( start == -1 )
             return 0;
 
-        return curTime - start;
+        return System.currentTimeMillis() - start;
     }
 
-    private long curTime = 0;
+    /** time of the last preparedness change */
+    private long progressTime = 0;
 
     @Override
     public long getRemainedTime()
     {
-        int percent = getPreparedness();
-        long start = getStartedTime();
+        return getRemainedTime(getPreparedness(), getStartedTime(), progressTime);
+    }
 
+    private long getRemainedTime(int percent, long start, long progressTime)
+    {
         if( start == -1 )
-            return getCreatedTime() + MAXIMAL_TIME;
+            return createdTime + MAXIMAL_TIME;
 
         if( percent == 0 )
-            return getStartedTime() + MAXIMAL_TIME;
+            return start + MAXIMAL_TIME;
+
+        return Math.max(start + 100 * ( progressTime - start ) / percent - progressTime, 0);
+    }
+
+    /**
+     * State of the job published as a whole.
+     */
+    private static final class State
+    {
+        final int status;
+        final int preparedness;
+        final long startedTime;
+        final long endedTime;
+        final long progressTime;
+
+        State(int status, int preparedness, long startedTime, long endedTime, long progressTime)
+        {
+            this.status = status;
+            this.preparedness = preparedness;
+            this.startedTime = startedTime;
+            this.endedTime = endedTime;
+            this.progressTime = progressTime;
+        }
+    }
+
+    private volatile State state = new State(CREATED, 0, -1, -1, 0);
+    private final Object stateLock = new Object();
+
+    /**
+     * Publishes current state of the job for {@link #snapshot()}.
+     * Derived classes changing <code>status</code> or <code>preparedness</code> directly should call it after the change.
+     */
+    protected void publishState()
+    {
+        // the latest publication reads the latest values
+        synchronized( stateLock )
+        {
+            state = new State(status, preparedness, startedTime, endedTime, progressTime);
+        }
+    }
 
-        return start + 100 * ( curTime - start ) / percent - curTime;
+    /**
+     * Returns immutable view of the job state.
+     *
+     * Unlike subsequent calls of the getters, all values of the snapshot belong to the same moment,
+     * so status, preparedness and times always agree with each other. Snapshot is captured
+     * by single volatile read without locking the job, so it is cheap enough for frequent polling.
+     */
+    public JobSnapshot snapshot()
+    {
+        State s = state;
+        return new JobSnapshot(jobId, s.status, s.preparedness, createdTime, s.startedTime, s.endedTime,
+                getRemainedTime(s.preparedness, s.startedTime, s.progressTime), System.currentTimeMillis());
     }
 
     ////////////////////////////////////////
     // Listener issues
     //
 
-    private final Vector<JobControlListener> listeners = new Vector<>();
+    private static final JobControlListener[] NO_LISTENERS = new JobControlListener[0];
+    private static final int EVENT_TYPE_COUNT = Integer.bitCount(JobControlEvent.ALL_EVENTS);
+
+    /** guarded by itself, in order of addition */
+    private final List<JobControlListener> listeners = new ArrayList<>();
+    /** copy-on-write arrays of listeners subscribed to each event type, indexed by the number of the type bit */
+    private volatile JobControlListener[][] listenersByType = createListenersByType(listeners);
+
+    private static JobControlListener[][] createListenersByType(List<JobControlListener> listeners)
+    {
+        JobControlListener[][] result = new JobControlListener[EVENT_TYPE_COUNT][];
+        int[] masks = new int[listeners.size()];
+        for( int i = 0; i < masks.length; i++ )
+        {
+            JobControlListener listener = listeners.get(i);
+            masks[i] = listener instanceof MaskedJobControlListener ? ( (MaskedJobControlListener)listener ).getEventMask()
+                    : JobControlEvent.ALL_EVENTS;
+        }
+        for( int index = 0; index < EVENT_TYPE_COUNT; index++ )
+        {
+            List<JobControlListener> subscribed = new ArrayList<>();
+            for( int i = 0; i < masks.length; i++ )
+            {
+                if( ( masks[i] & ( 1 << index ) ) != 0 )
+                    subscribed.add(listeners.get(i));
+            }
+            result[index] = subscribed.isEmpty() ? NO_LISTENERS : subscribed.toArray(new JobControlListener[subscribed.size()]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns listeners subscribed to the event type.
+     *
+     * @param type one of event type bits, like {@link JobControlEvent#VALUE_CHANGED}
+     */
+    private JobControlListener[] getListeners(int type)
+    {
+        return listenersByType[Integer.numberOfTrailingZeros(type)];
+    }
+
+    /**
+     * Returns true if some listener is subscribed to any of the event types.
+     *
+     * @param mask combination of event type bits
+     */
+    public boolean hasListeners(int mask)
+    {
+        JobControlListener[][] byType = listenersByType;
+        for( int index = 0; index < EVENT_TYPE_COUNT; index++ )
+        {
+            if( ( mask & ( 1 << index ) ) != 0 && byType[index].length > 0 )
+                return true;
+        }
+        return false;
+    }
 
+    /**
+     * Adds listener. If the listener is {@link MaskedJobControlListener}, it is notified only about events
+     * of the types from its mask.
+     */
     @Override
     public void addListener(JobControlListener listener)
     {
-        if( listener != null )
-            listeners.addElement(listener);
+        if( listener == null )
+            return;
+        synchronized( listeners )
+        {
+            listeners.add(listener);
+            listenersByType = createListenersByType(listeners);
+        }
     }
 
     @Override
     public void removeListener(JobControlListener listener)
     {
-        if( listener != null )
-            listeners.removeElement(listener);
+        if( listener == null )
+            return;
+        synchronized( listeners )
+        {
+            if( listeners.remove(listener) )
+                listenersByType = createListenersByType(listeners);
+        }
     }
 
     /**
@@ -389,8 +875,11 @@ abstract public class AbstractJobControl implements JobControl
      */
     protected void fireJobStarted(String msg)
     {
-        JobControlEvent event = new JobControlEvent(this, msg);
-        for( JobControlListener listener : listeners.toArray(new JobControlListener[listeners.size()]) )
+        JobControlListener[] targets = getListeners(JobControlEvent.JOB_STARTED);
+        if( targets.length == 0 )
+            return;
+        JobControlEvent event = withAttempt(new JobControlEvent(this, msg));
+        for( JobControlListener listener : targets )
         {
             listener.jobStarted(event);
         }
@@ -403,8 +892,11 @@ abstract public class AbstractJobControl implements JobControl
      */
     protected void fireJobPaused()
     {
-        JobControlEvent event = new JobControlEvent(this);
-        for( JobControlListener listener : listeners.toArray(new JobControlListener[listeners.size()]) )
+        JobControlListener[] targets = getListeners(JobControlEvent.JOB_PAUSED);
+        if( targets.length == 0 )
+            return;
+        JobControlEvent event = withAttempt(new JobControlEvent(this));
+        for( JobControlListener listener : targets )
         {
             listener.jobPaused(event);
         }
@@ -417,8 +909,11 @@ abstract public class AbstractJobControl implements JobControl
      */
     protected void fireJobResumed()
     {
-        JobControlEvent event = new JobControlEvent(this);
-        for( JobControlListener listener : listeners.toArray(new JobControlListener[listeners.size()]) )
+        JobControlListener[] targets = getListeners(JobControlEvent.JOB_RESUMED);
+        if( targets.length == 0 )
+            return;
+        JobControlEvent event = withAttempt(new JobControlEvent(this));
+        for( JobControlListener listener : targets )
         {
             listener.jobResumed(event);
         }
@@ -430,8 +925,11 @@ abstract public class AbstractJobControl implements JobControl
      */
     public void fireValueChanged()
     {
-        JobControlEvent event = new JobControlEvent(this);
-        for( JobControlListener listener : listeners.toArray(new JobControlListener[listeners.size()]) )
+        JobControlListener[] targets = getListeners(JobControlEvent.VALUE_CHANGED);
+        if( targets.length == 0 )
+            return;
+        JobControlEvent event = withAttempt(new JobControlEvent(this));
+        for( JobControlListener listener : targets )
         {
             listener.valueChanged(event);
         }
@@ -455,9 +953,12 @@ abstract public class AbstractJobControl implements JobControl
      */
     protected void fireJobTerminated(String msg, JobControlException ex)
     {
-        JobControlEvent event = ex == null ? new JobControlEvent(this, msg) : new JobControlEvent(this, ex);
+        JobControlListener[] targets = getListeners(JobControlEvent.JOB_TERMINATED);
+        if( targets.length == 0 )
+            return;
+        JobControlEvent event = withAttempt(ex == null ? new JobControlEvent(this, msg) : new JobControlEvent(this, ex));
 
-        for( JobControlListener listener : listeners.toArray(new JobControlListener[listeners.size()]) )
+        for( JobControlListener listener : targets )
         {
             listener.jobTerminated(event);
         }
@@ -499,7 +1000,8 @@ abstract public class AbstractJobControl implements JobControl
     {
         this.status = status;
         isTerminated = true;
-        endedDate = new Date();
+        endedTime = System.currentTimeMillis();
+        publishState();
     }
 
     /**
@@ -510,11 +1012,13 @@ abstract public class AbstractJobControl implements JobControl
     @Override
     public void setPreparedness(int percent)
     {
+        activity++;
         if( preparedness != percent )
         {
-            curTime = Calendar.getInstance().getTime().getTime();
+            progressTime = System.currentTimeMillis();
 
             preparedness = percent;
+            publishState();
 
             fireValueChanged();
         }
@@ -522,25 +1026,94 @@ abstract public class AbstractJobControl implements JobControl
 
     public void resultsAreReady()
     {
-        JobControlEvent event = new JobControlEvent(this, "results");
-        for( JobControlListener listener : listeners.toArray(new JobControlListener[listeners.size()]) )
+        JobControlListener[] targets = getListeners(JobControlEvent.RESULTS_READY);
+        if( targets.length > 0 )
         {
-            listener.resultsReady(event);
+            JobControlEvent event = withAttempt(new JobControlEvent(this, "results"));
+            for( JobControlListener listener : targets )
+            {
+                listener.resultsReady(event);
+            }
         }
         setCompleted();
     }
 
     public void resultsAreReady(Object[] results)
     {
-        JobControlEvent event = new JobControlEvent(this, results);
-        for( JobControlListener listener : listeners.toArray(new JobControlListener[listeners.size()]) )
+        if( results != null )
         {
-            listener.resultsReady(event);
+            for( Object result : results )
+            {
+                if( result instanceof ResultHandle )
+                    ( (ResultHandle)result ).handOut();
+            }
+        }
+        JobControlListener[] targets = getListeners(JobControlEvent.RESULTS_READY);
+        if( targets.length > 0 )
+        {
+            JobControlEvent event = withAttempt(new JobControlEvent(this, results));
+            for( JobControlListener listener : targets )
+            {
+                listener.resultsReady(event);
+            }
         }
         if(status != TERMINATED_BY_REQUEST)
             setCompleted();
     }
 
+    private volatile ResultStore resultStore;
+
+    /**
+     * Returns store for large results of this job.
+     *
+     * Handles returned by the store can be passed to {@link #resultsAreReady(Object[])}
+     * instead of the data. Results of the terminated job are released when it ends, results of the completed job
+     * are kept until {@link #dispose()} is called, so the owner of the completed job should dispose it
+     * when its results are no longer needed.
+     *
+     * @return result store of this job
+     */
+    public ResultStore getResultStore()
+    {
+        ResultStore store = resultStore;
+        if( store == null )
+        {
+            synchronized( this )
+            {
+                store = resultStore;
+                if( store == null )
+                {
+                    store = new ResultStore();
+                    resultStore = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Results of the terminated job are released when it ends. Results which were already delivered to listeners
+     * are not freed eagerly, see {@link ResultHandle#release()}.
+     */
+    private void releaseTerminatedResults()
+    {
+        ResultStore store = resultStore;
+        if( store != null && ( status == TERMINATED_BY_REQUEST || status == TERMINATED_BY_ERROR ) )
+            store.release();
+    }
+
+    /**
+     * Releases resources held by the job, including results kept in {@link #getResultStore()}.
+     *
+     * Job results must not be accessed after this call.
+     */
+    public void dispose()
+    {
+        ResultStore store = resultStore;
+        if( store != null )
+            store.release();
+    }
+
     /**
      * Sets {@link #COMPLETED} state  of job status
      */
@@ -548,6 +1121,7 @@ abstract public class AbstractJobControl implements JobControl
     {
         status = COMPLETED;
         isTerminated = true;
+        publishState();
     }
 
 
@@ -558,6 +1132,7 @@ abstract public class AbstractJobControl implements JobControl
     {
         status = CREATED;
         resetFlags();
+        publishState();
     }
 
 
@@ -572,24 +1147,25 @@ abstract public class AbstractJobControl implements JobControl
 
     /**
      * Tests status of job control. If controlled process is terminated throws JobControlException with status TERMINATED_BY_REQUEST
+     * ({@link JobTimeoutException} if the job deadline was exceeded).
      * Waits of resuming action, if isPaused variable is set.
      *
      * @exception JobControlException
      */
     public void checkStatus() throws JobControlException
     {
+        activity++;
+
         // throw Exception if terminated
         if( isTerminated() )
-        {
-            fireJobTerminated("" + getTextStatus(TERMINATED_BY_REQUEST), null);
-            throw new JobControlException(TERMINATED_BY_REQUEST);
-        }
+            throwTerminated();
 
         if( isPaused() )
         {
             CountDownLatch latch = this.latch;
             if(latch != null)
             {
+                boolean interrupted = false;
                 while(true)
                 {
                     try
@@ -599,13 +1175,32 @@ abstract public class AbstractJobControl implements JobControl
                     }
                     catch( InterruptedException e )
                     {
-                        continue;
+                        // interrupted by terminate()
+                        if( isTerminated() )
+                            break;
+                        interrupted = true;
                     }
                 }
+                if( interrupted )
+                    Thread.currentThread().interrupt();
+                if( isTerminated() )
+                    throwTerminated();
             }
         }
     }
 
+    private void throwTerminated() throws JobControlException
+    {
+        if( timedOut )
+        {
+            JobTimeoutException ex = new JobTimeoutException();
+            fireJobTerminated(null, ex);
+            throw ex;
+        }
+        fireJobTerminated("" + getTextStatus(TERMINATED_BY_REQUEST), null);
+        throw new JobControlException(TERMINATED_BY_REQUEST);
+    }
+
 
     /**
      * Converts time to the string
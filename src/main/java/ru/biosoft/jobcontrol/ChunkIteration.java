@@ -0,0 +1,14 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.List;
+
+public interface ChunkIteration<T>
+{
+    /**
+     * Called on each chunk of the cycle.
+     * 
+     * @param chunk contiguous view of the iterated list, valid only during the call
+     * @return true if cycle should continue; false if cycle should break
+     */
+    public boolean run(List<T> chunk);
+}
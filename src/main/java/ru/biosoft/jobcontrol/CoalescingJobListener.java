@@ -0,0 +1,89 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Listener accumulating mask of occurred event types until they are drained.
+ *
+ * Used to push job state periodically instead of on every event:
+ * {@link #changed()} is called on the first event after the previous {@link #drain()}.
+ */
+abstract class CoalescingJobListener implements JobControlListener
+{
+    private final AtomicInteger events = new AtomicInteger();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private volatile String message;
+
+    /**
+     * Called on the first event after the previous drain. Should be cheap, since it is called from the job thread.
+     */
+    protected abstract void changed();
+
+    /**
+     * Returns mask of event types occurred since the previous drain and resets it.
+     */
+    int drain()
+    {
+        dirty.set(false);
+        return events.getAndSet(0);
+    }
+
+    /**
+     * Returns message of the last lifecycle event.
+     */
+    String getMessage()
+    {
+        return message;
+    }
+
+    private void changed(int type, JobControlEvent event)
+    {
+        int old;
+        do
+        {
+            old = events.get();
+        }
+        while( ( old & type ) != type && !events.compareAndSet(old, old | type) );
+        if( type != JobControlEvent.VALUE_CHANGED )
+            message = event.getException() != null ? String.valueOf(event.getException().getMessage()) : event.getMessage();
+        if( dirty.compareAndSet(false, true) )
+            changed();
+    }
+
+    @Override
+    public void valueChanged(JobControlEvent event)
+    {
+        changed(JobControlEvent.VALUE_CHANGED, event);
+    }
+
+    @Override
+    public void jobStarted(JobControlEvent event)
+    {
+        changed(JobControlEvent.JOB_STARTED, event);
+    }
+
+    @Override
+    public void jobTerminated(JobControlEvent event)
+    {
+        changed(JobControlEvent.JOB_TERMINATED, event);
+    }
+
+    @Override
+    public void jobPaused(JobControlEvent event)
+    {
+        changed(JobControlEvent.JOB_PAUSED, event);
+    }
+
+    @Override
+    public void jobResumed(JobControlEvent event)
+    {
+        changed(JobControlEvent.JOB_RESUMED, event);
+    }
+
+    @Override
+    public void resultsReady(JobControlEvent event)
+    {
+        changed(JobControlEvent.RESULTS_READY, event);
+    }
+}
@@ -0,0 +1,26 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates numbered daemon threads.
+ */
+class DaemonThreadFactory implements ThreadFactory
+{
+    private final String name;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    DaemonThreadFactory(String name)
+    {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r)
+    {
+        Thread thread = new Thread(r, name + " " + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
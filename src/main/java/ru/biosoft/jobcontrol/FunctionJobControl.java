@@ -104,11 +104,11 @@ public class FunctionJobControl extends AbstractJobControl
      */
     public void functionTerminatedByError(Throwable t)
     {
-        if (log != null)
+        if( log != null )
             log.log(Level.SEVERE, t.getMessage(), t);
 
         JobControlException ex = new JobControlException(t);
-        exceptionOccured(ex);
+        exceptionOccured(ex, true);
 
         end(ex);
     }
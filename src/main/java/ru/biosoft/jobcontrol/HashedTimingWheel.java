@@ -0,0 +1,319 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timer based on hashed timing wheel.
+ *
+ * Scheduling and cancelling of timeouts take constant time, so the wheel is suitable for
+ * large number of timeouts which are rarely expired, like job deadlines.
+ * Timeouts are checked once per tick by single daemon thread, so tasks should be short.
+ * The thread is started when the first timeout is scheduled.
+ */
+public class HashedTimingWheel
+{
+    private static final Logger log = Logger.getLogger(HashedTimingWheel.class.getName());
+
+    /** Default duration of the tick in milliseconds */
+    public static final long DEFAULT_TICK = 10;
+
+    /** Default number of buckets in the wheel */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static class DefaultHolder
+    {
+        static final HashedTimingWheel INSTANCE = new HashedTimingWheel(DEFAULT_TICK, DEFAULT_WHEEL_SIZE, "JobControl timer");
+    }
+
+    /**
+     * Returns shared timing wheel.
+     */
+    public static HashedTimingWheel getDefault()
+    {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Scheduled task which can be cancelled.
+     */
+    public static final class Timeout
+    {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class,
+                "state");
+
+        private final HashedTimingWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state = ST_INIT;
+
+        // accessed by the wheel thread only
+        private long remainingRounds;
+        private Timeout next, prev;
+        private Bucket bucket;
+
+        private Timeout(HashedTimingWheel wheel, Runnable task, long deadline)
+        {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout. Task will not be run if it was not run yet.
+         *
+         * @return true if timeout was cancelled by this call
+         */
+        public boolean cancel()
+        {
+            if( !STATE.compareAndSet(this, ST_INIT, ST_CANCELLED) )
+                return false;
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled()
+        {
+            return state == ST_CANCELLED;
+        }
+
+        public boolean isExpired()
+        {
+            return state == ST_EXPIRED;
+        }
+
+        private void expire()
+        {
+            if( !STATE.compareAndSet(this, ST_INIT, ST_EXPIRED) )
+                return;
+            try
+            {
+                task.run();
+            }
+            catch( Throwable t )
+            {
+                log.log(Level.WARNING, "Timeout task failed", t);
+            }
+        }
+    }
+
+    /**
+     * Doubly-linked list of timeouts.
+     */
+    private static final class Bucket
+    {
+        private Timeout head, tail;
+
+        void add(Timeout timeout)
+        {
+            timeout.bucket = this;
+            if( head == null )
+            {
+                head = tail = timeout;
+            }
+            else
+            {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        Timeout remove(Timeout timeout)
+        {
+            Timeout next = timeout.next;
+            if( timeout.prev != null )
+                timeout.prev.next = next;
+            if( timeout.next != null )
+                timeout.next.prev = timeout.prev;
+            if( timeout == head )
+                head = next;
+            if( timeout == tail )
+                tail = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        void expireTimeouts()
+        {
+            Timeout timeout = head;
+            while( timeout != null )
+            {
+                if( timeout.remainingRounds <= 0 )
+                {
+                    Timeout next = remove(timeout);
+                    timeout.expire();
+                    timeout = next;
+                }
+                else
+                {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+
+    private final long tickDuration;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final String name;
+
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private volatile Thread worker;
+    private volatile boolean stopped = false;
+    private long startTime;
+    private long tick;
+
+    /**
+     * Constructs timing wheel.
+     *
+     * @param tickMillis duration of the tick in milliseconds
+     * @param wheelSize number of buckets, rounded up to the power of two
+     * @param name name of the timer thread
+     */
+    public HashedTimingWheel(long tickMillis, int wheelSize, String name)
+    {
+        if( tickMillis <= 0 )
+            throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+        if( wheelSize <= 0 || wheelSize > ( 1 << 30 ) )
+            throw new IllegalArgumentException("Invalid wheelSize: " + wheelSize);
+        int size = 1;
+        while( size < wheelSize )
+            size <<= 1;
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Bucket[size];
+        for( int i = 0; i < size; i++ )
+            wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.name = name;
+    }
+
+    /**
+     * Schedules task to be run after specified delay.
+     *
+     * @param task task to run in the timer thread
+     * @param delay delay
+     * @param unit unit of the delay
+     * @return timeout which can be used to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit)
+    {
+        if( stopped )
+            throw new IllegalStateException("Timer " + name + " is stopped");
+        start();
+        long elapsed = System.nanoTime() - startTime;
+        // saturate far-future deadlines instead of overflowing to the past
+        long deadline = elapsed + Math.min(unit.toNanos(Math.max(delay, 0)), Long.MAX_VALUE - elapsed);
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the timer thread. Scheduled timeouts will not be run.
+     */
+    public void stop()
+    {
+        stopped = true;
+        Thread worker = this.worker;
+        if( worker != null )
+            worker.interrupt();
+    }
+
+    private void start()
+    {
+        if( worker != null )
+            return;
+        synchronized( this )
+        {
+            if( worker != null )
+                return;
+            startTime = System.nanoTime();
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    work();
+                }
+            }, name);
+            thread.setDaemon(true);
+            worker = thread;
+            thread.start();
+        }
+    }
+
+    private void work()
+    {
+        while( !stopped )
+        {
+            if( !waitForNextTick() )
+                break;
+            processCancelled();
+            transferPending();
+            wheel[(int) ( tick & mask )].expireTimeouts();
+            tick++;
+        }
+    }
+
+    /**
+     * @return false if timer was stopped
+     */
+    private boolean waitForNextTick()
+    {
+        long deadline = tickDuration * ( tick + 1 );
+        while( true )
+        {
+            long current = System.nanoTime() - startTime;
+            long sleepMillis = ( deadline - current + 999999 ) / 1000000;
+            if( sleepMillis <= 0 )
+                return true;
+            try
+            {
+                Thread.sleep(sleepMillis);
+            }
+            catch( InterruptedException e )
+            {
+                if( stopped )
+                    return false;
+            }
+        }
+    }
+
+    private void transferPending()
+    {
+        Timeout timeout;
+        while( ( timeout = pending.poll() ) != null )
+        {
+            if( timeout.state != Timeout.ST_INIT )
+                continue;
+            long ticks = timeout.deadline / tickDuration;
+            timeout.remainingRounds = ( ticks - tick ) / wheel.length;
+            wheel[(int) ( Math.max(ticks, tick) & mask )].add(timeout);
+        }
+    }
+
+    private void processCancelled()
+    {
+        Timeout timeout;
+        while( ( timeout = cancelled.poll() ) != null )
+        {
+            Bucket bucket = timeout.bucket;
+            if( bucket != null )
+                bucket.remove(timeout);
+        }
+    }
+}
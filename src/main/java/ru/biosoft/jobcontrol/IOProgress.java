@@ -0,0 +1,72 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Progress of reading the data of known size, shared by I/O wrappers.
+ *
+ * Job is checked only when the position crosses the next percent boundary or after {@link #CHECK_INTERVAL} bytes,
+ * so the cost of each read call is a couple of comparisons.
+ */
+final class IOProgress
+{
+    /** Maximal number of bytes transferred between job status checks */
+    static final int CHECK_INTERVAL = 1 << 16;
+
+    private final AbstractJobControl jobControl;
+    private final long size;
+    private long position;
+    private long nextCheck;
+    private long nextPercent;
+
+    IOProgress(AbstractJobControl jobControl, long size, long position)
+    {
+        this.jobControl = jobControl;
+        this.size = size;
+        this.position = position;
+        schedule();
+    }
+
+    /**
+     * Registers transferred bytes.
+     *
+     * @param count number of transferred bytes
+     * @param newPosition position after the transfer, progress never goes back
+     */
+    void advance(long count, long newPosition) throws InterruptedIOException
+    {
+        nextCheck -= count;
+        if( newPosition > position )
+            position = newPosition;
+        if( nextCheck <= 0 || position >= nextPercent )
+            check();
+    }
+
+    /**
+     * Checks job status and updates preparedness.
+     *
+     * @throws InterruptedIOException if the job is terminated, cause is {@link JobControlException}
+     */
+    void check() throws InterruptedIOException
+    {
+        if( size > 0 )
+            jobControl.setPreparedness((int)Math.min(100 * position / size, 100));
+        schedule();
+        try
+        {
+            jobControl.checkStatus();
+        }
+        catch( JobControlException e )
+        {
+            InterruptedIOException ex = new InterruptedIOException(e.getMessage() == null ? "Job terminated" : e.getMessage());
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    private void schedule()
+    {
+        nextCheck = CHECK_INTERVAL;
+        nextPercent = size > 0 && position < size ? ( ( 100 * position / size + 1 ) * size + 99 ) / 100 : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,414 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits number of simultaneously running jobs of the same kind.
+ *
+ * Jobs are submitted with the key (job class by default). For each key at most configured number of jobs
+ * is running, the rest wait in FIFO queue in {@link JobControl#CREATED} state, their position can be obtained by
+ * {@link #getQueuePosition(JobControl)}. When the queue is full, {@link #submit(Object, JobControl)} rejects the job and
+ * {@link #put(Object, JobControl)} blocks until there is a room in the queue.
+ * If the executor rejects a job taken from the queue, the job is returned to the head of the queue and started
+ * when a slot is released or another job with the same key is submitted.
+ *
+ * <pre>
+ * JobAdmissionController controller = new JobAdmissionController();
+ * controller.setLimit(MyAnalysis.class, 4, 100);
+ * controller.submit(new MyAnalysis(log));
+ * </pre>
+ */
+public class JobAdmissionController
+{
+    private static final Logger log = Logger.getLogger(JobAdmissionController.class.getName());
+
+    /** Default number of simultaneously running jobs per key */
+    public static final int DEFAULT_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+
+    /** Default capacity of the queue per key */
+    public static final int DEFAULT_QUEUE_CAPACITY = Integer.MAX_VALUE;
+
+    private static class Lane
+    {
+        final Object key;
+        int concurrency;
+        int queueCapacity;
+        int running = 0;
+        final ArrayDeque<JobControl> queue = new ArrayDeque<>();
+
+        Lane(Object key, int concurrency, int queueCapacity)
+        {
+            this.key = key;
+            this.concurrency = concurrency;
+            this.queueCapacity = queueCapacity;
+        }
+
+        /**
+         * @return job which should be started: the submitted one or the head of the queue
+         * if it was returned there after rejection, null if the job was queued
+         */
+        JobControl admit(JobControl jobControl, boolean block) throws InterruptedException
+        {
+            synchronized( this )
+            {
+                while( true )
+                {
+                    if( running < concurrency )
+                    {
+                        running++;
+                        JobControl next = queue.poll();
+                        if( next == null )
+                            return jobControl;
+                        queue.add(jobControl);
+                        return next;
+                    }
+                    if( queue.size() < queueCapacity )
+                    {
+                        queue.add(jobControl);
+                        return null;
+                    }
+                    if( !block )
+                        throw new RejectedExecutionException("Queue for " + key + " is full (" + queueCapacity + " jobs)");
+                    wait();
+                }
+            }
+        }
+
+        JobControl finished()
+        {
+            synchronized( this )
+            {
+                JobControl next = running <= concurrency ? queue.poll() : null;
+                if( next == null )
+                    running--;
+                // either room in the queue or free slot for blocked submitters
+                notifyAll();
+                return next;
+            }
+        }
+
+        /**
+         * Releases slots of the rejected jobs returning them to the head of the queue.
+         */
+        synchronized void rejected(JobControl[] jobs, int from, boolean requeue)
+        {
+            for( int i = jobs.length - 1; i >= from; i-- )
+            {
+                running--;
+                if( requeue )
+                    queue.addFirst(jobs[i]);
+            }
+            notifyAll();
+        }
+
+        synchronized boolean remove(JobControl jobControl)
+        {
+            if( !queue.remove(jobControl) )
+                return false;
+            notifyAll();
+            return true;
+        }
+
+        synchronized int getPosition(JobControl jobControl)
+        {
+            int position = 0;
+            for( Iterator<JobControl> it = queue.iterator(); it.hasNext(); position++ )
+            {
+                if( it.next() == jobControl )
+                    return position;
+            }
+            return -1;
+        }
+    }
+
+    private final Executor executor;
+    private final Map<Object, Lane> lanes = new ConcurrentHashMap<>();
+    private final Map<JobControl, Lane> queued = new ConcurrentHashMap<>();
+    private volatile int defaultConcurrency = DEFAULT_CONCURRENCY;
+    private volatile int defaultQueueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /**
+     * Constructs controller running jobs in its own daemon threads.
+     */
+    public JobAdmissionController()
+    {
+        this(Executors.newCachedThreadPool(new DaemonThreadFactory("JobControl worker")));
+    }
+
+    /**
+     * Constructs controller running jobs using specified executor.
+     *
+     * @param executor executor which runs admitted jobs
+     */
+    public JobAdmissionController(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets limits for keys which were not configured by {@link #setLimit(Object, int, int)}.
+     *
+     * @param concurrency maximal number of simultaneously running jobs
+     * @param queueCapacity maximal number of waiting jobs
+     */
+    public void setDefaultLimit(int concurrency, int queueCapacity)
+    {
+        checkLimits(concurrency, queueCapacity);
+        this.defaultConcurrency = concurrency;
+        this.defaultQueueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets limits for the key. Lowering concurrency does not affect already running jobs.
+     *
+     * @param key job class or any other key
+     * @param concurrency maximal number of simultaneously running jobs
+     * @param queueCapacity maximal number of waiting jobs
+     */
+    public void setLimit(Object key, int concurrency, int queueCapacity)
+    {
+        checkLimits(concurrency, queueCapacity);
+        Lane lane = getLane(key);
+        JobControl[] toStart;
+        synchronized( lane )
+        {
+            lane.concurrency = concurrency;
+            lane.queueCapacity = queueCapacity;
+            int n = Math.max(Math.min(concurrency - lane.running, lane.queue.size()), 0);
+            toStart = new JobControl[n];
+            for( int i = 0; i < n; i++ )
+                toStart[i] = lane.queue.poll();
+            lane.running += n;
+            lane.notifyAll();
+        }
+        for( int i = 0; i < toStart.length; i++ )
+        {
+            queued.remove(toStart[i]);
+            try
+            {
+                start(lane, toStart[i]);
+            }
+            catch( RejectedExecutionException e )
+            {
+                requeue(lane, toStart, i);
+                break;
+            }
+        }
+    }
+
+    private static void checkLimits(int concurrency, int queueCapacity)
+    {
+        if( concurrency <= 0 )
+            throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        if( queueCapacity < 0 )
+            throw new IllegalArgumentException("queueCapacity must not be negative: " + queueCapacity);
+    }
+
+    private Lane getLane(Object key)
+    {
+        Lane lane = lanes.get(key);
+        if( lane == null )
+        {
+            Lane newLane = new Lane(key, defaultConcurrency, defaultQueueCapacity);
+            lane = lanes.putIfAbsent(key, newLane);
+            if( lane == null )
+                lane = newLane;
+        }
+        return lane;
+    }
+
+    /**
+     * Submits the job using its class as the key.
+     *
+     * @see #submit(Object, JobControl)
+     */
+    public void submit(JobControl jobControl)
+    {
+        submit(jobControl.getClass(), jobControl);
+    }
+
+    /**
+     * Submits the job. The job is started immediately if limit for the key is not reached,
+     * otherwise it is put into the queue.
+     *
+     * @param key job class or any other key
+     * @param jobControl job to run
+     * @exception RejectedExecutionException if the queue for the key is full
+     */
+    public void submit(Object key, JobControl jobControl)
+    {
+        try
+        {
+            submit(key, jobControl, false);
+        }
+        catch( InterruptedException e )
+        {
+            // cannot happen: non-blocking submit does not wait
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Submits the job waiting while the queue for the key is full.
+     *
+     * @param key job class or any other key
+     * @param jobControl job to run
+     * @exception InterruptedException if the thread was interrupted while waiting
+     */
+    public void put(Object key, JobControl jobControl) throws InterruptedException
+    {
+        submit(key, jobControl, true);
+    }
+
+    private void submit(Object key, JobControl jobControl, boolean block) throws InterruptedException
+    {
+        Lane lane = getLane(key);
+        queued.put(jobControl, lane);
+        JobControl next;
+        try
+        {
+            next = lane.admit(jobControl, block);
+        }
+        catch( RejectedExecutionException | InterruptedException e )
+        {
+            queued.remove(jobControl);
+            throw e;
+        }
+        if( next == null )
+            return;
+        queued.remove(next);
+        try
+        {
+            start(lane, next);
+        }
+        catch( RejectedExecutionException e )
+        {
+            if( next != jobControl )
+            {
+                requeue(lane, new JobControl[] {next}, 0);
+                return;
+            }
+            // submitter gets the rejection of its own job
+            lane.rejected(new JobControl[] {next}, 0, false);
+            throw e;
+        }
+    }
+
+    private void start(final Lane lane, final JobControl jobControl)
+    {
+        try
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        jobControl.run();
+                    }
+                    catch( RuntimeException e )
+                    {
+                        log.log(Level.SEVERE, "Job " + jobControl + " failed", e);
+                    }
+                    finally
+                    {
+                        finished(lane);
+                    }
+                }
+            });
+        }
+        catch( RejectedExecutionException e )
+        {
+            log.log(Level.SEVERE, "Cannot start job " + jobControl, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns jobs taken from the queue to its head after the executor rejected them.
+     * Rejection is not propagated: the thread starting them belongs to another job.
+     */
+    private void requeue(Lane lane, JobControl[] jobs, int from)
+    {
+        for( int i = from; i < jobs.length; i++ )
+            queued.put(jobs[i], lane);
+        lane.rejected(jobs, from, true);
+    }
+
+    private void finished(Lane lane)
+    {
+        JobControl next = lane.finished();
+        if( next == null )
+            return;
+        queued.remove(next);
+        try
+        {
+            start(lane, next);
+        }
+        catch( RejectedExecutionException e )
+        {
+            requeue(lane, new JobControl[] {next}, 0);
+        }
+    }
+
+    /**
+     * Removes the job from the queue.
+     *
+     * @param jobControl waiting job
+     * @return true if the job was waiting and was removed
+     */
+    public boolean cancel(JobControl jobControl)
+    {
+        Lane lane = queued.remove(jobControl);
+        return lane != null && lane.remove(jobControl);
+    }
+
+    /**
+     * Returns position of the job in the queue.
+     *
+     * @param jobControl submitted job
+     * @return zero-based position or -1 if the job is not waiting
+     */
+    public int getQueuePosition(JobControl jobControl)
+    {
+        Lane lane = queued.get(jobControl);
+        return lane == null ? -1 : lane.getPosition(jobControl);
+    }
+
+    /**
+     * Returns number of running jobs for the key.
+     */
+    public int getRunningCount(Object key)
+    {
+        Lane lane = lanes.get(key);
+        if( lane == null )
+            return 0;
+        synchronized( lane )
+        {
+            return lane.running;
+        }
+    }
+
+    /**
+     * Returns number of waiting jobs for the key.
+     */
+    public int getQueuedCount(Object key)
+    {
+        Lane lane = lanes.get(key);
+        if( lane == null )
+            return 0;
+        synchronized( lane )
+        {
+            return lane.queue.size();
+        }
+    }
+}
@@ -10,10 +10,60 @@ package ru.biosoft.jobcontrol;
 
 public class JobControlEvent
 {
+    /** Event type bit: {@link JobControlListener#valueChanged(JobControlEvent)} */
+    public static final int VALUE_CHANGED = 1;
+
+    /** Event type bit: {@link JobControlListener#jobStarted(JobControlEvent)} */
+    public static final int JOB_STARTED = 2;
+
+    /** Event type bit: {@link JobControlListener#jobTerminated(JobControlEvent)} */
+    public static final int JOB_TERMINATED = 4;
+
+    /** Event type bit: {@link JobControlListener#jobPaused(JobControlEvent)} */
+    public static final int JOB_PAUSED = 8;
+
+    /** Event type bit: {@link JobControlListener#jobResumed(JobControlEvent)} */
+    public static final int JOB_RESUMED = 16;
+
+    /** Event type bit: {@link JobControlListener#resultsReady(JobControlEvent)} */
+    public static final int RESULTS_READY = 32;
+
+    /** Mask of all event types */
+    public static final int ALL_EVENTS = VALUE_CHANGED | JOB_STARTED | JOB_TERMINATED | JOB_PAUSED | JOB_RESUMED | RESULTS_READY;
+
+    /**
+     * Returns name of the event type which equals to the name of corresponding {@link JobControlListener} method.
+     *
+     * @param type one of event type bits, like {@link #VALUE_CHANGED}
+     * @return name of the event type
+     */
+    public static String getTypeName(int type)
+    {
+        switch( type )
+        {
+            case VALUE_CHANGED:
+                return "valueChanged";
+            case JOB_STARTED:
+                return "jobStarted";
+            case JOB_TERMINATED:
+                return "jobTerminated";
+            case JOB_PAUSED:
+                return "jobPaused";
+            case JOB_RESUMED:
+                return "jobResumed";
+            case RESULTS_READY:
+                return "resultsReady";
+            default:
+                return "unknown";
+        }
+    }
+
     protected JobControl jobControl = null;
     protected String message;
     protected Object[] results;
     protected JobControlException ex;
+    protected int attempt = 1;
+    protected long retryDelay = -1;
 
     /**
      * Constructs JobControlEvent with the specified jobControl and message.
@@ -117,8 +167,36 @@ public class JobControlEvent
         return ex;
     }
 
+    /**
+     * Returns number of the job attempt starting from 1.
+     *
+     * @see RetryPolicy
+     */
+    public int getAttempt()
+    {
+        return attempt;
+    }
+
+    /**
+     * Returns delay in milliseconds before the next attempt of the job
+     * if the job is terminated and will be retried, -1 otherwise.
+     *
+     * @see RetryPolicy
+     */
+    public long getRetryDelay()
+    {
+        return retryDelay;
+    }
+
+    void setAttempt(int attempt, long retryDelay)
+    {
+        this.attempt = attempt;
+        this.retryDelay = retryDelay;
+    }
+
     /**
      * Returns array of paths pointing to results if they are ready.
+     * Large results are usually passed as {@link ResultHandle} objects.
      */
     public Object[] getResults()
     {
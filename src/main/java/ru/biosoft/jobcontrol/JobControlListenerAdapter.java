@@ -2,9 +2,44 @@ package ru.biosoft.jobcontrol;
 
 /**
  * JobControlListenerAdapter is stub implementation of {@link JobControlListener} interface.
+ *
+ * Adapter is subscribed only to the events whose methods are overridden by its class.
  */
-public class JobControlListenerAdapter implements JobControlListener
+public class JobControlListenerAdapter implements MaskedJobControlListener
 {
+    private static final ClassValue<Integer> EVENT_MASKS = new ClassValue<Integer>()
+    {
+        @Override
+        protected Integer computeValue(Class<?> type)
+        {
+            int mask = 0;
+            for( int eventType = 1; eventType <= JobControlEvent.ALL_EVENTS; eventType <<= 1 )
+            {
+                try
+                {
+                    if( type.getMethod(JobControlEvent.getTypeName(eventType), JobControlEvent.class)
+                            .getDeclaringClass() != JobControlListenerAdapter.class )
+                        mask |= eventType;
+                }
+                catch( NoSuchMethodException | SecurityException e )
+                {
+                    mask |= eventType;
+                }
+            }
+            return mask;
+        }
+    };
+
+    /**
+     * Returns mask of the events whose methods are overridden by the class of this adapter.
+     * Can be overridden to subscribe explicitly.
+     */
+    @Override
+    public int getEventMask()
+    {
+        return EVENT_MASKS.get(getClass());
+    }
+
     /**
      * Invoked when preparedness of job is changed.
      * 
@@ -141,7 +141,8 @@ public class JobControlPane extends JPanel
             @Override
             public void valueChanged(JobControlEvent event)
             {
-                log.log(Level.FINE, "JobControlListener pane : valueChanged " + event.getPreparedness());
+                if( log.isLoggable(Level.FINE) )
+                    log.log(Level.FINE, "JobControlListener pane : valueChanged " + event.getPreparedness());
 
                 progressBar.setValue(event.getPreparedness());
                 long remainingTime = event.getJobControl().getRemainedTime();
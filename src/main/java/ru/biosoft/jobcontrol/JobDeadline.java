@@ -0,0 +1,185 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of the job.
+ *
+ * Deadline is armed when the job starts and disarmed when it is terminated.
+ * When deadline is exceeded, the job is terminated by {@link AbstractJobControl#terminateByTimeout()}.
+ * Deadlines are enforced by shared {@link HashedTimingWheel}, so arming and disarming take constant time.
+ *
+ * Deadline instance can be set to one job only:
+ * <pre>
+ * job.setDeadline(JobDeadline.runningTime(10, TimeUnit.MINUTES));
+ * </pre>
+ *
+ * @see AbstractJobControl#setDeadline(JobDeadline)
+ */
+public class JobDeadline extends JobControlListenerAdapter
+{
+    private static final int ABSOLUTE = 0;
+    private static final int RELATIVE = 1;
+    private static final int RUNNING_TIME = 2;
+
+    private final int kind;
+    private final long value;
+    private final HashedTimingWheel wheel;
+
+    private AbstractJobControl jobControl;
+    private HashedTimingWheel.Timeout timeout;
+    /** running time used before the last pause, for RUNNING_TIME deadlines */
+    private long usedTime;
+    private long armedTime;
+
+    private JobDeadline(int kind, long value, HashedTimingWheel wheel)
+    {
+        this.kind = kind;
+        this.value = value;
+        this.wheel = wheel;
+    }
+
+    /**
+     * Creates deadline at the specified moment.
+     *
+     * @param time unix format time
+     */
+    public static JobDeadline at(long time)
+    {
+        return new JobDeadline(ABSOLUTE, time, HashedTimingWheel.getDefault());
+    }
+
+    /**
+     * Creates deadline after specified time since job start, including time spent in pause.
+     *
+     * @param time time budget
+     * @param unit unit of time budget
+     */
+    public static JobDeadline after(long time, TimeUnit unit)
+    {
+        return new JobDeadline(RELATIVE, unit.toMillis(time), HashedTimingWheel.getDefault());
+    }
+
+    /**
+     * Creates deadline after specified running time of the job. Time spent in pause is not counted.
+     *
+     * @param time time budget
+     * @param unit unit of time budget
+     */
+    public static JobDeadline runningTime(long time, TimeUnit unit)
+    {
+        return new JobDeadline(RUNNING_TIME, unit.toMillis(time), HashedTimingWheel.getDefault());
+    }
+
+    synchronized void attach(AbstractJobControl jobControl)
+    {
+        if( this.jobControl != null && this.jobControl != jobControl )
+            throw new IllegalStateException("Deadline is already set to another job");
+        this.jobControl = jobControl;
+        if( jobControl.getStatus() == JobControl.RUNNING )
+            arm(jobControl.getStartedTime());
+    }
+
+    synchronized void detach()
+    {
+        disarm();
+        jobControl = null;
+    }
+
+    private void arm(long startedTime)
+    {
+        disarm();
+        long now = System.currentTimeMillis();
+        long delay;
+        switch( kind )
+        {
+            case ABSOLUTE:
+                delay = Math.max(value, now) - now;
+                break;
+            case RELATIVE:
+                delay = saturatedAdd(startedTime, value) - now;
+                break;
+            default:
+                delay = value - usedTime;
+                break;
+        }
+        armedTime = now;
+        final AbstractJobControl job = jobControl;
+        timeout = wheel.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                job.terminateByTimeout();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds budget to the time, returning Long.MAX_VALUE on overflow.
+     */
+    private static long saturatedAdd(long time, long budget)
+    {
+        return budget > Long.MAX_VALUE - time ? Long.MAX_VALUE : time + budget;
+    }
+
+    private void disarm()
+    {
+        if( timeout != null )
+        {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+    /**
+     * Returns time left before the deadline in milliseconds or -1 if the deadline is not armed.
+     */
+    public synchronized long getRemainedTime()
+    {
+        if( timeout == null )
+            return -1;
+        long now = System.currentTimeMillis();
+        switch( kind )
+        {
+            case ABSOLUTE:
+                return Math.max(value, now) - now;
+            case RELATIVE:
+                return Math.max(saturatedAdd(jobControl.getStartedTime(), value) - now, 0);
+            default:
+                return Math.max(value - usedTime - ( now - armedTime ), 0);
+        }
+    }
+
+    @Override
+    public synchronized void jobStarted(JobControlEvent event)
+    {
+        if( jobControl == null )
+            return;
+        usedTime = 0;
+        arm(jobControl.getStartedTime());
+    }
+
+    @Override
+    public synchronized void jobPaused(JobControlEvent event)
+    {
+        if( kind == RUNNING_TIME && timeout != null )
+        {
+            usedTime += System.currentTimeMillis() - armedTime;
+            disarm();
+        }
+    }
+
+    @Override
+    public synchronized void jobResumed(JobControlEvent event)
+    {
+        if( kind == RUNNING_TIME && jobControl != null && timeout == null )
+            arm(jobControl.getStartedTime());
+    }
+
+    @Override
+    public synchronized void jobTerminated(JobControlEvent event)
+    {
+        disarm();
+    }
+}
@@ -0,0 +1,270 @@
+package ru.biosoft.jobcontrol;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact versioned binary encoding of job events.
+ *
+ * Record layout (big-endian):
+ * <pre>
+ *  0  byte  version
+ *  1  byte  event type
+ *  2  byte  status
+ *  3  byte  preparedness
+ *  4  int   record length in bytes
+ *  8  long  job id
+ * 16  long  sequence number
+ * 24  long  timestamp
+ * 32  short message length in bytes (0xFFFF for null), UTF-8 message
+ *  .. short exception length in bytes (0xFFFF for null), UTF-8 exception summary
+ * </pre>
+ *
+ * Events are encoded directly into the buffer without intermediate objects.
+ * Fixed fields can be read in place by <code>get*</code> methods without decoding the whole record,
+ * so streams of records can be filtered without allocation.
+ *
+ * @see JobEventRecord
+ */
+public final class JobEventCodec
+{
+    private JobEventCodec()
+    {
+    }
+
+    /** Current version of the encoding */
+    public static final byte VERSION = 1;
+
+    /** Size of the fixed part of the record */
+    public static final int HEADER_SIZE = 32;
+
+    /** Maximal number of characters of encoded strings, longer strings are truncated */
+    public static final int MAX_STRING_LENGTH = 16384;
+
+    private static final int NULL_STRING = 0xFFFF;
+
+    private static final int OFFSET_TYPE = 1;
+    private static final int OFFSET_STATUS = 2;
+    private static final int OFFSET_PREPAREDNESS = 3;
+    private static final int OFFSET_LENGTH = 4;
+    private static final int OFFSET_JOB_ID = 8;
+    private static final int OFFSET_SEQUENCE = 16;
+    private static final int OFFSET_TIMESTAMP = 24;
+
+    /**
+     * Encodes the event capturing current state of its job. Should be called from the listener method.
+     *
+     * @param out buffer to write to, position is advanced by the record length
+     * @param jobId identifier of the job
+     * @param sequence sequence number of the event
+     * @param type event type, one of type bits like {@link JobControlEvent#VALUE_CHANGED}
+     * @param event the event
+     * @return length of the record
+     * @exception BufferOverflowException if there is not enough space in the buffer, position is not changed then
+     */
+    public static int encode(ByteBuffer out, long jobId, long sequence, int type, JobControlEvent event)
+    {
+        return encode(out, jobId, sequence, type, event.getStatus(), event.getPreparedness(), System.currentTimeMillis(),
+                event.getMessage(), JobEventRecord.getExceptionSummary(event.getException()));
+    }
+
+    /**
+     * Encodes the record.
+     *
+     * @param out buffer to write to, position is advanced by the record length
+     * @param record record to encode
+     * @return length of the record
+     * @exception BufferOverflowException if there is not enough space in the buffer, position is not changed then
+     */
+    public static int encode(ByteBuffer out, JobEventRecord record)
+    {
+        return encode(out, record.getJobId(), record.getSequence(), record.getType(), record.getStatus(), record.getPreparedness(),
+                record.getTimestamp(), record.getMessage(), record.getException());
+    }
+
+    private static int encode(ByteBuffer out, long jobId, long sequence, int type, int status, int preparedness, long timestamp,
+            String message, String exception)
+    {
+        int start = out.position();
+        try
+        {
+            out.put(VERSION);
+            out.put((byte)type);
+            out.put((byte)status);
+            out.put((byte)preparedness);
+            out.putInt(0);
+            out.putLong(jobId);
+            out.putLong(sequence);
+            out.putLong(timestamp);
+            putString(out, message);
+            putString(out, exception);
+        }
+        catch( BufferOverflowException e )
+        {
+            out.position(start);
+            throw e;
+        }
+        int length = out.position() - start;
+        out.putInt(start + OFFSET_LENGTH, length);
+        return length;
+    }
+
+    private static void putString(ByteBuffer out, String str)
+    {
+        if( str == null )
+        {
+            out.putShort((short)NULL_STRING);
+            return;
+        }
+        int lengthPosition = out.position();
+        out.putShort((short)0);
+        int length = Math.min(str.length(), MAX_STRING_LENGTH);
+        for( int i = 0; i < length; i++ )
+        {
+            char c = str.charAt(i);
+            if( c < 0x80 )
+            {
+                out.put((byte)c);
+            }
+            else if( c < 0x800 )
+            {
+                out.put((byte) ( 0xC0 | ( c >> 6 ) ));
+                out.put((byte) ( 0x80 | ( c & 0x3F ) ));
+            }
+            else if( Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1)) )
+            {
+                int cp = Character.toCodePoint(c, str.charAt(++i));
+                out.put((byte) ( 0xF0 | ( cp >> 18 ) ));
+                out.put((byte) ( 0x80 | ( ( cp >> 12 ) & 0x3F ) ));
+                out.put((byte) ( 0x80 | ( ( cp >> 6 ) & 0x3F ) ));
+                out.put((byte) ( 0x80 | ( cp & 0x3F ) ));
+            }
+            else if( Character.isSurrogate(c) )
+            {
+                out.put((byte)'?');
+            }
+            else
+            {
+                out.put((byte) ( 0xE0 | ( c >> 12 ) ));
+                out.put((byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) ));
+                out.put((byte) ( 0x80 | ( c & 0x3F ) ));
+            }
+        }
+        out.putShort(lengthPosition, (short) ( out.position() - lengthPosition - 2 ));
+    }
+
+    /**
+     * Decodes the record.
+     *
+     * @param in buffer to read from, position is advanced by the record length
+     * @return decoded record
+     * @exception IllegalArgumentException if the record version is not supported
+     * @exception BufferUnderflowException if the buffer does not contain the whole record
+     */
+    public static JobEventRecord decode(ByteBuffer in)
+    {
+        int start = in.position();
+        if( in.remaining() < HEADER_SIZE || in.remaining() < getLength(in, start) )
+            throw new BufferUnderflowException();
+        byte version = in.get();
+        if( version != VERSION )
+            throw new IllegalArgumentException("Unsupported event encoding version: " + version);
+        int type = in.get();
+        int status = in.get();
+        int preparedness = in.get();
+        int length = in.getInt();
+        long jobId = in.getLong();
+        long sequence = in.getLong();
+        long timestamp = in.getLong();
+        String message = getString(in);
+        String exception = getString(in);
+        in.position(start + length);
+        return new JobEventRecord(jobId, sequence, type, status, preparedness, timestamp, message, exception);
+    }
+
+    private static String getString(ByteBuffer in)
+    {
+        int length = in.getShort() & 0xFFFF;
+        if( length == NULL_STRING )
+            return null;
+        String result;
+        if( in.hasArray() )
+        {
+            result = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        }
+        else
+        {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            result = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    /**
+     * Returns version of the record starting at specified offset.
+     */
+    public static int getVersion(ByteBuffer in, int offset)
+    {
+        return in.get(offset);
+    }
+
+    /**
+     * Returns length of the record starting at specified offset.
+     */
+    public static int getLength(ByteBuffer in, int offset)
+    {
+        return in.getInt(offset + OFFSET_LENGTH);
+    }
+
+    /**
+     * Returns event type of the record starting at specified offset.
+     */
+    public static int getType(ByteBuffer in, int offset)
+    {
+        return in.get(offset + OFFSET_TYPE);
+    }
+
+    /**
+     * Returns job status of the record starting at specified offset.
+     */
+    public static int getStatus(ByteBuffer in, int offset)
+    {
+        return in.get(offset + OFFSET_STATUS);
+    }
+
+    /**
+     * Returns job preparedness of the record starting at specified offset.
+     */
+    public static int getPreparedness(ByteBuffer in, int offset)
+    {
+        return in.get(offset + OFFSET_PREPAREDNESS);
+    }
+
+    /**
+     * Returns job id of the record starting at specified offset.
+     */
+    public static long getJobId(ByteBuffer in, int offset)
+    {
+        return in.getLong(offset + OFFSET_JOB_ID);
+    }
+
+    /**
+     * Returns sequence number of the record starting at specified offset.
+     */
+    public static long getSequence(ByteBuffer in, int offset)
+    {
+        return in.getLong(offset + OFFSET_SEQUENCE);
+    }
+
+    /**
+     * Returns timestamp of the record starting at specified offset.
+     */
+    public static long getTimestamp(ByteBuffer in, int offset)
+    {
+        return in.getLong(offset + OFFSET_TIMESTAMP);
+    }
+}
@@ -0,0 +1,127 @@
+package ru.biosoft.jobcontrol;
+
+/**
+ * Immutable record of the job event with the job state captured at event time.
+ *
+ * Unlike {@link JobControlEvent} the record does not refer to the job, so it can be stored
+ * or sent to another process using {@link JobEventCodec}.
+ */
+public class JobEventRecord
+{
+    private final long jobId;
+    private final long sequence;
+    private final int type;
+    private final int status;
+    private final int preparedness;
+    private final long timestamp;
+    private final String message;
+    private final String exception;
+
+    /**
+     * Constructs record.
+     *
+     * @param jobId identifier of the job
+     * @param sequence sequence number of the event
+     * @param type event type, one of type bits like {@link JobControlEvent#VALUE_CHANGED}
+     * @param status status of the job
+     * @param preparedness preparedness of the job
+     * @param timestamp time of the event in milliseconds
+     * @param message event message or <code>null</code>
+     * @param exception exception summary or <code>null</code>
+     */
+    public JobEventRecord(long jobId, long sequence, int type, int status, int preparedness, long timestamp, String message,
+            String exception)
+    {
+        this.jobId = jobId;
+        this.sequence = sequence;
+        this.type = type;
+        this.status = status;
+        this.preparedness = preparedness;
+        this.timestamp = timestamp;
+        this.message = message;
+        this.exception = exception;
+    }
+
+    /**
+     * Captures current state of the event job. Should be called from the listener method.
+     *
+     * @param jobId identifier of the job
+     * @param sequence sequence number of the event
+     * @param type event type, one of type bits like {@link JobControlEvent#VALUE_CHANGED}
+     * @param event the event
+     * @return captured record
+     */
+    public static JobEventRecord capture(long jobId, long sequence, int type, JobControlEvent event)
+    {
+        return new JobEventRecord(jobId, sequence, type, event.getStatus(), event.getPreparedness(), System.currentTimeMillis(),
+                event.getMessage(), getExceptionSummary(event.getException()));
+    }
+
+    /**
+     * Returns short description of the exception: class name of the cause and its message.
+     */
+    static String getExceptionSummary(JobControlException ex)
+    {
+        if( ex == null )
+            return null;
+        Throwable cause = ex.getError() == null ? ex : ex.getError();
+        return cause.toString();
+    }
+
+    public long getJobId()
+    {
+        return jobId;
+    }
+
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Returns event type, one of type bits like {@link JobControlEvent#VALUE_CHANGED}.
+     */
+    public int getType()
+    {
+        return type;
+    }
+
+    public int getStatus()
+    {
+        return status;
+    }
+
+    public int getPreparedness()
+    {
+        return preparedness;
+    }
+
+    /**
+     * Returns time of the event in milliseconds.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * Returns exception summary: class name and message of the error, or <code>null</code>.
+     */
+    public String getException()
+    {
+        return exception;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "#" + sequence + " job " + jobId + " " + JobControlEvent.getTypeName(type) + " "
+                + AbstractJobControl.getTextStatus(status) + " " + preparedness + "%" + ( message == null ? "" : " " + message )
+                + ( exception == null ? "" : " " + exception );
+    }
+}
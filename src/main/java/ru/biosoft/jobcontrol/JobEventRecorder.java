@@ -0,0 +1,194 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records events of jobs into a file which can be replayed by {@link JobEventReplayer}.
+ *
+ * File starts with 8-byte header (magic number and {@link JobEventCodec#VERSION encoding version}),
+ * followed by records encoded by {@link JobEventCodec} in the order of events.
+ * Events are buffered and written to the file when the buffer is full, on {@link #flush()} and on {@link #close()}.
+ */
+public class JobEventRecorder implements AutoCloseable
+{
+    private static final Logger log = Logger.getLogger(JobEventRecorder.class.getName());
+
+    static final int MAGIC = 0x4A434552; // "JCER"
+    static final int HEADER_SIZE = 8;
+
+    /** Buffer size, enough for any record */
+    private static final int BUFFER_SIZE = 128 * 1024;
+
+    private class Recording implements JobControlListener
+    {
+        final long jobId;
+
+        Recording(long jobId)
+        {
+            this.jobId = jobId;
+        }
+
+        @Override
+        public void valueChanged(JobControlEvent event)
+        {
+            record(jobId, JobControlEvent.VALUE_CHANGED, event);
+        }
+
+        @Override
+        public void jobStarted(JobControlEvent event)
+        {
+            record(jobId, JobControlEvent.JOB_STARTED, event);
+        }
+
+        @Override
+        public void jobTerminated(JobControlEvent event)
+        {
+            record(jobId, JobControlEvent.JOB_TERMINATED, event);
+        }
+
+        @Override
+        public void jobPaused(JobControlEvent event)
+        {
+            record(jobId, JobControlEvent.JOB_PAUSED, event);
+        }
+
+        @Override
+        public void jobResumed(JobControlEvent event)
+        {
+            record(jobId, JobControlEvent.JOB_RESUMED, event);
+        }
+
+        @Override
+        public void resultsReady(JobControlEvent event)
+        {
+            record(jobId, JobControlEvent.RESULTS_READY, event);
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Map<AbstractJobControl, Recording> jobs = new ConcurrentHashMap<>();
+    private long sequence;
+    private long count;
+    private boolean closed;
+
+    /**
+     * Creates recorder writing to specified file. Existing file is overwritten.
+     *
+     * @param file file to write to
+     * @exception IOException if file cannot be created
+     */
+    public JobEventRecorder(File file) throws IOException
+    {
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        buffer.putInt(MAGIC);
+        buffer.putInt(JobEventCodec.VERSION);
+    }
+
+    /**
+     * Starts recording events of the job.
+     */
+    public void record(AbstractJobControl jobControl)
+    {
+        Recording recording = new Recording(jobControl.getJobId());
+        if( jobs.putIfAbsent(jobControl, recording) == null )
+            jobControl.addListener(recording);
+    }
+
+    /**
+     * Stops recording events of the job.
+     */
+    public void stop(AbstractJobControl jobControl)
+    {
+        Recording recording = jobs.remove(jobControl);
+        if( recording != null )
+            jobControl.removeListener(recording);
+    }
+
+    /**
+     * Returns number of recorded events.
+     */
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+    private synchronized void record(long jobId, int type, JobControlEvent event)
+    {
+        if( closed )
+            return;
+        try
+        {
+            try
+            {
+                JobEventCodec.encode(buffer, jobId, sequence, type, event);
+            }
+            catch( BufferOverflowException e )
+            {
+                write();
+                JobEventCodec.encode(buffer, jobId, sequence, type, event);
+            }
+            sequence++;
+            count++;
+        }
+        catch( IOException e )
+        {
+            log.log(Level.SEVERE, "Cannot record event, recording is stopped", e);
+            closed = true;
+        }
+    }
+
+    private void write() throws IOException
+    {
+        buffer.flip();
+        while( buffer.hasRemaining() )
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes buffered events to the file.
+     *
+     * @exception IOException if events cannot be written
+     */
+    public synchronized void flush() throws IOException
+    {
+        if( !closed )
+            write();
+    }
+
+    /**
+     * Stops recording all jobs, writes buffered events and closes the file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        for( AbstractJobControl jobControl : jobs.keySet() )
+            stop(jobControl);
+        synchronized( this )
+        {
+            try
+            {
+                if( !closed )
+                    write();
+            }
+            finally
+            {
+                closed = true;
+                file.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays events recorded by {@link JobEventRecorder} on synthetic jobs.
+ *
+ * For every recorded job replayer creates {@link ReplayedJobControl}, listeners should be added
+ * to them before {@link #replay(double)}. Events are replayed in the recorded order from the calling thread,
+ * so the same file always produces the same sequence of listener calls.
+ */
+public class JobEventReplayer
+{
+    /** Speed to replay events with recorded delays */
+    public static final double REAL_TIME = 1;
+
+    /** Speed to replay events without delays */
+    public static final double MAXIMUM_SPEED = Double.POSITIVE_INFINITY;
+
+    /**
+     * Synthetic job reproducing state changes of the recorded one.
+     */
+    public static class ReplayedJobControl extends AbstractJobControl
+    {
+        private final long recordedId;
+
+        ReplayedJobControl(long recordedId)
+        {
+            super(null);
+            this.recordedId = recordedId;
+        }
+
+        /**
+         * Returns identifier of the recorded job.
+         */
+        public long getRecordedId()
+        {
+            return recordedId;
+        }
+
+        void apply(JobEventRecord record)
+        {
+            switch( record.getType() )
+            {
+                case JobControlEvent.JOB_STARTED:
+                    status = CREATED;
+                    begin(record.getMessage());
+                    break;
+                case JobControlEvent.VALUE_CHANGED:
+                    preparedness = record.getPreparedness();
+                    publishState();
+                    fireValueChanged();
+                    break;
+                case JobControlEvent.JOB_PAUSED:
+                    status = PAUSED;
+                    publishState();
+                    fireJobPaused();
+                    break;
+                case JobControlEvent.JOB_RESUMED:
+                    status = RUNNING;
+                    publishState();
+                    fireJobResumed();
+                    break;
+                case JobControlEvent.JOB_TERMINATED:
+                    // end() detaches the replaying thread attached by begin()
+                    runStatus = record.getStatus();
+                    if( record.getException() != null )
+                        end(createException(record));
+                    else
+                        end(record.getMessage());
+                    break;
+                case JobControlEvent.RESULTS_READY:
+                    resultsAreReady(new Object[0]);
+                    status = record.getStatus();
+                    publishState();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private static JobControlException createException(JobEventRecord record)
+        {
+            RecordedError error = new RecordedError(record.getException());
+            if( record.getStatus() == TERMINATED_BY_ERROR )
+                return new JobControlException(error);
+            JobControlException ex = new JobControlException(record.getStatus(), record.getMessage());
+            ex.initCause(error);
+            return ex;
+        }
+
+        /**
+         * Empty implementation, replayed jobs are driven by {@link JobEventReplayer}.
+         */
+        @Override
+        protected void doRun() throws JobControlException
+        {
+        }
+    }
+
+    /**
+     * Error of the recorded job restored from its summary: class name and message of the original error.
+     */
+    @SuppressWarnings ( "serial" )
+    public static class RecordedError extends Exception
+    {
+        private final String summary;
+        private final String errorClassName;
+
+        RecordedError(String summary)
+        {
+            super(summary.indexOf(": ") < 0 ? null : summary.substring(summary.indexOf(": ") + 2));
+            this.summary = summary;
+            this.errorClassName = summary.indexOf(": ") < 0 ? summary : summary.substring(0, summary.indexOf(": "));
+        }
+
+        /**
+         * Returns class name of the original error.
+         */
+        public String getErrorClassName()
+        {
+            return errorClassName;
+        }
+
+        /**
+         * Stack trace of the replaying thread is meaningless, so it is not filled.
+         */
+        @Override
+        public synchronized Throwable fillInStackTrace()
+        {
+            return this;
+        }
+
+        @Override
+        public String toString()
+        {
+            return summary;
+        }
+    }
+
+    private final ByteBuffer data;
+    private final Map<Long, ReplayedJobControl> jobs = new LinkedHashMap<>();
+    private final int count;
+
+    /**
+     * Reads recorded events.
+     *
+     * @param file file written by {@link JobEventRecorder}
+     * @exception IOException if file cannot be read or has wrong format
+     */
+    public JobEventReplayer(File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            FileChannel channel = raf.getChannel();
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if( data.limit() < JobEventRecorder.HEADER_SIZE || data.getInt(0) != JobEventRecorder.MAGIC )
+            throw new IOException("File " + file + " is not a job event recording");
+        if( data.getInt(4) != JobEventCodec.VERSION )
+            throw new IOException("Unsupported version of job event recording: " + data.getInt(4));
+        int n = 0;
+        int offset = JobEventRecorder.HEADER_SIZE;
+        while( offset + JobEventCodec.HEADER_SIZE <= data.limit() )
+        {
+            int length = JobEventCodec.getLength(data, offset);
+            if( length < JobEventCodec.HEADER_SIZE || offset + length > data.limit() )
+                break; // truncated record of the interrupted recording
+            long jobId = JobEventCodec.getJobId(data, offset);
+            if( !jobs.containsKey(jobId) )
+                jobs.put(jobId, new ReplayedJobControl(jobId));
+            offset += length;
+            n++;
+        }
+        data.limit(offset);
+        count = n;
+    }
+
+    /**
+     * Returns synthetic jobs in the order of their first event.
+     */
+    public Collection<ReplayedJobControl> getJobs()
+    {
+        return Collections.unmodifiableCollection(new ArrayList<>(jobs.values()));
+    }
+
+    /**
+     * Returns synthetic job for the recorded job id or <code>null</code> if there are no events of such job.
+     */
+    public ReplayedJobControl getJob(long recordedId)
+    {
+        return jobs.get(recordedId);
+    }
+
+    /**
+     * Returns number of recorded events.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Replays all events.
+     *
+     * @param speed ratio of recorded delays to replayed ones, {@link #REAL_TIME} or greater to accelerate,
+     * {@link #MAXIMUM_SPEED} to replay without delays
+     * @return number of replayed events, less than {@link #getCount()} if the thread was interrupted
+     */
+    public int replay(double speed)
+    {
+        if( !( speed > 0 ) )
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        ByteBuffer in = data.duplicate();
+        in.position(JobEventRecorder.HEADER_SIZE);
+        long firstTimestamp = in.hasRemaining() ? JobEventCodec.getTimestamp(in, in.position()) : 0;
+        long start = System.nanoTime();
+        int n = 0;
+        while( in.hasRemaining() )
+        {
+            if( speed != MAXIMUM_SPEED )
+            {
+                long delay = (long) ( TimeUnit.MILLISECONDS.toNanos(JobEventCodec.getTimestamp(in, in.position()) - firstTimestamp)
+                        / speed ) - ( System.nanoTime() - start );
+                if( delay > 0 )
+                {
+                    try
+                    {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    }
+                    catch( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                        return n;
+                    }
+                }
+            }
+            JobEventRecord record = JobEventCodec.decode(in);
+            jobs.get(record.getJobId()).apply(record);
+            n++;
+        }
+        return n;
+    }
+}
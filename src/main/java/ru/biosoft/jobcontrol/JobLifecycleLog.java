@@ -0,0 +1,247 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous structured log of job lifecycle transitions.
+ *
+ * Transitions are stored into preallocated ring buffer by the job thread and passed to
+ * {@link java.util.logging.Logger} by background daemon thread, so logging does not block or allocate on the job thread.
+ * If the ring buffer is full, entries are dropped and counted by {@link #getDroppedCount()}.
+ *
+ * Log records have message pattern <code>"Job {0}: {1}"</code> with duration appended for transitions
+ * having it, parameters are job id, transition name and duration in milliseconds,
+ * so the message is formatted by the handler only when it is published.
+ */
+public class JobLifecycleLog
+{
+    /** Job is started */
+    public static final int STARTED = 0;
+
+    /** Job is paused */
+    public static final int PAUSED = 1;
+
+    /** Job is resumed, duration is time spent in pause */
+    public static final int RESUMED = 2;
+
+    /** Termination of the job is requested */
+    public static final int TERMINATE_REQUESTED = 3;
+
+    /** Job deadline is exceeded */
+    public static final int TIMED_OUT = 4;
+
+    /** Exception occurred in the job */
+    public static final int EXCEPTION = 5;
+
+    /** Job is ended, duration is running time */
+    public static final int ENDED = 6;
+
+    private static final String[] TRANSITION_NAMES = {"started", "paused", "resumed", "terminate requested", "timed out", "exception",
+            "ended"};
+
+    /** Default capacity of the ring buffer */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /** Value of duration for transitions without duration */
+    public static final long NO_DURATION = -1;
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static class DefaultHolder
+    {
+        static final JobLifecycleLog INSTANCE = new JobLifecycleLog(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns shared log used by {@link AbstractJobControl}.
+     */
+    public static JobLifecycleLog getDefault()
+    {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Returns name of the transition.
+     *
+     * @param transition one of transition constants, like {@link #STARTED}
+     */
+    public static String getTransitionName(int transition)
+    {
+        return transition >= 0 && transition < TRANSITION_NAMES.length ? TRANSITION_NAMES[transition] : "unknown";
+    }
+
+    private static final class Entry
+    {
+        /** Sequence number of the published entry, written last */
+        volatile long sequence = -1;
+        Logger logger;
+        Level level;
+        long jobId;
+        int transition;
+        long duration;
+        long timestamp;
+        Throwable thrown;
+    }
+
+    private final Entry[] entries;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Thread thread;
+
+    /**
+     * Creates log with its own background thread.
+     *
+     * @param capacity capacity of the ring buffer, rounded up to power of two
+     */
+    public JobLifecycleLog(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        entries = new Entry[size];
+        for( int i = 0; i < size; i++ )
+            entries[i] = new Entry();
+        mask = size - 1;
+    }
+
+    /**
+     * Logs transition of the job. Should be called only if the logger is loggable at the level,
+     * so disabled logging costs one {@link Logger#isLoggable(Level)} call.
+     *
+     * @param logger logger to publish record to
+     * @param level level of the record
+     * @param jobId identifier of the job
+     * @param transition one of transition constants, like {@link #STARTED}
+     * @param duration duration in milliseconds or {@link #NO_DURATION}
+     * @param thrown exception or <code>null</code>
+     */
+    public void log(Logger logger, Level level, long jobId, int transition, long duration, Throwable thrown)
+    {
+        long sequence;
+        do
+        {
+            sequence = tail.get();
+            if( sequence - head.get() >= entries.length )
+            {
+                dropped.increment();
+                return;
+            }
+        }
+        while( !tail.compareAndSet(sequence, sequence + 1) );
+        Entry entry = entries[(int)sequence & mask];
+        entry.logger = logger;
+        entry.level = level;
+        entry.jobId = jobId;
+        entry.transition = transition;
+        entry.duration = duration;
+        entry.timestamp = System.currentTimeMillis();
+        entry.thrown = thrown;
+        entry.sequence = sequence;
+        if( thread == null )
+            start();
+    }
+
+    private synchronized void start()
+    {
+        if( thread != null )
+            return;
+        Thread t = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        }, "JobControl log");
+        t.setDaemon(true);
+        t.start();
+        thread = t;
+    }
+
+    /**
+     * Returns number of entries dropped because the ring buffer was full.
+     */
+    public long getDroppedCount()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * Waits until all logged entries are published.
+     *
+     * @param timeout maximal time to wait in milliseconds
+     * @return true if all entries are published
+     */
+    public boolean flush(long timeout) throws InterruptedException
+    {
+        long target = tail.get();
+        long deadline = System.currentTimeMillis() + timeout;
+        while( head.get() < target )
+        {
+            if( System.currentTimeMillis() >= deadline )
+                return false;
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    private void drain()
+    {
+        long next = head.get();
+        long park = 1000;
+        while( true )
+        {
+            Entry entry = entries[(int)next & mask];
+            if( entry.sequence != next )
+            {
+                LockSupport.parkNanos(park);
+                park = Math.min(park * 2, MAX_PARK_NANOS);
+                continue;
+            }
+            park = 1000;
+            Logger logger = entry.logger;
+            LogRecord record = createRecord(entry);
+            entry.logger = null;
+            entry.thrown = null;
+            try
+            {
+                logger.log(record);
+            }
+            catch( RuntimeException e )
+            {
+                // handler failures should not stop the log thread
+            }
+            head.lazySet(++next);
+        }
+    }
+
+    // LogRecord.setInstant() is not available in Java 8
+    @SuppressWarnings("deprecation")
+    private static LogRecord createRecord(Entry entry)
+    {
+        LogRecord record;
+        if( entry.duration == NO_DURATION )
+        {
+            record = new LogRecord(entry.level, "Job {0}: {1}");
+            record.setParameters(new Object[] {entry.jobId, getTransitionName(entry.transition)});
+        }
+        else
+        {
+            record = new LogRecord(entry.level, "Job {0}: {1} ({2} ms)");
+            record.setParameters(new Object[] {entry.jobId, getTransitionName(entry.transition), entry.duration});
+        }
+        record.setLoggerName(entry.logger.getName());
+        // caller cannot be inferred on the log thread
+        record.setSourceClassName(AbstractJobControl.class.getName());
+        record.setSourceMethodName(getTransitionName(entry.transition));
+        record.setMillis(entry.timestamp);
+        record.setThrown(entry.thrown);
+        return record;
+    }
+}
@@ -0,0 +1,589 @@
+package ru.biosoft.jobcontrol;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load generator simulating large populations of concurrently running jobs.
+ *
+ * Synthetic {@link FunctionJobControl} and {@link StackProgressJobControl} jobs are started at once
+ * and advanced step by step by a fixed number of worker threads, so all jobs are running simultaneously.
+ * Each job has its own progress rate and set of listeners. Separate churn thread pauses, resumes
+ * and terminates random jobs.
+ *
+ * Generator measures time of {@link JobControl#setPreparedness(int)} calls which dispatch
+ * events to all listeners of the job, event throughput, allocation rate of worker threads and thread counts.
+ *
+ * Test sources contain <code>JobLoadBenchmark</code> running the generator from the command line.
+ */
+public class JobLoadGenerator
+{
+    private int jobCount = 100000;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int listenerCount = 2;
+    private int steps = 100;
+    private int maxRate = 10;
+    private double stackProgressShare = 0.5;
+    private int churnRate = 1000;
+    private double terminateShare = 0.1;
+    private long seed = 1;
+
+    /**
+     * Result of the load test.
+     */
+    public static class Report
+    {
+        private final int jobCount;
+        private final int completedCount;
+        private final int terminatedCount;
+        private final long eventCount;
+        private final long churnCount;
+        private final long time;
+        private final Histogram latency;
+        private final long allocatedBytes;
+        private final int threadCount;
+        private final int peakThreadCount;
+
+        Report(int jobCount, int completedCount, int terminatedCount, long eventCount, long churnCount, long time, Histogram latency,
+                long allocatedBytes, int threadCount, int peakThreadCount)
+        {
+            this.jobCount = jobCount;
+            this.completedCount = completedCount;
+            this.terminatedCount = terminatedCount;
+            this.eventCount = eventCount;
+            this.churnCount = churnCount;
+            this.time = time;
+            this.latency = latency;
+            this.allocatedBytes = allocatedBytes;
+            this.threadCount = threadCount;
+            this.peakThreadCount = peakThreadCount;
+        }
+
+        public int getJobCount()
+        {
+            return jobCount;
+        }
+
+        public int getCompletedCount()
+        {
+            return completedCount;
+        }
+
+        public int getTerminatedCount()
+        {
+            return terminatedCount;
+        }
+
+        /**
+         * Returns number of events received by listeners.
+         */
+        public long getEventCount()
+        {
+            return eventCount;
+        }
+
+        /**
+         * Returns number of pause, resume and terminate requests.
+         */
+        public long getChurnCount()
+        {
+            return churnCount;
+        }
+
+        /**
+         * Returns duration of the test in nanoseconds.
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
+        /**
+         * Returns number of events received by listeners per second.
+         */
+        public double getThroughput()
+        {
+            return eventCount * 1e9 / Math.max(time, 1);
+        }
+
+        /**
+         * Returns dispatch latency in nanoseconds at specified quantile.
+         *
+         * @param quantile quantile from 0 to 1, e.g. 0.99
+         */
+        public long getLatency(double quantile)
+        {
+            return latency.getValue(quantile);
+        }
+
+        /**
+         * Returns bytes allocated by worker threads or -1 if it cannot be measured.
+         */
+        public long getAllocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        /**
+         * Returns bytes allocated by worker threads per second or -1 if it cannot be measured.
+         */
+        public double getAllocationRate()
+        {
+            return allocatedBytes < 0 ? -1 : allocatedBytes * 1e9 / Math.max(time, 1);
+        }
+
+        /**
+         * Returns number of live threads at the end of the test.
+         */
+        public int getThreadCount()
+        {
+            return threadCount;
+        }
+
+        /**
+         * Returns peak number of live threads during the test.
+         */
+        public int getPeakThreadCount()
+        {
+            return peakThreadCount;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Jobs: %d (completed %d, terminated %d)%n", jobCount, completedCount, terminatedCount));
+            sb.append(String.format("Time: %.3f s%n", time / 1e9));
+            sb.append(String.format("Events: %d, %.0f events/s%n", eventCount, getThroughput()));
+            sb.append(String.format("Churn requests: %d%n", churnCount));
+            sb.append(String.format("Dispatch latency, us: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n", getLatency(0.5) / 1e3,
+                    getLatency(0.9) / 1e3, getLatency(0.99) / 1e3, getLatency(0.999) / 1e3, getLatency(1) / 1e3));
+            if( allocatedBytes >= 0 )
+                sb.append(String.format("Allocated by workers: %d MB, %.1f MB/s%n", allocatedBytes >> 20, getAllocationRate() / ( 1 << 20 )));
+            sb.append(String.format("Threads: %d, peak %d", threadCount, peakThreadCount));
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Log-linear histogram of nanosecond values with relative error about 6%.
+     */
+    static class Histogram
+    {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final long[] counts = new long[64 * SUB_COUNT];
+        private long total;
+        private long max;
+
+        void record(long value)
+        {
+            if( value < 0 )
+                value = 0;
+            counts[index(value)]++;
+            total++;
+            max = Math.max(max, value);
+        }
+
+        private static int index(long value)
+        {
+            if( value < SUB_COUNT )
+                return (int)value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return ( exponent + 1 ) * SUB_COUNT + (int) ( ( value >>> exponent ) - SUB_COUNT );
+        }
+
+        private static long lowerBound(int index)
+        {
+            if( index < SUB_COUNT )
+                return index;
+            int exponent = index / SUB_COUNT - 1;
+            return ( (long) ( index % SUB_COUNT ) + SUB_COUNT ) << exponent;
+        }
+
+        void add(Histogram other)
+        {
+            for( int i = 0; i < counts.length; i++ )
+                counts[i] += other.counts[i];
+            total += other.total;
+            max = Math.max(max, other.max);
+        }
+
+        long getValue(double quantile)
+        {
+            if( total == 0 )
+                return 0;
+            if( quantile >= 1 )
+                return max;
+            long rank = (long)Math.ceil(quantile * total);
+            long count = 0;
+            for( int i = 0; i < counts.length; i++ )
+            {
+                count += counts[i];
+                if( count >= rank && count > 0 )
+                    return Math.min(lowerBound(i), max);
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Synthetic job with its progress state.
+     */
+    private static class SyntheticJob
+    {
+        final AbstractJobControl jobControl;
+        final boolean stackProgress;
+        final int rate;
+        int pass;
+        int step;
+        boolean done;
+
+        SyntheticJob(AbstractJobControl jobControl, boolean stackProgress, int rate)
+        {
+            this.jobControl = jobControl;
+            this.stackProgress = stackProgress;
+            this.rate = rate;
+        }
+    }
+
+    private static class CountingListener implements JobControlListener
+    {
+        final LongAdder events;
+
+        CountingListener(LongAdder events)
+        {
+            this.events = events;
+        }
+
+        @Override
+        public void valueChanged(JobControlEvent event)
+        {
+            // touch the job like progress bars do
+            if( event.getPreparedness() >= 0 )
+                events.increment();
+        }
+
+        @Override
+        public void jobStarted(JobControlEvent event)
+        {
+            events.increment();
+        }
+
+        @Override
+        public void jobTerminated(JobControlEvent event)
+        {
+            events.increment();
+        }
+
+        @Override
+        public void jobPaused(JobControlEvent event)
+        {
+            events.increment();
+        }
+
+        @Override
+        public void jobResumed(JobControlEvent event)
+        {
+            events.increment();
+        }
+
+        @Override
+        public void resultsReady(JobControlEvent event)
+        {
+            events.increment();
+        }
+    }
+
+    /**
+     * Sets number of simulated jobs.
+     */
+    public void setJobCount(int jobCount)
+    {
+        this.jobCount = jobCount;
+    }
+
+    /**
+     * Sets number of worker threads advancing the jobs.
+     */
+    public void setThreadCount(int threadCount)
+    {
+        this.threadCount = Math.max(threadCount, 1);
+    }
+
+    /**
+     * Sets number of listeners of each job.
+     */
+    public void setListenerCount(int listenerCount)
+    {
+        this.listenerCount = listenerCount;
+    }
+
+    /**
+     * Sets number of preparedness updates of each job.
+     */
+    public void setSteps(int steps)
+    {
+        this.steps = Math.max(steps, 1);
+    }
+
+    /**
+     * Sets spread of progress rates: each job makes a step once in random number of passes from 1 to maxRate.
+     */
+    public void setMaxRate(int maxRate)
+    {
+        this.maxRate = Math.max(maxRate, 1);
+    }
+
+    /**
+     * Sets share of {@link StackProgressJobControl} jobs, the rest are {@link FunctionJobControl} jobs.
+     */
+    public void setStackProgressShare(double stackProgressShare)
+    {
+        this.stackProgressShare = stackProgressShare;
+    }
+
+    /**
+     * Sets number of pause and terminate requests per second. Paused jobs are resumed in about a millisecond.
+     */
+    public void setChurnRate(int churnRate)
+    {
+        this.churnRate = churnRate;
+    }
+
+    /**
+     * Sets share of terminate requests among churn requests.
+     */
+    public void setTerminateShare(double terminateShare)
+    {
+        this.terminateShare = terminateShare;
+    }
+
+    /**
+     * Sets seed of the random generator producing job population.
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @return measured values
+     * @exception InterruptedException if the thread is interrupted while waiting for workers
+     */
+    public Report run() throws InterruptedException
+    {
+        final LongAdder events = new LongAdder();
+        Random random = new Random(seed);
+        final List<SyntheticJob> jobs = new ArrayList<>(jobCount);
+        for( int i = 0; i < jobCount; i++ )
+        {
+            boolean stackProgress = random.nextDouble() < stackProgressShare;
+            AbstractJobControl jobControl = stackProgress ? new StackProgressJobControl(null)
+            {
+                @Override
+                protected void doRun() throws JobControlException
+                {
+                }
+            } : new FunctionJobControl(null);
+            for( int j = 0; j < listenerCount; j++ )
+                jobControl.addListener(new CountingListener(events));
+            jobs.add(new SyntheticJob(jobControl, stackProgress, 1 + random.nextInt(maxRate)));
+        }
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        threadMXBean.resetPeakThreadCount();
+        final Histogram latency = new Histogram();
+        final AtomicLong allocated = new AtomicLong();
+        final AtomicLong churnCount = new AtomicLong();
+        final CountDownLatch finished = new CountDownLatch(threadCount);
+        long start = System.nanoTime();
+        for( int w = 0; w < threadCount; w++ )
+        {
+            final List<SyntheticJob> own = new ArrayList<>();
+            for( int i = w; i < jobs.size(); i += threadCount )
+                own.add(jobs.get(i));
+            Thread worker = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    long allocatedAtStart = getAllocatedBytes();
+                    Histogram histogram = advance(own);
+                    long allocatedAtEnd = getAllocatedBytes();
+                    synchronized( latency )
+                    {
+                        latency.add(histogram);
+                    }
+                    if( allocatedAtStart < 0 || allocatedAtEnd < 0 )
+                        allocated.set(Long.MIN_VALUE);
+                    else
+                        allocated.addAndGet(allocatedAtEnd - allocatedAtStart);
+                    finished.countDown();
+                }
+            }, "JobControl load worker #" + w);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        Thread churn = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                churn(jobs, finished, churnCount);
+            }
+        }, "JobControl load churn");
+        churn.setDaemon(true);
+        churn.start();
+        try
+        {
+            finished.await();
+        }
+        finally
+        {
+            churn.interrupt();
+        }
+        long time = System.nanoTime() - start;
+        churn.join();
+
+        int completed = 0;
+        int terminated = 0;
+        for( SyntheticJob job : jobs )
+        {
+            int status = job.jobControl.getStatus();
+            if( status == JobControl.COMPLETED )
+                completed++;
+            else if( status == JobControl.TERMINATED_BY_REQUEST )
+                terminated++;
+        }
+        return new Report(jobCount, completed, terminated, events.sum(), churnCount.get(), time, latency,
+                allocated.get() < 0 ? -1 : allocated.get(), threadMXBean.getThreadCount(), threadMXBean.getPeakThreadCount());
+    }
+
+    private Histogram advance(List<SyntheticJob> jobs)
+    {
+        Histogram histogram = new Histogram();
+        for( SyntheticJob job : jobs )
+        {
+            job.jobControl.begin();
+            if( job.stackProgress )
+                ( (StackProgressJobControl)job.jobControl ).pushProgress(0, 100);
+        }
+        int remained = jobs.size();
+        while( remained > 0 )
+        {
+            boolean progress = false;
+            for( SyntheticJob job : jobs )
+            {
+                if( job.done || ++job.pass % job.rate != 0 )
+                    continue;
+                AbstractJobControl jobControl = job.jobControl;
+                int status = jobControl.getStatus();
+                if( status == JobControl.PAUSED )
+                    continue;
+                progress = true;
+                if( status != JobControl.RUNNING )
+                {
+                    try
+                    {
+                        jobControl.checkStatus();
+                    }
+                    catch( JobControlException e )
+                    {
+                        // terminated by churn
+                    }
+                    job.done = true;
+                    remained--;
+                    continue;
+                }
+                job.step++;
+                long time = System.nanoTime();
+                jobControl.setPreparedness(job.step * 100 / steps);
+                histogram.record(System.nanoTime() - time);
+                if( job.step >= steps )
+                {
+                    if( job.stackProgress )
+                    {
+                        ( (StackProgressJobControl)jobControl ).popProgress();
+                        jobControl.end();
+                    }
+                    else
+                        ( (FunctionJobControl)jobControl ).functionFinished();
+                    job.done = true;
+                    remained--;
+                }
+            }
+            if( !progress )
+                Thread.yield();
+        }
+        return histogram;
+    }
+
+    private void churn(List<SyntheticJob> jobs, CountDownLatch finished, AtomicLong churnCount)
+    {
+        if( jobs.isEmpty() )
+            return;
+        Queue<AbstractJobControl> paused = new ConcurrentLinkedQueue<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double credit = 0;
+        long last = System.nanoTime();
+        while( finished.getCount() > 0 )
+        {
+            try
+            {
+                Thread.sleep(1);
+            }
+            catch( InterruptedException e )
+            {
+                break;
+            }
+            for( AbstractJobControl jobControl = paused.poll(); jobControl != null; jobControl = paused.poll() )
+            {
+                jobControl.resume();
+                churnCount.incrementAndGet();
+            }
+            long now = System.nanoTime();
+            credit += churnRate * ( now - last ) / (double)TimeUnit.SECONDS.toNanos(1);
+            last = now;
+            for( ; credit >= 1; credit-- )
+            {
+                AbstractJobControl jobControl = jobs.get(random.nextInt(jobs.size())).jobControl;
+                if( jobControl.getStatus() != JobControl.RUNNING )
+                    continue;
+                if( random.nextDouble() < terminateShare )
+                {
+                    jobControl.terminate();
+                }
+                else
+                {
+                    jobControl.pause();
+                    paused.add(jobControl);
+                }
+                churnCount.incrementAndGet();
+            }
+        }
+        for( AbstractJobControl jobControl = paused.poll(); jobControl != null; jobControl = paused.poll() )
+            jobControl.resume();
+    }
+
+    private static long getAllocatedBytes()
+    {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if( ! ( threadMXBean instanceof com.sun.management.ThreadMXBean ) )
+            return -1;
+        return ( (com.sun.management.ThreadMXBean)threadMXBean ).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -3,14 +3,23 @@ package ru.biosoft.jobcontrol;
 import javax.swing.JProgressBar;
 
 @SuppressWarnings ( "serial" )
-public class JobProgressBar extends JProgressBar implements JobControlListener
+public class JobProgressBar extends JProgressBar implements MaskedJobControlListener
 {
+    /** Pause and resume do not change the bar */
+    private static final int EVENT_MASK = JobControlEvent.ALL_EVENTS & ~( JobControlEvent.JOB_PAUSED | JobControlEvent.JOB_RESUMED );
+
     public JobProgressBar()
     {
         setMinimum(0);
         setMaximum(100);
     }
     
+    @Override
+    public int getEventMask()
+    {
+        return EVENT_MASK;
+    }
+
     public void valueChanged(JobControlEvent evt)
     {
         setValue(evt.getPreparedness());
@@ -0,0 +1,399 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory-mapped file with the state of jobs which can be read by other processes on the host.
+ *
+ * File consists of 64-byte header and fixed number of 64-byte slots, one per published job.
+ * Published job writes its state into its slot on every event. Writes are guarded by sequence counter
+ * stored in the slot (seqlock): the counter is odd while the slot is being written, so readers retry until they read
+ * the same even counter before and after reading the slot. Counter and data accesses are ordered by memory fences.
+ *
+ * Slot layout (big-endian):
+ * <pre>
+ *  0  long sequence
+ *  8  long job id, 0 for free slot
+ * 16  int  status
+ * 20  int  preparedness
+ * 24  long started time
+ * 32  long ended time
+ * 40  long update time
+ * 48  long remained time
+ * 56  long created time
+ * </pre>
+ *
+ * Process publishing jobs creates the board by {@link #create(File, int)}, monitors open it by {@link #open(File)}
+ * and read it by {@link #snapshot()}.
+ */
+public class JobProgressBoard implements AutoCloseable
+{
+    private static final int MAGIC = 0x4A435042; // "JCPB"
+    private static final int VERSION = 1;
+
+    /** Size of the header and of each slot in bytes */
+    public static final int SLOT_SIZE = 64;
+
+    private static final int HEADER_SLOT_COUNT = 8;
+
+    private static final int OFFSET_SEQUENCE = 0;
+    private static final int OFFSET_JOB_ID = 8;
+    private static final int OFFSET_STATUS = 16;
+    private static final int OFFSET_PREPAREDNESS = 20;
+    private static final int OFFSET_STARTED = 24;
+    private static final int OFFSET_ENDED = 32;
+    private static final int OFFSET_UPDATED = 40;
+    private static final int OFFSET_REMAINED = 48;
+    private static final int OFFSET_CREATED = 56;
+
+    /** Number of attempts to read the slot which is being written */
+    private static final int READ_ATTEMPTS = 1000;
+
+    /**
+     * Slot region of the file. Region is the only writer of its bytes: it writes on behalf of its current owner
+     * and ignores writes of previous owners, so listener of the job whose slot was reused cannot overwrite the slot.
+     */
+    private class Region
+    {
+        final int offset;
+        /** current owner, guarded by this */
+        Slot owner;
+
+        Region(int index)
+        {
+            this.offset = SLOT_SIZE * ( index + 1 );
+        }
+
+        synchronized void assign(Slot slot)
+        {
+            owner = slot;
+        }
+
+        /**
+         * Retires the owner so its writes are ignored.
+         *
+         * @param clear whether the slot should be marked as free for readers
+         */
+        synchronized void retire(Slot slot, boolean clear)
+        {
+            if( owner != slot )
+                return;
+            if( clear )
+                write(slot, 0);
+            owner = null;
+        }
+
+        synchronized void write(Slot writer, long jobId)
+        {
+            if( owner != writer )
+                return;
+            long sequence = buffer.getLong(offset + OFFSET_SEQUENCE) + 1;
+            buffer.putLong(offset + OFFSET_SEQUENCE, sequence);
+            MemoryAccess.storeFence();
+            buffer.putLong(offset + OFFSET_JOB_ID, jobId);
+            if( jobId != 0 )
+            {
+                JobSnapshot snapshot = writer.jobControl.snapshot();
+                buffer.putInt(offset + OFFSET_STATUS, snapshot.getStatus());
+                buffer.putInt(offset + OFFSET_PREPAREDNESS, snapshot.getPreparedness());
+                buffer.putLong(offset + OFFSET_STARTED, snapshot.getStartedTime());
+                buffer.putLong(offset + OFFSET_ENDED, snapshot.getEndedTime());
+                buffer.putLong(offset + OFFSET_UPDATED, snapshot.getTimestamp());
+                buffer.putLong(offset + OFFSET_REMAINED, snapshot.getRemainedTime());
+                buffer.putLong(offset + OFFSET_CREATED, snapshot.getCreatedTime());
+            }
+            MemoryAccess.storeFence();
+            buffer.putLong(offset + OFFSET_SEQUENCE, sequence + 1);
+        }
+    }
+
+    /**
+     * Publication of the job in the region.
+     */
+    private class Slot extends JobControlListenerAdapter
+    {
+        final Region region;
+        final AbstractJobControl jobControl;
+
+        Slot(Region region, AbstractJobControl jobControl)
+        {
+            this.region = region;
+            this.jobControl = jobControl;
+        }
+
+        void write()
+        {
+            region.write(this, jobControl.getJobId());
+        }
+
+        @Override
+        public void valueChanged(JobControlEvent event)
+        {
+            write();
+        }
+
+        @Override
+        public void jobStarted(JobControlEvent event)
+        {
+            write();
+        }
+
+        @Override
+        public void jobTerminated(JobControlEvent event)
+        {
+            write();
+        }
+
+        @Override
+        public void jobPaused(JobControlEvent event)
+        {
+            write();
+        }
+
+        @Override
+        public void jobResumed(JobControlEvent event)
+        {
+            write();
+        }
+
+        @Override
+        public void resultsReady(JobControlEvent event)
+        {
+            write();
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final boolean writable;
+    private final Map<AbstractJobControl, Slot> published = new ConcurrentHashMap<>();
+    private final Deque<Region> freeRegions = new ArrayDeque<>();
+
+    private JobProgressBoard(RandomAccessFile file, MappedByteBuffer buffer, int slotCount, boolean writable)
+    {
+        this.file = file;
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+        this.writable = writable;
+        if( writable )
+        {
+            for( int i = 0; i < slotCount; i++ )
+                freeRegions.add(new Region(i));
+        }
+    }
+
+    /**
+     * Creates the board for publishing jobs. Existing file is overwritten.
+     *
+     * @param file file to create
+     * @param slotCount maximal number of simultaneously published jobs
+     * @exception IOException if file cannot be created
+     */
+    public static JobProgressBoard create(File file, int slotCount) throws IOException
+    {
+        if( slotCount <= 0 )
+            throw new IllegalArgumentException("slotCount must be positive: " + slotCount);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            long size = (long)SLOT_SIZE * ( slotCount + 1 );
+            raf.setLength(0);
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(HEADER_SLOT_COUNT, slotCount);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(12, SLOT_SIZE);
+            buffer.putInt(0, MAGIC);
+            return new JobProgressBoard(raf, buffer, slotCount, true);
+        }
+        catch( IOException | RuntimeException e )
+        {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens existing board for reading.
+     *
+     * @param file board file
+     * @exception IOException if file cannot be read or has wrong format
+     */
+    public static JobProgressBoard open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if( buffer.capacity() < SLOT_SIZE || buffer.getInt(0) != MAGIC )
+                throw new IOException("File " + file + " is not a job progress board");
+            if( buffer.getInt(4) != VERSION )
+                throw new IOException("Unsupported version of job progress board: " + buffer.getInt(4));
+            int slotCount = buffer.getInt(HEADER_SLOT_COUNT);
+            if( (long)SLOT_SIZE * ( slotCount + 1 ) > buffer.capacity() )
+                throw new IOException("File " + file + " is truncated");
+            return new JobProgressBoard(raf, buffer, slotCount, false);
+        }
+        catch( IOException | RuntimeException e )
+        {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns number of slots.
+     */
+    public int getSlotCount()
+    {
+        return slotCount;
+    }
+
+    /**
+     * Publishes the job state on the board until {@link #unpublish(AbstractJobControl)} is called.
+     * If there are no free slots, slot of a finished job is reused.
+     *
+     * @param jobControl job to publish
+     * @return false if there are no free slots
+     */
+    public boolean publish(AbstractJobControl jobControl)
+    {
+        if( !writable )
+            throw new IllegalStateException("Board is opened for reading");
+        if( published.containsKey(jobControl) )
+            return true;
+        Region region;
+        synchronized( freeRegions )
+        {
+            region = freeRegions.poll();
+        }
+        if( region == null )
+        {
+            region = reclaimRegion();
+            if( region == null )
+                return false;
+        }
+        Slot slot = new Slot(region, jobControl);
+        region.assign(slot);
+        if( published.putIfAbsent(jobControl, slot) != null )
+        {
+            // published concurrently
+            release(slot, false);
+            return true;
+        }
+        slot.write();
+        jobControl.addListener(slot);
+        // unpublished concurrently before the listener was added
+        if( published.get(jobControl) != slot )
+            jobControl.removeListener(slot);
+        return true;
+    }
+
+    /**
+     * Takes the region of a finished job retiring its slot.
+     */
+    private Region reclaimRegion()
+    {
+        for( Slot slot : published.values() )
+        {
+            int status = slot.jobControl.getStatus();
+            if( status != JobControl.RUNNING && status != JobControl.PAUSED && published.remove(slot.jobControl, slot) )
+            {
+                slot.jobControl.removeListener(slot);
+                // listener call in progress cannot write after this
+                slot.region.retire(slot, false);
+                return slot.region;
+            }
+        }
+        return null;
+    }
+
+    private void release(Slot slot, boolean clear)
+    {
+        slot.region.retire(slot, clear);
+        synchronized( freeRegions )
+        {
+            freeRegions.add(slot.region);
+        }
+    }
+
+    /**
+     * Removes the job from the board freeing its slot.
+     */
+    public void unpublish(AbstractJobControl jobControl)
+    {
+        Slot slot = published.remove(jobControl);
+        if( slot == null )
+            return;
+        jobControl.removeListener(slot);
+        release(slot, true);
+    }
+
+    /**
+     * Reads consistent state of all jobs on the board.
+     *
+     * @return states of published jobs
+     */
+    public List<JobSnapshot> snapshot()
+    {
+        List<JobSnapshot> result = new ArrayList<>();
+        for( int i = 0; i < slotCount; i++ )
+        {
+            JobSnapshot snapshot = read(SLOT_SIZE * ( i + 1 ));
+            if( snapshot != null )
+                result.add(snapshot);
+        }
+        return result;
+    }
+
+    private JobSnapshot read(int offset)
+    {
+        for( int attempt = 0; attempt < READ_ATTEMPTS; attempt++ )
+        {
+            long sequence = buffer.getLong(offset + OFFSET_SEQUENCE);
+            if( ( sequence & 1 ) != 0 )
+            {
+                Thread.yield();
+                continue;
+            }
+            MemoryAccess.loadFence();
+            long jobId = buffer.getLong(offset + OFFSET_JOB_ID);
+            int status = buffer.getInt(offset + OFFSET_STATUS);
+            int preparedness = buffer.getInt(offset + OFFSET_PREPAREDNESS);
+            long started = buffer.getLong(offset + OFFSET_STARTED);
+            long ended = buffer.getLong(offset + OFFSET_ENDED);
+            long updated = buffer.getLong(offset + OFFSET_UPDATED);
+            long remained = buffer.getLong(offset + OFFSET_REMAINED);
+            long created = buffer.getLong(offset + OFFSET_CREATED);
+            MemoryAccess.loadFence();
+            if( buffer.getLong(offset + OFFSET_SEQUENCE) != sequence )
+                continue;
+            return jobId == 0 ? null : new JobSnapshot(jobId, status, preparedness, created, started, ended, remained, updated);
+        }
+        return null;
+    }
+
+    /**
+     * Closes the board. Published jobs are unpublished.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        for( AbstractJobControl jobControl : published.keySet() )
+            unpublish(jobControl);
+        if( writable )
+            buffer.force();
+        file.close();
+    }
+}
@@ -0,0 +1,128 @@
+package ru.biosoft.jobcontrol;
+
+/**
+ * Immutable consistent view of the job state at some moment.
+ *
+ * @see AbstractJobControl#snapshot()
+ * @see JobProgressBoard
+ */
+public class JobSnapshot
+{
+    private final long jobId;
+    private final int status;
+    private final int preparedness;
+    private final long createdTime;
+    private final long startedTime;
+    private final long endedTime;
+    private final long remainedTime;
+    private final long timestamp;
+
+    /**
+     * Constructs snapshot.
+     *
+     * @param jobId identifier of the job
+     * @param status status of the job
+     * @param preparedness preparedness of the job in percent
+     * @param createdTime job created time or -1
+     * @param startedTime job start time or -1
+     * @param endedTime job finished time or -1
+     * @param remainedTime estimated remained time in milliseconds
+     * @param timestamp time when the state was captured
+     */
+    public JobSnapshot(long jobId, int status, int preparedness, long createdTime, long startedTime, long endedTime, long remainedTime,
+            long timestamp)
+    {
+        this.jobId = jobId;
+        this.status = status;
+        this.preparedness = preparedness;
+        this.createdTime = createdTime;
+        this.startedTime = startedTime;
+        this.endedTime = endedTime;
+        this.remainedTime = remainedTime;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Captures state of any job, consistent one if the job is {@link AbstractJobControl}.
+     *
+     * @param jobId identifier to put into the snapshot of other jobs
+     * @param jobControl job to capture
+     */
+    static JobSnapshot capture(long jobId, JobControl jobControl)
+    {
+        if( jobControl instanceof AbstractJobControl )
+            return ( (AbstractJobControl)jobControl ).snapshot();
+        return new JobSnapshot(jobId, jobControl.getStatus(), jobControl.getPreparedness(), jobControl.getCreatedTime(),
+                jobControl.getStartedTime(), jobControl.getEndedTime(), jobControl.getRemainedTime(), System.currentTimeMillis());
+    }
+
+    public long getJobId()
+    {
+        return jobId;
+    }
+
+    /**
+     * Returns status of the job, one of {@link JobControl} status constants.
+     */
+    public int getStatus()
+    {
+        return status;
+    }
+
+    public String getTextStatus()
+    {
+        return AbstractJobControl.getTextStatus(status);
+    }
+
+    public int getPreparedness()
+    {
+        return preparedness;
+    }
+
+    public long getCreatedTime()
+    {
+        return createdTime;
+    }
+
+    public long getStartedTime()
+    {
+        return startedTime;
+    }
+
+    public long getEndedTime()
+    {
+        return endedTime;
+    }
+
+    /**
+     * Returns elapsed time of the job at the moment of capture.
+     */
+    public long getElapsedTime()
+    {
+        if( startedTime == -1 )
+            return 0;
+        return ( endedTime == -1 ? timestamp : endedTime ) - startedTime;
+    }
+
+    /**
+     * Returns estimated remained time at the moment of capture.
+     */
+    public long getRemainedTime()
+    {
+        return remainedTime;
+    }
+
+    /**
+     * Returns time when the state was captured.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Job " + jobId + ": " + getTextStatus() + ", " + preparedness + "%";
+    }
+}
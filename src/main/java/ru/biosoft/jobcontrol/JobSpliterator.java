@@ -0,0 +1,218 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spliterator bound to the job.
+ *
+ * Job preparedness is derived from the number of consumed elements and the size of the source spliterator
+ * (if it is known), counted across all fork/join workers of the parallel stream. Progress is mapped to the progress range
+ * which was current when the spliterator was created, so {@link StackProgressJobControl} stack is not touched
+ * by the workers. Traversal blocks while the job is paused. When the job is terminated, traversal and splitting
+ * throw {@link UncheckedJobControlException}, so the stream operation fails instead of returning partial result.
+ * Each spliterator counts consumed elements locally and adds them to the shared counter in batches,
+ * so workers do not contend on the counter.
+ *
+ * <pre>
+ * JobSpliterator.stream(job, sequences, true).map(this::align).forEach(this::store);
+ * </pre>
+ * Since traversal stops early on termination, the wrapper is not {@link Spliterator#SIZED}.
+ */
+public class JobSpliterator<T> implements Spliterator<T>
+{
+    /** Maximal number of elements counted locally before adding to the shared counter */
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * State shared by all spliterators split from the same root.
+     */
+    private static class Progress
+    {
+        final AbstractJobControl jobControl;
+        final long size;
+        final int batch;
+        final LongAdder consumed = new LongAdder();
+        /** bounds of the progress range in percents of the whole job */
+        final double from, to;
+        /** last reported percent of the range, guarded by this */
+        volatile int percent = -1;
+
+        Progress(AbstractJobControl jobControl, long size)
+        {
+            this.jobControl = jobControl;
+            this.size = size;
+            // at least about 1000 updates per traversal
+            this.batch = size <= 0 ? MAX_BATCH : (int)Math.max(Math.min(size / 1000, MAX_BATCH), 1);
+            if( jobControl instanceof StackProgressJobControl )
+            {
+                double[] range = ( (StackProgressJobControl)jobControl ).getCurrentRange();
+                from = range[0];
+                to = range[1];
+            }
+            else
+            {
+                from = 0;
+                to = 100;
+            }
+        }
+
+        void add(long count)
+        {
+            consumed.add(count);
+            if( size <= 0 )
+                return;
+            int newPercent = (int)Math.min(100 * consumed.sum() / size, 100);
+            if( newPercent <= percent )
+                return;
+            // workers report under the lock, so the value reported later is never smaller
+            synchronized( this )
+            {
+                if( newPercent <= percent )
+                    return;
+                percent = newPercent;
+                int value = (int) ( from + ( to - from ) * newPercent / 100 );
+                if( jobControl instanceof StackProgressJobControl )
+                    ( (StackProgressJobControl)jobControl ).setJobPreparedness(value);
+                else
+                    jobControl.setPreparedness(value);
+            }
+        }
+    }
+
+    private final Spliterator<T> source;
+    private final Progress progress;
+    private int count;
+
+    private JobSpliterator(Spliterator<T> source, Progress progress)
+    {
+        this.source = source;
+        this.progress = progress;
+    }
+
+    /**
+     * Wraps spliterator binding it to the job. Should be called by the thread running the job,
+     * since current progress range of {@link StackProgressJobControl} is captured.
+     *
+     * @param jobControl job to report progress to
+     * @param source spliterator to wrap
+     */
+    public static <T> JobSpliterator<T> wrap(AbstractJobControl jobControl, Spliterator<T> source)
+    {
+        long size = source.hasCharacteristics(SIZED) ? source.estimateSize() : -1;
+        return new JobSpliterator<>(source, new Progress(jobControl, size));
+    }
+
+    /**
+     * Creates stream over collection bound to the job.
+     *
+     * @param jobControl job to report progress to
+     * @param collection source collection
+     * @param parallel true to create parallel stream
+     */
+    public static <T> Stream<T> stream(AbstractJobControl jobControl, Collection<T> collection, boolean parallel)
+    {
+        return StreamSupport.stream(wrap(jobControl, collection.spliterator()), parallel);
+    }
+
+    /**
+     * Creates stream bound to the job from another stream, which becomes consumed.
+     *
+     * @param jobControl job to report progress to
+     * @param stream source stream
+     */
+    public static <T> Stream<T> stream(AbstractJobControl jobControl, final Stream<T> stream)
+    {
+        return StreamSupport.stream(wrap(jobControl, stream.spliterator()), stream.isParallel()).onClose(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                stream.close();
+            }
+        });
+    }
+
+    /**
+     * Waits while the job is paused.
+     *
+     * @exception UncheckedJobControlException if the job is terminated
+     */
+    private void checkStatus()
+    {
+        AbstractJobControl jobControl = progress.jobControl;
+        if( jobControl.getStatus() == JobControl.RUNNING )
+            return;
+        try
+        {
+            jobControl.checkStatus();
+        }
+        catch( JobControlException e )
+        {
+            flush();
+            throw new UncheckedJobControlException(e);
+        }
+    }
+
+    private void flush()
+    {
+        if( count > 0 )
+        {
+            progress.add(count);
+            count = 0;
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action)
+    {
+        checkStatus();
+        if( !source.tryAdvance(action) )
+        {
+            flush();
+            return false;
+        }
+        if( ++count >= progress.batch )
+            flush();
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action)
+    {
+        while( tryAdvance(action) )
+        {
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit()
+    {
+        checkStatus();
+        Spliterator<T> prefix = source.trySplit();
+        return prefix == null ? null : new JobSpliterator<>(prefix, progress);
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        return source.estimateSize();
+    }
+
+    @Override
+    public Comparator<? super T> getComparator()
+    {
+        return source.getComparator();
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return source.characteristics() & ~( SIZED | SUBSIZED );
+    }
+}
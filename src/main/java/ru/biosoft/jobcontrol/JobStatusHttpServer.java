@@ -0,0 +1,483 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server exposing state of registered jobs.
+ *
+ * Server is built on the JDK HTTP server and provides following resources:
+ * <ul>
+ *   <li><code>GET /jobs</code> - JSON array with snapshots of all registered jobs</li>
+ *   <li><code>GET /jobs/{id}</code> - JSON snapshot of one job</li>
+ *   <li><code>GET /events</code> - Server-Sent-Events stream of job snapshots</li>
+ * </ul>
+ * Events of the stream are coalesced: every push interval one <code>job</code> event is sent for each changed job,
+ * its <code>events</code> field lists types of events occurred since the previous push.
+ * When nothing is sent for the heartbeat interval, comment line is sent to keep idle streams open
+ * through proxies and to detect disconnected clients. Each stream is written by its own thread from a bounded queue,
+ * the stream of a client which falls behind by more than {@link #setStreamBacklog(int) backlog} pushes is closed.
+ * By default server listens on the loopback interface.
+ */
+public class JobStatusHttpServer
+{
+    private static final Logger log = Logger.getLogger(JobStatusHttpServer.class.getName());
+
+    /** Default interval between pushes to event streams in milliseconds */
+    public static final long DEFAULT_PUSH_INTERVAL = 250;
+
+    /** Default interval between heartbeats of idle event streams in milliseconds */
+    public static final long DEFAULT_HEARTBEAT_INTERVAL = 15000;
+
+    /** Default number of pushes queued for one event stream */
+    public static final int DEFAULT_STREAM_BACKLOG = 64;
+
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+    /** marks the end of the event stream in its queue */
+    private static final byte[] CLOSE = new byte[0];
+
+    private class Registration extends CoalescingJobListener
+    {
+        final long jobId;
+        final JobControl jobControl;
+
+        Registration(long jobId, JobControl jobControl)
+        {
+            this.jobId = jobId;
+            this.jobControl = jobControl;
+        }
+
+        @Override
+        protected void changed()
+        {
+            dirty.add(this);
+        }
+    }
+
+    private static class EventStream
+    {
+        final OutputStream out;
+        final BlockingQueue<byte[]> queue;
+
+        EventStream(OutputStream out, int backlog)
+        {
+            this.out = out;
+            this.queue = new ArrayBlockingQueue<>(backlog);
+        }
+
+        /**
+         * Drops queued data and makes the writing thread finish.
+         */
+        void close()
+        {
+            queue.clear();
+            queue.offer(CLOSE);
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final Map<Long, Registration> jobs = new ConcurrentHashMap<>();
+    private final Queue<Registration> dirty = new ConcurrentLinkedQueue<>();
+    private final Set<EventStream> streams = ConcurrentHashMap.newKeySet();
+    /** orders initial snapshots of new streams with pushes */
+    private final Object pushLock = new Object();
+    private volatile long pushInterval = DEFAULT_PUSH_INTERVAL;
+    private volatile long heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+    private volatile int streamBacklog = DEFAULT_STREAM_BACKLOG;
+    private HttpServer server;
+    private ExecutorService executor;
+    private Thread pusher;
+
+    /**
+     * Constructs server listening on the loopback interface.
+     *
+     * @param port port to listen on or 0 to choose free port
+     */
+    public JobStatusHttpServer(int port)
+    {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Constructs server listening on specified address.
+     *
+     * @param address address to listen on
+     */
+    public JobStatusHttpServer(InetSocketAddress address)
+    {
+        this.address = address;
+    }
+
+    /**
+     * Sets interval between pushes to event streams.
+     *
+     * @param pushInterval interval in milliseconds
+     */
+    public void setPushInterval(long pushInterval)
+    {
+        this.pushInterval = Math.max(pushInterval, 1);
+    }
+
+    /**
+     * Sets interval of silence after which heartbeat is sent to event streams.
+     *
+     * @param heartbeatInterval interval in milliseconds
+     */
+    public void setHeartbeatInterval(long heartbeatInterval)
+    {
+        this.heartbeatInterval = Math.max(heartbeatInterval, 1);
+    }
+
+    /**
+     * Sets number of pushes which can be queued for one event stream.
+     * When a client does not keep up and the queue is full, its stream is closed.
+     *
+     * @param streamBacklog maximal number of queued pushes
+     */
+    public void setStreamBacklog(int streamBacklog)
+    {
+        this.streamBacklog = Math.max(streamBacklog, 1);
+    }
+
+    /**
+     * Registers the job under its {@link AbstractJobControl#getJobId() id}.
+     */
+    public void register(AbstractJobControl jobControl)
+    {
+        register(jobControl.getJobId(), jobControl);
+    }
+
+    /**
+     * Registers the job under specified id.
+     *
+     * @param jobId identifier of the job in URLs and snapshots
+     * @param jobControl job to register
+     */
+    public void register(long jobId, JobControl jobControl)
+    {
+        Registration registration = new Registration(jobId, jobControl);
+        Registration old = jobs.put(jobId, registration);
+        if( old != null )
+            old.jobControl.removeListener(old);
+        jobControl.addListener(registration);
+    }
+
+    /**
+     * Removes the job from registered ones.
+     */
+    public void unregister(long jobId)
+    {
+        Registration registration = jobs.remove(jobId);
+        if( registration != null )
+            registration.jobControl.removeListener(registration);
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @exception IOException if server cannot be started
+     */
+    public synchronized void start() throws IOException
+    {
+        if( server != null )
+            return;
+        server = HttpServer.create(address, 0);
+        // event streams occupy their threads while connected
+        executor = Executors.newCachedThreadPool(new DaemonThreadFactory("JobControl HTTP"));
+        server.setExecutor(executor);
+        server.createContext("/jobs", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                handleJobs(exchange);
+            }
+        });
+        server.createContext("/events", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                handleEvents(exchange);
+            }
+        });
+        server.start();
+        pusher = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                push();
+            }
+        }, "JobControl HTTP push");
+        pusher.setDaemon(true);
+        pusher.start();
+    }
+
+    /**
+     * Returns port the server listens on or -1 if it is not started.
+     */
+    public synchronized int getPort()
+    {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server closing all event streams.
+     */
+    public synchronized void stop()
+    {
+        if( server == null )
+            return;
+        pusher.interrupt();
+        for( EventStream stream : streams )
+            stream.close();
+        // closing connections unblocks the threads writing to slow clients
+        server.stop(0);
+        // interrupts handlers of event streams connected while stopping
+        executor.shutdownNow();
+        try
+        {
+            pusher.join();
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        server = null;
+        executor = null;
+        pusher = null;
+    }
+
+    private void handleJobs(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if( !"GET".equals(exchange.getRequestMethod()) )
+            {
+                send(exchange, 405, "{\"error\":\"Method not allowed\"}");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String rest = path.length() > "/jobs".length() ? path.substring("/jobs".length() + 1) : "";
+            if( rest.isEmpty() )
+            {
+                StringBuilder sb = new StringBuilder("[");
+                for( Registration registration : jobs.values() )
+                {
+                    if( sb.length() > 1 )
+                        sb.append(',');
+                    appendJson(sb, registration, 0);
+                }
+                send(exchange, 200, sb.append(']').toString());
+                return;
+            }
+            Registration registration;
+            try
+            {
+                registration = jobs.get(Long.parseLong(rest));
+            }
+            catch( NumberFormatException e )
+            {
+                registration = null;
+            }
+            if( registration == null )
+                send(exchange, 404, "{\"error\":\"Job not found\"}");
+            else
+                send(exchange, 200, appendJson(new StringBuilder(), registration, 0).toString());
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int code, String json) throws IOException
+    {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private void handleEvents(HttpExchange exchange) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        EventStream stream = new EventStream(exchange.getResponseBody(), streamBacklog);
+        try
+        {
+            // initial state of all jobs is captured when the stream is registered,
+            // so every push queued after it is newer than the snapshot
+            synchronized( pushLock )
+            {
+                StringBuilder sb = new StringBuilder();
+                for( Registration registration : jobs.values() )
+                    appendEvent(sb, registration, 0);
+                stream.queue.offer(sb.append(": connected\n\n").toString().getBytes(StandardCharsets.UTF_8));
+                streams.add(stream);
+            }
+            for( byte[] data = stream.queue.take(); data != CLOSE; data = stream.queue.take() )
+            {
+                stream.out.write(data);
+                stream.out.flush();
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch( IOException e )
+        {
+            log.log(Level.FINE, "Event stream is closed", e);
+        }
+        finally
+        {
+            streams.remove(stream);
+            exchange.close();
+        }
+    }
+
+    private void push()
+    {
+        long lastSent = System.currentTimeMillis();
+        while( !Thread.currentThread().isInterrupted() )
+        {
+            try
+            {
+                Thread.sleep(pushInterval);
+            }
+            catch( InterruptedException e )
+            {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            synchronized( pushLock )
+            {
+                StringBuilder sb = new StringBuilder();
+                for( Registration registration = dirty.poll(); registration != null; registration = dirty.poll() )
+                {
+                    int events = registration.drain();
+                    if( jobs.get(registration.jobId) == registration )
+                        appendEvent(sb, registration, events);
+                }
+                if( sb.length() > 0 )
+                    send(sb.toString().getBytes(StandardCharsets.UTF_8));
+                else if( now - lastSent >= heartbeatInterval )
+                    send(HEARTBEAT);
+                else
+                    continue;
+            }
+            lastSent = now;
+        }
+    }
+
+    /**
+     * Queues data to all event streams closing the ones which fell behind.
+     */
+    private void send(byte[] data)
+    {
+        for( EventStream stream : streams )
+        {
+            if( !stream.queue.offer(data) )
+            {
+                log.log(Level.FINE, "Event stream is closed: client does not keep up");
+                streams.remove(stream);
+                stream.close();
+            }
+        }
+    }
+
+    private static void appendEvent(StringBuilder sb, Registration registration, int events)
+    {
+        sb.append("event: job\ndata: ");
+        appendJson(sb, registration, events);
+        sb.append("\n\n");
+    }
+
+    private static StringBuilder appendJson(StringBuilder sb, Registration registration, int events)
+    {
+        JobSnapshot snapshot = JobSnapshot.capture(registration.jobId, registration.jobControl);
+        sb.append("{\"id\":").append(registration.jobId);
+        sb.append(",\"status\":").append(snapshot.getStatus());
+        sb.append(",\"textStatus\":");
+        appendString(sb, snapshot.getTextStatus());
+        sb.append(",\"preparedness\":").append(snapshot.getPreparedness());
+        sb.append(",\"createdTime\":").append(snapshot.getCreatedTime());
+        sb.append(",\"startedTime\":").append(snapshot.getStartedTime());
+        sb.append(",\"endedTime\":").append(snapshot.getEndedTime());
+        sb.append(",\"elapsedTime\":").append(snapshot.getElapsedTime());
+        sb.append(",\"remainedTime\":").append(snapshot.getRemainedTime());
+        sb.append(",\"message\":");
+        appendString(sb, registration.getMessage());
+        sb.append(",\"events\":[");
+        boolean first = true;
+        for( int type = 1; type <= JobControlEvent.ALL_EVENTS; type <<= 1 )
+        {
+            if( ( events & type ) == 0 )
+                continue;
+            if( !first )
+                sb.append(',');
+            appendString(sb, JobControlEvent.getTypeName(type));
+            first = false;
+        }
+        return sb.append("]}");
+    }
+
+    private static void appendString(StringBuilder sb, String str)
+    {
+        if( str == null )
+        {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for( int i = 0; i < str.length(); i++ )
+        {
+            char c = str.charAt(i);
+            switch( c )
+            {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if( c < 0x20 )
+                        sb.append(String.format("\\u%04x", (int)c));
+                    else
+                        sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,31 @@
+package ru.biosoft.jobcontrol;
+
+/**
+ * JobTimeoutException is thrown by {@link AbstractJobControl#checkStatus()}
+ * when job was terminated because its deadline was exceeded.
+ *
+ * Status of the exception is {@link JobControl#TERMINATED_BY_REQUEST}.
+ *
+ * @see JobDeadline
+ */
+@SuppressWarnings ( "serial" )
+public class JobTimeoutException extends JobControlException
+{
+    /**
+     * Constructs JobTimeoutException with default message.
+     */
+    public JobTimeoutException()
+    {
+        this("Deadline exceeded");
+    }
+
+    /**
+     * Constructs JobTimeoutException with specified message.
+     *
+     * @param msg specified message
+     */
+    public JobTimeoutException(String msg)
+    {
+        super(JobControl.TERMINATED_BY_REQUEST, msg);
+    }
+}
@@ -0,0 +1,341 @@
+package ru.biosoft.jobcontrol;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watchdog which detects running jobs showing no activity for a long time.
+ *
+ * Activity of the job is any call of {@link AbstractJobControl#setPreparedness(int)} or
+ * {@link AbstractJobControl#checkStatus()}. All watched jobs are checked by one periodic scan.
+ * The scan is triggered by the shared {@link HashedTimingWheel}, but runs in the watchdog thread,
+ * so capturing stacks and notifying listeners do not delay other timeouts. When the job is idle longer than the threshold,
+ * the stack of its thread is captured, stall listeners are notified and optionally the job is terminated.
+ * Paused jobs are never reported as stalled.
+ *
+ * Job is watched until it is terminated:
+ * <pre>
+ * JobWatchdog watchdog = new JobWatchdog(5, TimeUnit.MINUTES);
+ * watchdog.watch(job);
+ * </pre>
+ */
+public class JobWatchdog
+{
+    private static final Logger log = Logger.getLogger(JobWatchdog.class.getName());
+
+    /**
+     * Listener notified when a stalled job is detected.
+     */
+    public static interface StallListener
+    {
+        /**
+         * Invoked from the watchdog thread when job is idle longer than the threshold.
+         * Invoked once per stall: next notification is possible only after the job shows activity.
+         *
+         * @param report information about the stall
+         */
+        void jobStalled(StallReport report);
+    }
+
+    /**
+     * Information about stalled job.
+     */
+    public static class StallReport
+    {
+        private final AbstractJobControl jobControl;
+        private final long idleTime;
+        private final ThreadInfo threadInfo;
+
+        StallReport(AbstractJobControl jobControl, long idleTime, ThreadInfo threadInfo)
+        {
+            this.jobControl = jobControl;
+            this.idleTime = idleTime;
+            this.threadInfo = threadInfo;
+        }
+
+        public AbstractJobControl getJobControl()
+        {
+            return jobControl;
+        }
+
+        /**
+         * Returns time in milliseconds since the last activity of the job.
+         */
+        public long getIdleTime()
+        {
+            return idleTime;
+        }
+
+        /**
+         * Returns information about the thread running the job or <code>null</code> if it is unknown.
+         */
+        public ThreadInfo getThreadInfo()
+        {
+            return threadInfo;
+        }
+
+        /**
+         * Returns stack trace of the thread running the job captured when stall was detected.
+         */
+        public StackTraceElement[] getStackTrace()
+        {
+            return threadInfo == null ? new StackTraceElement[0] : threadInfo.getStackTrace();
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder("Job ").append(jobControl).append(" shows no activity for ")
+                    .append(AbstractJobControl.format(idleTime));
+            if( threadInfo != null )
+            {
+                sb.append(", thread \"").append(threadInfo.getThreadName()).append("\" ").append(threadInfo.getThreadState());
+                for( StackTraceElement element : threadInfo.getStackTrace() )
+                    sb.append("\n\tat ").append(element);
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class Entry
+    {
+        int activity;
+        long lastActivityTime;
+        boolean reported;
+
+        Entry(int activity, long time)
+        {
+            this.activity = activity;
+            this.lastActivityTime = time;
+        }
+    }
+
+    private final long threshold;
+    private final Map<AbstractJobControl, Entry> jobs = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<StallListener> listeners = new CopyOnWriteArrayList<>();
+    private final JobControlListener terminationListener = new JobControlListenerAdapter()
+    {
+        @Override
+        public void jobTerminated(JobControlEvent event)
+        {
+            JobControl jobControl = event.getJobControl();
+            if( jobControl instanceof AbstractJobControl )
+                unwatch((AbstractJobControl)jobControl);
+        }
+    };
+
+    private final Runnable scanTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                scan();
+            }
+            finally
+            {
+                reschedule();
+            }
+        }
+    };
+    private final Runnable trigger = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                executor.execute(scanTask);
+            }
+            catch( RejectedExecutionException e )
+            {
+                log.log(Level.WARNING, "Watchdog scan was rejected", e);
+                reschedule();
+            }
+        }
+    };
+
+    private volatile boolean terminateStalled = false;
+    private volatile long scanInterval;
+    private volatile Executor executor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new DaemonThreadFactory("JobControl watchdog"));
+    private HashedTimingWheel.Timeout scan;
+
+    /**
+     * Constructs watchdog. Scan interval is set to the quarter of the threshold.
+     *
+     * @param threshold idle time after which the job is reported as stalled
+     * @param unit unit of the threshold
+     */
+    public JobWatchdog(long threshold, TimeUnit unit)
+    {
+        this.threshold = unit.toMillis(threshold);
+        this.scanInterval = Math.max(this.threshold / 4, 1);
+    }
+
+    /**
+     * Sets whether stalled jobs should be terminated.
+     */
+    public void setTerminateStalled(boolean terminateStalled)
+    {
+        this.terminateStalled = terminateStalled;
+    }
+
+    /**
+     * Sets interval between scans.
+     */
+    public void setScanInterval(long interval, TimeUnit unit)
+    {
+        this.scanInterval = Math.max(unit.toMillis(interval), 1);
+    }
+
+    /**
+     * Sets executor running the scans. By default the watchdog has its own thread which is stopped when idle.
+     * Next scan is scheduled only after the previous one is finished, so scans never overlap.
+     */
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    public void addStallListener(StallListener listener)
+    {
+        if( listener != null )
+            listeners.add(listener);
+    }
+
+    public void removeStallListener(StallListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts watching the job until it is terminated.
+     *
+     * @param jobControl job to watch
+     */
+    public void watch(AbstractJobControl jobControl)
+    {
+        if( jobs.putIfAbsent(jobControl, new Entry(jobControl.getActivity(), System.currentTimeMillis())) == null )
+        {
+            jobControl.addListener(terminationListener);
+            start();
+        }
+    }
+
+    /**
+     * Stops watching the job.
+     *
+     * @param jobControl job to stop watching
+     */
+    public void unwatch(AbstractJobControl jobControl)
+    {
+        if( jobs.remove(jobControl) != null )
+            jobControl.removeListener(terminationListener);
+    }
+
+    /**
+     * Returns number of watched jobs.
+     */
+    public int getJobCount()
+    {
+        return jobs.size();
+    }
+
+    private synchronized void start()
+    {
+        if( scan != null )
+            return;
+        scan = HashedTimingWheel.getDefault().schedule(trigger, scanInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void reschedule()
+    {
+        if( scan == null )
+            return;
+        scan = jobs.isEmpty() ? null : HashedTimingWheel.getDefault().schedule(trigger, scanInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops periodic scans. Watched jobs are kept, scans are restarted by the next {@link #watch(AbstractJobControl)}.
+     */
+    public synchronized void stop()
+    {
+        if( scan != null )
+        {
+            scan.cancel();
+            scan = null;
+        }
+    }
+
+    /**
+     * Checks all watched jobs. Called periodically, but can be called directly as well.
+     */
+    public void scan()
+    {
+        long now = System.currentTimeMillis();
+        for( Map.Entry<AbstractJobControl, Entry> mapEntry : jobs.entrySet() )
+        {
+            AbstractJobControl jobControl = mapEntry.getKey();
+            Entry entry = mapEntry.getValue();
+            int activity = jobControl.getActivity();
+            if( activity != entry.activity || jobControl.getStatus() != JobControl.RUNNING )
+            {
+                entry.activity = activity;
+                entry.lastActivityTime = now;
+                entry.reported = false;
+                continue;
+            }
+            long idleTime = now - entry.lastActivityTime;
+            if( idleTime < threshold || entry.reported )
+                continue;
+            entry.reported = true;
+            stalled(new StallReport(jobControl, idleTime, getThreadInfo(jobControl.getThread())));
+        }
+    }
+
+    private static ThreadInfo getThreadInfo(Thread thread)
+    {
+        if( thread == null )
+            return null;
+        try
+        {
+            ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            return threadMXBean.getThreadInfo(thread.getId(), Integer.MAX_VALUE);
+        }
+        catch( SecurityException | UnsupportedOperationException e )
+        {
+            return null;
+        }
+    }
+
+    private void stalled(StallReport report)
+    {
+        log.log(Level.WARNING, "{0}", report);
+        for( StallListener listener : listeners )
+        {
+            try
+            {
+                listener.jobStalled(report);
+            }
+            catch( RuntimeException e )
+            {
+                log.log(Level.WARNING, "Stall listener failed", e);
+            }
+        }
+        if( terminateStalled )
+            report.getJobControl().terminate();
+    }
+}
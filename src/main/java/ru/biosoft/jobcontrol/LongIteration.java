@@ -0,0 +1,12 @@
+package ru.biosoft.jobcontrol;
+
+public interface LongIteration
+{
+    /**
+     * Called on each iteration of the cycle.
+     * 
+     * @param index current index of iterated range
+     * @return true if cycle should continue; false if cycle should break
+     */
+    public boolean run(long index);
+}
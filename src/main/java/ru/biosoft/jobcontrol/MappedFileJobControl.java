@@ -0,0 +1,225 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Job processing the file by memory-mapped chunks in parallel.
+ *
+ * The file is split into chunks of about {@link #setChunkSize(long) chunk size} bytes. Chunk boundaries are moved forward
+ * to the record starts found by {@link #findRecordStart(FileChannel, long)}, by default records are lines.
+ * Chunks are mapped and passed to {@link #processChunk(ByteBuffer, long, ProgressFork)} by worker threads.
+ * Each chunk has its own {@link ProgressFork} mapped to its subrange of the job progress, so progress reported
+ * within chunks is merged into the job preparedness. Pause and termination are checked before each chunk.
+ *
+ * <pre>
+ * protected boolean processChunk(ByteBuffer chunk, long offset, ProgressFork fork) throws JobControlException
+ * {
+ *     while( chunk.hasRemaining() )
+ *         count(chunk.get());
+ *     return true;
+ * }
+ * </pre>
+ */
+public abstract class MappedFileJobControl extends StackProgressJobControl
+{
+    /** Default size of the chunk in bytes */
+    public static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+
+    /** Maximal size of the chunk, limited by the size of the mapped buffer */
+    public static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+
+    private static final int SCAN_BUFFER_SIZE = 8192;
+
+    private final File file;
+    private long chunkSize = DEFAULT_CHUNK_SIZE;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private byte recordSeparator = '\n';
+    private Executor executor;
+
+    /**
+     * @param log logger of the job
+     * @param file file to process
+     */
+    public MappedFileJobControl(Logger log, File file)
+    {
+        super(log);
+        this.file = file;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Sets desired size of the chunk. Actual chunks are longer by the tail of the last record.
+     */
+    public void setChunkSize(long chunkSize)
+    {
+        this.chunkSize = Math.max(Math.min(chunkSize, MAX_CHUNK_SIZE), 1);
+    }
+
+    /**
+     * Sets number of worker threads used when no executor is set, by default number of processors.
+     */
+    public void setThreadCount(int threadCount)
+    {
+        this.threadCount = Math.max(threadCount, 1);
+    }
+
+    /**
+     * Sets executor running chunks. By default thread pool is created for each run.
+     */
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets byte which ends records for default {@link #findRecordStart(FileChannel, long)}, by default '\n'.
+     */
+    public void setRecordSeparator(byte recordSeparator)
+    {
+        this.recordSeparator = recordSeparator;
+    }
+
+    @Override
+    protected void doRun() throws JobControlException
+    {
+        processFile();
+    }
+
+    /**
+     * Splits the file into chunks and processes them in parallel.
+     *
+     * @return true if was finished, false if break was done (either by user or by processing)
+     * @exception JobControlException if processing failed
+     */
+    protected boolean processFile() throws JobControlException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            List<long[]> chunks = split(channel);
+            if( chunks.isEmpty() )
+            {
+                setPreparedness(100);
+                return true;
+            }
+            ExecutorService pool = null;
+            Executor chunkExecutor = executor;
+            if( chunkExecutor == null )
+                chunkExecutor = pool = Executors.newFixedThreadPool(Math.min(threadCount, chunks.size()),
+                        new DaemonThreadFactory("JobControl mapped file"));
+            try
+            {
+                return forCollection(chunks, new ChunkProcessor(channel), chunkExecutor, chunks.size(), false);
+            }
+            finally
+            {
+                if( pool != null )
+                    pool.shutdownNow();
+            }
+        }
+        catch( IOException e )
+        {
+            throw new JobControlException(e);
+        }
+    }
+
+    private class ChunkProcessor implements ParallelIteration<long[]>
+    {
+        private final FileChannel channel;
+
+        ChunkProcessor(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public boolean run(long[] chunk, ProgressFork fork) throws JobControlException
+        {
+            fork.checkStatus();
+            MappedByteBuffer buffer;
+            try
+            {
+                buffer = channel.map(MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]);
+            }
+            catch( IOException e )
+            {
+                throw new JobControlException(e);
+            }
+            return processChunk(buffer, chunk[0], fork);
+        }
+    }
+
+    /**
+     * @return list of [from, to) offsets of record-aligned chunks
+     */
+    private List<long[]> split(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        List<long[]> chunks = new ArrayList<>();
+        long from = 0;
+        while( from < size )
+        {
+            long to = from + chunkSize >= size ? size : Math.min(findRecordStart(channel, from + chunkSize), size);
+            if( to - from > MAX_CHUNK_SIZE )
+                throw new IOException("Record at " + from + " is longer than " + MAX_CHUNK_SIZE + " bytes in " + file);
+            chunks.add(new long[] {from, to});
+            from = to;
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns offset of the first record starting at or after specified position.
+     * Default implementation returns the offset following the first {@link #setRecordSeparator(byte) record separator}
+     * found from the byte preceding the position.
+     *
+     * @param channel channel of the file
+     * @param position nominal chunk boundary, greater than zero
+     * @return offset of the record start or file size if there is no record start after the position
+     */
+    protected long findRecordStart(FileChannel channel, long position) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        // the record starts at the position if the previous byte ends the record
+        long offset = position - 1;
+        while( true )
+        {
+            buffer.clear();
+            int n = channel.read(buffer, offset);
+            if( n <= 0 )
+                return channel.size();
+            for( int i = 0; i < n; i++ )
+            {
+                if( buffer.get(i) == recordSeparator )
+                    return offset + i + 1;
+            }
+            offset += n;
+        }
+    }
+
+    /**
+     * Processes the chunk. Called in worker threads concurrently for different chunks.
+     *
+     * @param chunk content of the chunk, read-only buffer owned by the caller
+     * @param offset offset of the chunk in the file
+     * @param fork progress of the chunk, {@link ProgressFork#checkStatus()} should be called in long loops
+     * @return true if processing should continue; false if it should break
+     * @exception JobControlException to stop processing with error
+     */
+    protected abstract boolean processChunk(ByteBuffer chunk, long offset, ProgressFork fork) throws JobControlException;
+}
@@ -0,0 +1,20 @@
+package ru.biosoft.jobcontrol;
+
+/**
+ * Listener declaring types of events it is interested in.
+ *
+ * {@link AbstractJobControl} does not call methods of other event types on such listener,
+ * and does not create events of the type nobody is subscribed to.
+ *
+ * @see JobControlListenerAdapter#getEventMask()
+ */
+public interface MaskedJobControlListener extends JobControlListener
+{
+    /**
+     * Returns mask of event types the listener is interested in. Mask is read when the listener is added to the job,
+     * so it should not change.
+     *
+     * @return combination of event type bits, like {@link JobControlEvent#VALUE_CHANGED}
+     */
+    int getEventMask();
+}
@@ -0,0 +1,170 @@
+package ru.biosoft.jobcontrol;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to the low level memory operations which are not available through public API of all supported Java versions.
+ *
+ * Operations are looked up once by reflection. If some operation is not available, its fallback is used.
+ */
+final class MemoryAccess
+{
+    private static final Logger log = Logger.getLogger(MemoryAccess.class.getName());
+
+    /** Unsafe.invokeCleaner(ByteBuffer) since Java 9 */
+    private static final MethodHandle INVOKE_CLEANER;
+    /** Unsafe.storeFence() */
+    private static final MethodHandle STORE_FENCE;
+    /** Unsafe.loadFence() */
+    private static final MethodHandle LOAD_FENCE;
+    /** DirectBuffer.cleaner() of Java 8 */
+    private static final Method CLEANER;
+    /** Cleaner.clean() of Java 8 */
+    private static final Method CLEAN;
+
+    static
+    {
+        Object unsafe = null;
+        try
+        {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        }
+        catch( ReflectiveOperationException | RuntimeException e )
+        {
+            log.log(Level.FINE, "sun.misc.Unsafe is not available", e);
+        }
+        INVOKE_CLEANER = find(unsafe, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class));
+        STORE_FENCE = find(unsafe, "storeFence", MethodType.methodType(void.class));
+        LOAD_FENCE = find(unsafe, "loadFence", MethodType.methodType(void.class));
+
+        Method cleaner = null;
+        Method clean = null;
+        if( INVOKE_CLEANER == null )
+        {
+            try
+            {
+                cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            }
+            catch( ReflectiveOperationException | RuntimeException e )
+            {
+                log.log(Level.FINE, "Direct buffers cannot be freed explicitly", e);
+            }
+        }
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private static MethodHandle find(Object unsafe, String name, MethodType type)
+    {
+        if( unsafe == null )
+            return null;
+        try
+        {
+            return MethodHandles.lookup().findVirtual(unsafe.getClass(), name, type).bindTo(unsafe);
+        }
+        catch( ReflectiveOperationException | RuntimeException e )
+        {
+            return null;
+        }
+    }
+
+    /** Fallback of the fences: volatile write followed by volatile read acts as a full fence */
+    private static volatile int fence;
+
+    private MemoryAccess()
+    {
+    }
+
+    /**
+     * Ensures that stores before the fence are not reordered with stores after it,
+     * including plain stores to direct and mapped buffers.
+     */
+    static void storeFence()
+    {
+        if( STORE_FENCE == null )
+        {
+            fullFence();
+            return;
+        }
+        try
+        {
+            STORE_FENCE.invokeExact();
+        }
+        catch( Throwable t )
+        {
+            throw new InternalError(t);
+        }
+    }
+
+    /**
+     * Ensures that loads before the fence are not reordered with loads and stores after it,
+     * including plain loads from direct and mapped buffers.
+     */
+    static void loadFence()
+    {
+        if( LOAD_FENCE == null )
+        {
+            fullFence();
+            return;
+        }
+        try
+        {
+            LOAD_FENCE.invokeExact();
+        }
+        catch( Throwable t )
+        {
+            throw new InternalError(t);
+        }
+    }
+
+    private static int fullFence()
+    {
+        fence = 0;
+        return fence;
+    }
+
+    /**
+     * Frees memory of the direct buffer or unmaps the mapped one without waiting for garbage collection.
+     * Buffer and all its views must not be accessed after this call.
+     * Heap buffers are ignored, direct buffers are left to garbage collector if explicit freeing is not available.
+     *
+     * @param buffer buffer returned by {@link ByteBuffer#allocateDirect(int)} or {@link java.nio.channels.FileChannel#map}
+     */
+    static void free(ByteBuffer buffer)
+    {
+        if( !buffer.isDirect() )
+            return;
+        try
+        {
+            if( INVOKE_CLEANER != null )
+            {
+                INVOKE_CLEANER.invokeExact(buffer);
+            }
+            else if( CLEANER != null )
+            {
+                Object cleaner = CLEANER.invoke(buffer);
+                if( cleaner != null )
+                    CLEAN.invoke(cleaner);
+            }
+        }
+        catch( Error e )
+        {
+            throw e;
+        }
+        catch( Throwable t )
+        {
+            log.log(Level.FINE, "Cannot free direct buffer", t);
+        }
+    }
+}
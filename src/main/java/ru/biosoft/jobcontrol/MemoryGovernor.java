@@ -0,0 +1,399 @@
+package ru.biosoft.jobcontrol;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Pauses running jobs when heap is close to exhaustion.
+ *
+ * Governor sets usage thresholds on heap memory pools and listens for threshold notifications.
+ * When usage exceeds the high-water mark, registered running jobs are paused one by one
+ * by {@link JobControl#pause()} until usage drops. When usage falls below the low-water mark,
+ * paused jobs are resumed in the order they were paused. New jobs should be checked by
+ * {@link #checkStart(long)} which refuses to start them above the high-water mark.
+ *
+ * <pre>
+ * MemoryGovernor governor = new MemoryGovernor(0.85, 0.7);
+ * governor.install();
+ * ...
+ * governor.checkStart(estimate);
+ * governor.register(job, estimate);
+ * executor.execute(job);
+ * </pre>
+ */
+public class MemoryGovernor
+{
+    private static final Logger log = Logger.getLogger(MemoryGovernor.class.getName());
+
+    /** Pause the most recently registered job first */
+    public static final int PAUSE_YOUNGEST = 0;
+
+    /** Pause the job whose thread allocated the most since the job start first */
+    public static final int PAUSE_MOST_ALLOCATING = 1;
+
+    /** Pause the job with the largest declared memory estimate first */
+    public static final int PAUSE_LARGEST_ESTIMATE = 2;
+
+    /** Default interval between usage checks while memory pressure is high, in milliseconds */
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    private static class Entry
+    {
+        final AbstractJobControl jobControl;
+        final long estimate;
+        final long registered;
+        volatile long allocatedAtStart = -1;
+
+        Entry(AbstractJobControl jobControl, long estimate, long registered)
+        {
+            this.jobControl = jobControl;
+            this.estimate = estimate;
+            this.registered = registered;
+        }
+    }
+
+    private final double highWater;
+    private final double lowWater;
+    private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+    /** thresholds set on the pools before {@link #install()} */
+    private final long[] previousThresholds;
+    private final Map<AbstractJobControl, Entry> jobs = new ConcurrentHashMap<>();
+    private final Deque<Entry> paused = new ArrayDeque<>();
+    private final JobControlListener jobListener = new JobControlListenerAdapter()
+    {
+        @Override
+        public void jobStarted(JobControlEvent event)
+        {
+            Entry entry = jobs.get(event.getJobControl());
+            if( entry != null )
+                entry.allocatedAtStart = getThreadAllocatedBytes(entry.jobControl.getThread());
+        }
+
+        @Override
+        public void jobTerminated(JobControlEvent event)
+        {
+            JobControl jobControl = event.getJobControl();
+            if( jobControl instanceof AbstractJobControl )
+                unregister((AbstractJobControl)jobControl);
+        }
+    };
+    private final NotificationListener notificationListener = new NotificationListener()
+    {
+        @Override
+        public void handleNotification(Notification notification, Object handback)
+        {
+            if( MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(notification.getType()) )
+                check();
+        }
+    };
+
+    private volatile int policy = PAUSE_YOUNGEST;
+    private volatile long checkInterval = DEFAULT_CHECK_INTERVAL;
+    private HashedTimingWheel.Timeout checkTimeout;
+    private boolean installed = false;
+
+    /**
+     * Constructs governor.
+     *
+     * @param highWater fraction of the heap pool capacity above which jobs are paused and new jobs are refused
+     * @param lowWater fraction of the heap pool capacity below which paused jobs are resumed
+     */
+    public MemoryGovernor(double highWater, double lowWater)
+    {
+        if( highWater <= 0 || highWater >= 1 || lowWater <= 0 || lowWater > highWater )
+            throw new IllegalArgumentException("Invalid water marks: high=" + highWater + ", low=" + lowWater);
+        this.highWater = highWater;
+        this.lowWater = lowWater;
+        for( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            if( pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && pool.getUsage().getMax() > 0 )
+                pools.add(pool);
+        }
+        previousThresholds = new long[pools.size()];
+    }
+
+    /**
+     * Sets policy of choosing job to pause.
+     *
+     * @param policy one of {@link #PAUSE_YOUNGEST}, {@link #PAUSE_MOST_ALLOCATING}, {@link #PAUSE_LARGEST_ESTIMATE}
+     */
+    public void setPolicy(int policy)
+    {
+        this.policy = policy;
+    }
+
+    /**
+     * Sets interval between usage checks while memory pressure is high.
+     */
+    public void setCheckInterval(long interval, TimeUnit unit)
+    {
+        this.checkInterval = Math.max(unit.toMillis(interval), 1);
+    }
+
+    /**
+     * Sets usage thresholds on heap pools and starts listening for threshold notifications.
+     * Previous thresholds are restored by {@link #uninstall()}.
+     */
+    public synchronized void install()
+    {
+        if( installed )
+            return;
+        for( int i = 0; i < pools.size(); i++ )
+        {
+            MemoryPoolMXBean pool = pools.get(i);
+            previousThresholds[i] = pool.getUsageThreshold();
+            pool.setUsageThreshold((long) ( pool.getUsage().getMax() * highWater ));
+        }
+        ( (NotificationEmitter)ManagementFactory.getMemoryMXBean() ).addNotificationListener(notificationListener, null, null);
+        installed = true;
+    }
+
+    /**
+     * Stops listening for threshold notifications, restores previous thresholds of heap pools and resumes all paused jobs.
+     */
+    public void uninstall()
+    {
+        List<Entry> toResume;
+        synchronized( this )
+        {
+            if( !installed )
+                return;
+            installed = false;
+            try
+            {
+                ( (NotificationEmitter)ManagementFactory.getMemoryMXBean() ).removeNotificationListener(notificationListener);
+            }
+            catch( ListenerNotFoundException e )
+            {
+                // already removed
+            }
+            for( int i = 0; i < pools.size(); i++ )
+                pools.get(i).setUsageThreshold(previousThresholds[i]);
+            if( checkTimeout != null )
+            {
+                checkTimeout.cancel();
+                checkTimeout = null;
+            }
+            toResume = new ArrayList<>(paused);
+            paused.clear();
+        }
+        for( Entry entry : toResume )
+            entry.jobControl.resume();
+    }
+
+    /**
+     * Registers the job so it can be paused under memory pressure. The job is unregistered when it terminates.
+     *
+     * @param jobControl job to register
+     * @param estimate estimated amount of memory in bytes required by the job or 0 if unknown
+     */
+    public void register(AbstractJobControl jobControl, long estimate)
+    {
+        if( jobs.putIfAbsent(jobControl, new Entry(jobControl, estimate, System.nanoTime())) == null )
+        {
+            jobControl.addListener(jobListener);
+            if( jobControl.getStatus() == JobControl.RUNNING )
+                jobListener.jobStarted(new JobControlEvent(jobControl));
+        }
+    }
+
+    /**
+     * Unregisters the job.
+     */
+    public void unregister(AbstractJobControl jobControl)
+    {
+        Entry entry = jobs.remove(jobControl);
+        if( entry == null )
+            return;
+        jobControl.removeListener(jobListener);
+        synchronized( this )
+        {
+            paused.remove(entry);
+        }
+    }
+
+    /**
+     * Returns true if a job with specified memory estimate can be started now.
+     *
+     * @param estimate estimated amount of memory in bytes required by the job or 0 if unknown
+     */
+    public boolean canStart(long estimate)
+    {
+        synchronized( this )
+        {
+            if( !paused.isEmpty() )
+                return false;
+        }
+        for( MemoryPoolMXBean pool : pools )
+        {
+            MemoryUsage usage = pool.getUsage();
+            if( usage.getUsed() + estimate > usage.getMax() * highWater )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that a job with specified memory estimate can be started now.
+     *
+     * @param estimate estimated amount of memory in bytes required by the job or 0 if unknown
+     * @exception RejectedExecutionException if memory usage is above the high-water mark
+     */
+    public void checkStart(long estimate)
+    {
+        if( !canStart(estimate) )
+            throw new RejectedExecutionException("Not enough memory to start job (estimate: " + estimate + " bytes)");
+    }
+
+    /**
+     * Returns maximal usage of the heap pools as a fraction of their capacity.
+     */
+    public double getUsage()
+    {
+        double result = 0;
+        for( MemoryPoolMXBean pool : pools )
+        {
+            MemoryUsage usage = pool.getUsage();
+            result = Math.max(result, (double)usage.getUsed() / usage.getMax());
+        }
+        return result;
+    }
+
+    /**
+     * Returns number of jobs paused by the governor.
+     */
+    public synchronized int getPausedCount()
+    {
+        return paused.size();
+    }
+
+    /**
+     * Checks memory usage pausing or resuming one job if necessary.
+     * Called on threshold notification and periodically while there are paused jobs.
+     *
+     * Jobs are paused and resumed outside of the governor lock, as their listeners may call back the governor.
+     */
+    public void check()
+    {
+        double usage = getUsage();
+        Entry victim = null;
+        Entry toResume = null;
+        synchronized( this )
+        {
+            if( !installed )
+                return;
+            if( usage >= highWater )
+                victim = chooseVictim();
+            else if( usage < lowWater )
+                toResume = paused.poll();
+            scheduleCheck();
+        }
+        if( victim != null )
+        {
+            victim.jobControl.pause();
+            boolean keepPaused = false;
+            synchronized( this )
+            {
+                // job could terminate or governor could be uninstalled meanwhile
+                if( installed && victim.jobControl.getStatus() == JobControl.PAUSED && jobs.get(victim.jobControl) == victim )
+                {
+                    if( !paused.contains(victim) )
+                        paused.add(victim);
+                    keepPaused = true;
+                }
+            }
+            if( keepPaused )
+                log.log(Level.INFO, "Memory usage " + (int) ( usage * 100 ) + "%, job " + victim.jobControl + " is paused");
+            else if( victim.jobControl.getStatus() == JobControl.PAUSED )
+                victim.jobControl.resume();
+        }
+        if( toResume != null )
+        {
+            log.log(Level.INFO, "Memory usage " + (int) ( usage * 100 ) + "%, job " + toResume.jobControl + " is resumed");
+            toResume.jobControl.resume();
+        }
+    }
+
+    private void scheduleCheck()
+    {
+        if( checkTimeout != null && !checkTimeout.isExpired() )
+            return;
+        checkTimeout = paused.isEmpty() && getUsage() < highWater ? null : HashedTimingWheel.getDefault().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                check();
+            }
+        }, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private Entry chooseVictim()
+    {
+        Entry victim = null;
+        long victimValue = 0;
+        for( Entry entry : jobs.values() )
+        {
+            if( entry.jobControl.getStatus() != JobControl.RUNNING )
+                continue;
+            long value;
+            switch( policy )
+            {
+                case PAUSE_MOST_ALLOCATING:
+                    value = getAllocatedBytes(entry);
+                    break;
+                case PAUSE_LARGEST_ESTIMATE:
+                    value = entry.estimate;
+                    break;
+                default:
+                    value = entry.registered;
+                    break;
+            }
+            if( victim == null || value > victimValue )
+            {
+                victim = entry;
+                victimValue = value;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Returns amount of memory allocated by the job thread since the job start
+     * or declared estimate if it cannot be measured.
+     */
+    private static long getAllocatedBytes(Entry entry)
+    {
+        long allocated = getThreadAllocatedBytes(entry.jobControl.getThread());
+        if( allocated < 0 || entry.allocatedAtStart < 0 )
+            return entry.estimate;
+        return allocated - entry.allocatedAtStart;
+    }
+
+    private static long getThreadAllocatedBytes(Thread thread)
+    {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if( thread == null || ! ( threadMXBean instanceof com.sun.management.ThreadMXBean ) )
+            return -1;
+        return ( (com.sun.management.ThreadMXBean)threadMXBean ).getThreadAllocatedBytes(thread.getId());
+    }
+}
@@ -0,0 +1,17 @@
+package ru.biosoft.jobcontrol;
+
+import ru.biosoft.jobcontrol.StackProgressJobControl.ProgressFork;
+
+public interface ParallelIteration<T>
+{
+    /**
+     * Called on each element of the partition in the worker thread.
+     * 
+     * @param element current element of iterated collection
+     * @param fork progress stack of the worker, {@link ProgressFork#checkStatus()} stops the worker
+     * if its partition was already processed by another worker or the job was terminated
+     * @return true if cycle should continue; false if cycle should break
+     * @exception JobControlException to stop the cycle with error
+     */
+    public boolean run(T element, ProgressFork fork) throws JobControlException;
+}
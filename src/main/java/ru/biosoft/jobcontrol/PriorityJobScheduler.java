@@ -0,0 +1,289 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs jobs in limited number of slots choosing waiting jobs by priority.
+ *
+ * When a job arrives and all slots are busy, the running job with the lowest priority is preempted:
+ * it is paused by {@link JobControl#pause()} and returns to the waiting list, its slot is given to the new job.
+ * Preempted job is resumed when it becomes the best waiting job and a slot is free.
+ * Note that the preempted job actually stops at its next {@link AbstractJobControl#checkStatus()} call
+ * and keeps its thread while paused.
+ *
+ * To prevent starvation priority of the job grows by one every aging interval since its submission.
+ * Preemption does not reset the aging, so the job preempted many times eventually wins the slot,
+ * and the job is preempted only by the job with higher priority than its aged one. Bigger value means higher priority.
+ *
+ * Jobs are paused and resumed after the scheduler lock is released, so job listeners may call the scheduler.
+ */
+public class PriorityJobScheduler
+{
+    private static final Logger log = Logger.getLogger(PriorityJobScheduler.class.getName());
+
+    /** Default aging interval in milliseconds */
+    public static final long DEFAULT_AGING_INTERVAL = 10000;
+
+    private static class Task
+    {
+        final JobControl jobControl;
+        final int priority;
+        final long sequence;
+        final long submitted;
+        boolean started = false;
+        /** state requested by the scheduler, applied to the job outside the scheduler lock */
+        volatile boolean preempted = false;
+        /** incremented on each change of preempted flag */
+        volatile int requests = 0;
+
+        Task(JobControl jobControl, int priority, long sequence, long submitted)
+        {
+            this.jobControl = jobControl;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.submitted = submitted;
+        }
+
+        /**
+         * Requests pause or resume of the job. Called under the scheduler lock.
+         */
+        void request(boolean preempted)
+        {
+            this.preempted = preempted;
+            requests++;
+        }
+
+        /**
+         * Brings the job to the last requested state. Requests may be applied by several threads in any order:
+         * the thread which sees that the request changed while it was applying its own one applies the new one.
+         */
+        void apply()
+        {
+            while( true )
+            {
+                int current = requests;
+                if( preempted )
+                    jobControl.pause();
+                else
+                    jobControl.resume();
+                if( requests == current )
+                    return;
+            }
+        }
+
+        int getEffectivePriority(long now, long agingInterval)
+        {
+            long boost = ( now - submitted ) / agingInterval;
+            return (int)Math.min((long)priority + boost, Integer.MAX_VALUE);
+        }
+    }
+
+    private final int slots;
+    private final Executor executor;
+    private final List<Task> running = new ArrayList<>();
+    private final List<Task> waiting = new ArrayList<>();
+    private long agingInterval = DEFAULT_AGING_INTERVAL;
+    private long sequence = 0;
+    private int preemptions = 0;
+
+    /**
+     * Constructs scheduler running jobs in its own daemon threads.
+     *
+     * @param slots number of simultaneously running jobs
+     */
+    public PriorityJobScheduler(int slots)
+    {
+        this(slots, Executors.newCachedThreadPool(new DaemonThreadFactory("JobControl scheduler")));
+    }
+
+    /**
+     * Constructs scheduler.
+     *
+     * The executor should be able to run more tasks than there are slots, since preempted jobs keep their threads.
+     *
+     * @param slots number of simultaneously running jobs
+     * @param executor executor which runs the jobs
+     */
+    public PriorityJobScheduler(int slots, Executor executor)
+    {
+        if( slots <= 0 )
+            throw new IllegalArgumentException("slots must be positive: " + slots);
+        this.slots = slots;
+        this.executor = executor;
+    }
+
+    /**
+     * Sets interval after which priority of waiting job is increased by one.
+     *
+     * @param agingInterval interval in milliseconds
+     */
+    public synchronized void setAgingInterval(long agingInterval)
+    {
+        if( agingInterval <= 0 )
+            throw new IllegalArgumentException("agingInterval must be positive: " + agingInterval);
+        this.agingInterval = agingInterval;
+    }
+
+    /**
+     * Submits the job.
+     *
+     * @param jobControl job to run
+     * @param priority priority of the job, bigger value means higher priority
+     */
+    public void submit(JobControl jobControl, int priority)
+    {
+        List<Task> toStart = new ArrayList<>();
+        List<Task> toControl = new ArrayList<>();
+        synchronized( this )
+        {
+            long now = System.currentTimeMillis();
+            Task task = new Task(jobControl, priority, sequence++, now);
+            waiting.add(task);
+            if( running.size() >= slots )
+                preempt(task, now, toControl);
+            dispatch(now, toStart, toControl);
+        }
+        control(toControl);
+        start(toStart);
+    }
+
+    /**
+     * Moves the running job with the lowest priority to the waiting list if its priority is lower than priority
+     * of the arrived task. Preempted task is added to toControl list to be paused.
+     */
+    private void preempt(Task arrived, long now, List<Task> toControl)
+    {
+        Task victim = null;
+        int victimPriority = 0;
+        for( Task task : running )
+        {
+            // job which is not running yet or is already finishing cannot be paused
+            if( task.jobControl.getStatus() != JobControl.RUNNING )
+                continue;
+            int priority = task.getEffectivePriority(now, agingInterval);
+            if( victim == null || priority < victimPriority || ( priority == victimPriority && task.sequence > victim.sequence ) )
+            {
+                victim = task;
+                victimPriority = priority;
+            }
+        }
+        if( victim == null || victimPriority >= arrived.priority )
+            return;
+        log.log(Level.FINE, "Job " + victim.jobControl + " is preempted by " + arrived.jobControl);
+        preemptions++;
+        running.remove(victim);
+        waiting.add(victim);
+        victim.request(true);
+        toControl.add(victim);
+    }
+
+    /**
+     * Gives free slots to the best waiting tasks. Tasks to be started are added to toStart list,
+     * preempted tasks to be resumed are added to toControl list.
+     */
+    private void dispatch(long now, List<Task> toStart, List<Task> toControl)
+    {
+        while( running.size() < slots && !waiting.isEmpty() )
+        {
+            Task best = null;
+            int bestPriority = 0;
+            for( Task task : waiting )
+            {
+                int priority = task.getEffectivePriority(now, agingInterval);
+                if( best == null || priority > bestPriority || ( priority == bestPriority && task.sequence < best.sequence ) )
+                {
+                    best = task;
+                    bestPriority = priority;
+                }
+            }
+            waiting.remove(best);
+            running.add(best);
+            if( best.started )
+            {
+                best.request(false);
+                toControl.add(best);
+            }
+            else
+            {
+                best.started = true;
+                toStart.add(best);
+            }
+        }
+    }
+
+    private static void control(List<Task> tasks)
+    {
+        for( Task task : tasks )
+            task.apply();
+    }
+
+    private void start(List<Task> tasks)
+    {
+        for( final Task task : tasks )
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        task.jobControl.run();
+                    }
+                    catch( RuntimeException e )
+                    {
+                        log.log(Level.SEVERE, "Job " + task.jobControl + " failed", e);
+                    }
+                    finally
+                    {
+                        finished(task);
+                    }
+                }
+            });
+        }
+    }
+
+    private void finished(Task task)
+    {
+        List<Task> toStart = new ArrayList<>();
+        List<Task> toControl = new ArrayList<>();
+        synchronized( this )
+        {
+            // job might be terminated while preempted
+            if( !running.remove(task) )
+                waiting.remove(task);
+            dispatch(System.currentTimeMillis(), toStart, toControl);
+        }
+        control(toControl);
+        start(toStart);
+    }
+
+    /**
+     * Returns number of jobs occupying slots.
+     */
+    public synchronized int getRunningCount()
+    {
+        return running.size();
+    }
+
+    /**
+     * Returns number of waiting jobs including preempted ones.
+     */
+    public synchronized int getWaitingCount()
+    {
+        return waiting.size();
+    }
+
+    /**
+     * Returns how many times running jobs were preempted.
+     */
+    public synchronized int getPreemptionCount()
+    {
+        return preemptions;
+    }
+}
@@ -0,0 +1,66 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Readable channel bound to the job.
+ *
+ * Job preparedness is set from the number of bytes read versus the size of the channel.
+ * Pause and termination are checked between reads, terminated job makes {@link #read(ByteBuffer)} throw
+ * {@link java.io.InterruptedIOException} with {@link JobControlException} as a cause.
+ *
+ * @see ProgressFileChannel
+ */
+public class ProgressByteChannel implements ReadableByteChannel
+{
+    private final ReadableByteChannel channel;
+    private final IOProgress progress;
+    private long position;
+
+    /**
+     * @param jobControl job to report progress to
+     * @param channel channel to wrap
+     * @param size expected number of bytes in the channel or -1 if unknown
+     */
+    public ProgressByteChannel(AbstractJobControl jobControl, ReadableByteChannel channel, long size)
+    {
+        this.channel = channel;
+        this.progress = new IOProgress(jobControl, size, 0);
+    }
+
+    /**
+     * Returns number of bytes read.
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException
+    {
+        int n = channel.read(dst);
+        if( n < 0 )
+            progress.check();
+        else
+        {
+            position += n;
+            progress.advance(n, position);
+        }
+        return n;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
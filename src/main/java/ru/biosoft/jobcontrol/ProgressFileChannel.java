@@ -0,0 +1,181 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File channel bound to the job.
+ *
+ * Job preparedness is set from the furthest position read versus the file size taken when the channel is wrapped.
+ * Both relative and positional reads and {@link #transferTo(long, long, WritableByteChannel)} are counted.
+ * Pause and termination are checked between reads, terminated job makes them throw
+ * {@link java.io.InterruptedIOException} with {@link JobControlException} as a cause.
+ * Writes are passed to the wrapped channel unchanged.
+ *
+ * Position is tracked by the wrapper, so the wrapped channel should not be used directly.
+ */
+public class ProgressFileChannel extends FileChannel
+{
+    private final FileChannel channel;
+    private final IOProgress progress;
+    private long position;
+
+    /**
+     * @param jobControl job to report progress to
+     * @param channel channel to wrap
+     */
+    public ProgressFileChannel(AbstractJobControl jobControl, FileChannel channel) throws IOException
+    {
+        this.channel = channel;
+        this.position = channel.position();
+        this.progress = new IOProgress(jobControl, channel.size(), position);
+    }
+
+    /**
+     * Opens file for reading reporting progress to the job.
+     *
+     * @param jobControl job to report progress to
+     * @param path file to read
+     */
+    public static ProgressFileChannel open(AbstractJobControl jobControl, Path path) throws IOException
+    {
+        return new ProgressFileChannel(jobControl, FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    private void readDone(long n, long end) throws IOException
+    {
+        if( n < 0 )
+            progress.check();
+        else
+            progress.advance(n, end);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException
+    {
+        int n = channel.read(dst);
+        if( n > 0 )
+            position += n;
+        readDone(n, position);
+        return n;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException
+    {
+        long n = channel.read(dsts, offset, length);
+        if( n > 0 )
+            position += n;
+        readDone(n, position);
+        return n;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException
+    {
+        int n = channel.read(dst, position);
+        readDone(n, position + n);
+        return n;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException
+    {
+        long n = channel.transferTo(position, count, target);
+        readDone(n, position + n);
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException
+    {
+        int n = channel.write(src);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+        long n = channel.write(srcs, offset, length);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException
+    {
+        return channel.write(src, position);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException
+    {
+        return channel.transferFrom(src, position, count);
+    }
+
+    @Override
+    public long position() throws IOException
+    {
+        return position;
+    }
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException
+    {
+        channel.position(newPosition);
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException
+    {
+        return channel.size();
+    }
+
+    @Override
+    public FileChannel truncate(long size) throws IOException
+    {
+        channel.truncate(size);
+        position = channel.position();
+        return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException
+    {
+        channel.force(metaData);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException
+    {
+        return channel.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException
+    {
+        return channel.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException
+    {
+        return channel.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException
+    {
+        channel.close();
+    }
+}
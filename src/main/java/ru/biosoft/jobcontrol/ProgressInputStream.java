@@ -0,0 +1,104 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream bound to the job.
+ *
+ * Job preparedness is set from the number of bytes read versus the size of the stream.
+ * Pause and termination are checked between reads, terminated job makes read methods throw
+ * {@link java.io.InterruptedIOException} with {@link JobControlException} as a cause.
+ *
+ * <pre>
+ * try (InputStream in = new BufferedInputStream(ProgressInputStream.open(job, file)))
+ * </pre>
+ * Wrap the stream before buffering, so status is checked once per buffer fill.
+ */
+public class ProgressInputStream extends FilterInputStream
+{
+    private final IOProgress progress;
+    private long position;
+    private long mark;
+
+    /**
+     * @param jobControl job to report progress to
+     * @param in stream to wrap
+     * @param size expected number of bytes in the stream or -1 if unknown
+     */
+    public ProgressInputStream(AbstractJobControl jobControl, InputStream in, long size)
+    {
+        super(in);
+        this.progress = new IOProgress(jobControl, size, 0);
+    }
+
+    /**
+     * Opens file for reading reporting progress to the job.
+     *
+     * @param jobControl job to report progress to
+     * @param file file to read
+     */
+    public static ProgressInputStream open(AbstractJobControl jobControl, File file) throws IOException
+    {
+        return new ProgressInputStream(jobControl, new FileInputStream(file), file.length());
+    }
+
+    /**
+     * Returns number of bytes read.
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b = in.read();
+        if( b < 0 )
+            progress.check();
+        else
+            progress.advance(1, ++position);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        int n = in.read(b, off, len);
+        if( n < 0 )
+            progress.check();
+        else
+        {
+            position += n;
+            progress.advance(n, position);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = in.skip(n);
+        position += skipped;
+        progress.advance(skipped, position);
+        return skipped;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit)
+    {
+        in.mark(readlimit);
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException
+    {
+        in.reset();
+        position = mark;
+    }
+}
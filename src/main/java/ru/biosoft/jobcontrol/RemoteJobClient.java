@@ -0,0 +1,347 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ru.biosoft.jobcontrol.RemoteJobProtocol.State;
+
+/**
+ * Connection to {@link RemoteJobServer} running in another JVM on the same host.
+ *
+ * Remote jobs are represented by {@link RemoteJobControl} proxies. Requests are pipelined:
+ * asynchronous methods send the request and return immediately, many requests may be in flight
+ * over one connection. State of watched jobs is pushed by the server, so info methods of proxies
+ * do not make requests.
+ *
+ * <pre>
+ * RemoteJobClient client = new RemoteJobClient(port);
+ * JobControl job = client.watch(jobId);
+ * job.addListener(listener);
+ * job.pause();
+ * </pre>
+ */
+public class RemoteJobClient implements AutoCloseable
+{
+    private static final Logger log = Logger.getLogger(RemoteJobClient.class.getName());
+
+    private static class Request
+    {
+        final byte op;
+        final CompletableFuture<?> future;
+
+        Request(byte op, CompletableFuture<?> future)
+        {
+            this.op = op;
+            this.future = future;
+        }
+
+        @SuppressWarnings ( "unchecked" )
+        void complete(Object value)
+        {
+            ( (CompletableFuture<Object>)future ).complete(value);
+        }
+    }
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Map<Integer, Request> pending = new ConcurrentHashMap<>();
+    private final Map<Long, RemoteJobControl> proxies = new ConcurrentHashMap<>();
+    private int lastRequestId = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Connects to the server on the loopback interface.
+     *
+     * @param port port of the server
+     * @exception IOException if connection cannot be established
+     */
+    public RemoteJobClient(int port) throws IOException
+    {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(RemoteJobProtocol.MAGIC);
+        out.writeInt(RemoteJobProtocol.VERSION);
+        out.flush();
+        if( in.readInt() != RemoteJobProtocol.MAGIC || in.readInt() != RemoteJobProtocol.VERSION )
+        {
+            socket.close();
+            throw new IOException("Unsupported protocol");
+        }
+        Thread reader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                read();
+            }
+        }, "JobControl remote client " + port);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Starts watching the remote job.
+     *
+     * @param jobId identifier of the job on the server
+     * @return future completed with the proxy of the remote job
+     */
+    public CompletableFuture<RemoteJobControl> watchAsync(long jobId)
+    {
+        return send(RemoteJobProtocol.OP_WATCH, jobId, 0);
+    }
+
+    /**
+     * Starts watching the remote job waiting for the server response.
+     *
+     * @param jobId identifier of the job on the server
+     * @return proxy of the remote job
+     * @exception IOException if the job is not exported or connection failed
+     */
+    public RemoteJobControl watch(long jobId) throws IOException
+    {
+        return get(watchAsync(jobId));
+    }
+
+    /**
+     * Requests identifiers of all jobs exported by the server.
+     */
+    public CompletableFuture<long[]> listAsync()
+    {
+        return send(RemoteJobProtocol.OP_LIST, 0, 0);
+    }
+
+    /**
+     * Returns identifiers of all jobs exported by the server.
+     *
+     * @exception IOException if connection failed
+     */
+    public long[] list() throws IOException
+    {
+        return get(listAsync());
+    }
+
+    private static <T> T get(CompletableFuture<T> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        catch( ExecutionException e )
+        {
+            if( e.getCause() instanceof IOException )
+                throw (IOException)e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Sends request without waiting for the response.
+     *
+     * @return future completed by the reader thread when the response arrives
+     */
+    <T> CompletableFuture<T> send(byte op, long jobId, int percent)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if( closed )
+        {
+            future.completeExceptionally(new IOException("Connection is closed"));
+            return future;
+        }
+        try
+        {
+            synchronized( out )
+            {
+                int requestId = ++lastRequestId;
+                pending.put(requestId, new Request(op, future));
+                // close() might miss the request added after it failed pending ones
+                if( closed )
+                {
+                    pending.remove(requestId);
+                    future.completeExceptionally(new IOException("Connection is closed"));
+                    return future;
+                }
+                out.writeByte(op);
+                out.writeInt(requestId);
+                if( op != RemoteJobProtocol.OP_LIST )
+                    out.writeLong(jobId);
+                if( op == RemoteJobProtocol.OP_SET_PREPAREDNESS )
+                    out.writeInt(percent);
+                out.flush();
+            }
+        }
+        catch( IOException e )
+        {
+            close(e);
+        }
+        return future;
+    }
+
+    private void read()
+    {
+        IOException failure = null;
+        try
+        {
+            while( !closed )
+            {
+                byte op = in.readByte();
+                if( op == RemoteJobProtocol.OP_STATE )
+                {
+                    State state = State.read(in);
+                    RemoteJobControl proxy = proxies.get(state.jobId);
+                    if( proxy != null )
+                        proxy.update(state);
+                }
+                else if( op == RemoteJobProtocol.OP_RESPONSE )
+                {
+                    readResponse();
+                }
+                else
+                    throw new IOException("Unknown opcode " + op);
+            }
+        }
+        catch( EOFException e )
+        {
+            // server disconnected
+            failure = e;
+        }
+        catch( IOException e )
+        {
+            if( !closed )
+                log.log(Level.WARNING, "Connection to remote job server failed", e);
+            failure = e;
+        }
+        finally
+        {
+            close(failure);
+        }
+    }
+
+    private void readResponse() throws IOException
+    {
+        int requestId = in.readInt();
+        byte result = in.readByte();
+        Request request = pending.remove(requestId);
+        if( request == null )
+            throw new IOException("Unexpected response " + requestId);
+        switch( result )
+        {
+            case RemoteJobProtocol.RESULT_OK:
+                request.complete(request.op == RemoteJobProtocol.OP_LIST ? readIds() : readState());
+                break;
+            case RemoteJobProtocol.RESULT_UNKNOWN_JOB:
+                in.readBoolean();
+                request.future.completeExceptionally(new IOException("Unknown job"));
+                break;
+            default:
+                in.readBoolean();
+                request.future.completeExceptionally(new IOException("Request failed on the server"));
+                break;
+        }
+    }
+
+    private long[] readIds() throws IOException
+    {
+        long[] ids = new long[in.readInt()];
+        for( int i = 0; i < ids.length; i++ )
+            ids[i] = in.readLong();
+        return ids;
+    }
+
+    /**
+     * Reads state attached to the response. The state is sent in response to watch request only.
+     *
+     * @return proxy of the watched job or null
+     */
+    private RemoteJobControl readState() throws IOException
+    {
+        if( !in.readBoolean() )
+            return null;
+        State state = State.read(in);
+        RemoteJobControl proxy = proxies.get(state.jobId);
+        if( proxy == null )
+        {
+            proxy = new RemoteJobControl(this, state);
+            proxies.put(state.jobId, proxy);
+        }
+        else
+            proxy.update(state);
+        return proxy;
+    }
+
+    /**
+     * Stops watching the remote job. The proxy is not updated any more.
+     */
+    void unwatch(RemoteJobControl proxy)
+    {
+        if( proxies.remove(proxy.getJobId(), proxy) )
+            send(RemoteJobProtocol.OP_UNWATCH, proxy.getJobId(), 0);
+        proxy.detach();
+    }
+
+    /**
+     * Returns true if the connection is closed.
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Closes the connection. Pending requests fail.
+     */
+    @Override
+    public void close()
+    {
+        close(null);
+    }
+
+    /**
+     * Closes the connection failing all pending requests.
+     *
+     * @param cause failure of the connection or null if it is closed by the user
+     */
+    private void close(IOException cause)
+    {
+        if( !closed )
+        {
+            closed = true;
+            try
+            {
+                socket.close();
+            }
+            catch( IOException e )
+            {
+                log.log(Level.FINE, "Cannot close connection", e);
+            }
+        }
+        // requests may be still added by concurrent send() calls, they check closed flag after adding
+        for( Integer requestId : pending.keySet() )
+        {
+            Request request = pending.remove(requestId);
+            if( request != null )
+                request.future.completeExceptionally(new IOException("Connection is closed", cause));
+        }
+        for( RemoteJobControl proxy : proxies.values() )
+            proxy.detach();
+    }
+}
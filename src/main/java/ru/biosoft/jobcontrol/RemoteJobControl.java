@@ -0,0 +1,248 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ru.biosoft.jobcontrol.RemoteJobProtocol.State;
+
+/**
+ * Proxy of the job running in another JVM.
+ *
+ * Control methods send requests to the server without waiting for the response,
+ * info methods return the state last pushed by the server. Listeners are notified
+ * from the connection thread when pushed state arrives. Since pushes are coalesced,
+ * several events of the same type occurred within one push interval are delivered as one event.
+ *
+ * @see RemoteJobClient#watch(long)
+ */
+public class RemoteJobControl implements JobControl
+{
+    private final RemoteJobClient client;
+    private final long jobId;
+    private volatile State state;
+    /** set when the proxy stops receiving state */
+    private volatile boolean detached = false;
+    private final CopyOnWriteArrayList<JobControlListener> listeners = new CopyOnWriteArrayList<>();
+
+    RemoteJobControl(RemoteJobClient client, State state)
+    {
+        this.client = client;
+        this.jobId = state.jobId;
+        this.state = state;
+    }
+
+    /**
+     * Returns identifier of the job on the server.
+     */
+    public long getJobId()
+    {
+        return jobId;
+    }
+
+    /**
+     * Returns client this proxy belongs to.
+     */
+    public RemoteJobClient getClient()
+    {
+        return client;
+    }
+
+    /**
+     * Returns last message received with the job state: start, termination or error message.
+     */
+    public String getMessage()
+    {
+        return state.message;
+    }
+
+    /**
+     * Stops receiving state of the remote job.
+     */
+    public void unwatch()
+    {
+        client.unwatch(this);
+    }
+
+    void update(State state)
+    {
+        synchronized( this )
+        {
+            this.state = state;
+            notifyAll();
+        }
+        int events = state.events;
+        if( events == 0 || listeners.isEmpty() )
+            return;
+        if( ( events & JobControlEvent.JOB_STARTED ) != 0 )
+        {
+            JobControlEvent event = new JobControlEvent(this, state.message);
+            for( JobControlListener listener : listeners )
+                listener.jobStarted(event);
+        }
+        if( ( events & JobControlEvent.JOB_PAUSED ) != 0 )
+        {
+            JobControlEvent event = new JobControlEvent(this);
+            for( JobControlListener listener : listeners )
+                listener.jobPaused(event);
+        }
+        if( ( events & JobControlEvent.JOB_RESUMED ) != 0 )
+        {
+            JobControlEvent event = new JobControlEvent(this);
+            for( JobControlListener listener : listeners )
+                listener.jobResumed(event);
+        }
+        if( ( events & JobControlEvent.VALUE_CHANGED ) != 0 )
+        {
+            JobControlEvent event = new JobControlEvent(this);
+            for( JobControlListener listener : listeners )
+                listener.valueChanged(event);
+        }
+        if( ( events & JobControlEvent.RESULTS_READY ) != 0 )
+        {
+            JobControlEvent event = new JobControlEvent(this, "results");
+            for( JobControlListener listener : listeners )
+                listener.resultsReady(event);
+        }
+        if( ( events & JobControlEvent.JOB_TERMINATED ) != 0 )
+        {
+            JobControlEvent event = new JobControlEvent(this, state.message);
+            for( JobControlListener listener : listeners )
+                listener.jobTerminated(event);
+        }
+    }
+
+    /**
+     * Called when the proxy stops receiving state: the job is unwatched or the connection is closed.
+     */
+    synchronized void detach()
+    {
+        detached = true;
+        notifyAll();
+    }
+
+    /**
+     * Attaches to the remote job and waits until it terminates.
+     *
+     * The job is run by the server, so this method only waits for the terminated state pushed by the server.
+     * It also returns when the proxy stops receiving state or the thread is interrupted,
+     * in this case {@link #getStatus()} returns the last known state.
+     */
+    @Override
+    public void run()
+    {
+        synchronized( this )
+        {
+            while( !detached && !isTerminated(state.status) )
+            {
+                try
+                {
+                    wait();
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean isTerminated(int status)
+    {
+        return status == COMPLETED || status == TERMINATED_BY_REQUEST || status == TERMINATED_BY_ERROR;
+    }
+
+    @Override
+    public void pause()
+    {
+        client.send(RemoteJobProtocol.OP_PAUSE, jobId, 0);
+    }
+
+    @Override
+    public void resume()
+    {
+        client.send(RemoteJobProtocol.OP_RESUME, jobId, 0);
+    }
+
+    @Override
+    public void terminate()
+    {
+        client.send(RemoteJobProtocol.OP_TERMINATE, jobId, 0);
+    }
+
+    @Override
+    public void setPreparedness(int percent)
+    {
+        client.send(RemoteJobProtocol.OP_SET_PREPAREDNESS, jobId, percent);
+    }
+
+    @Override
+    public int getStatus()
+    {
+        return state.status;
+    }
+
+    @Override
+    public String getTextStatus()
+    {
+        return AbstractJobControl.getTextStatus(getStatus());
+    }
+
+    @Override
+    public int getPreparedness()
+    {
+        return state.preparedness;
+    }
+
+    @Override
+    public long getCreatedTime()
+    {
+        return state.createdTime;
+    }
+
+    @Override
+    public long getRemainedTime()
+    {
+        return state.remainedTime;
+    }
+
+    @Override
+    public long getElapsedTime()
+    {
+        State state = this.state;
+        if( state.startedTime == -1 )
+            return 0;
+        return ( state.endedTime == -1 ? System.currentTimeMillis() : state.endedTime ) - state.startedTime;
+    }
+
+    @Override
+    public long getStartedTime()
+    {
+        return state.startedTime;
+    }
+
+    @Override
+    public long getEndedTime()
+    {
+        return state.endedTime;
+    }
+
+    @Override
+    public void addListener(JobControlListener listener)
+    {
+        if( listener != null )
+            listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(JobControlListener listener)
+    {
+        if( listener != null )
+            listeners.remove(listener);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Remote job " + jobId;
+    }
+}
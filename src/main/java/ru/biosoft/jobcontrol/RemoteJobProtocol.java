@@ -0,0 +1,115 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Constants and helpers of the binary protocol used by {@link RemoteJobServer} and {@link RemoteJobClient}.
+ *
+ * Each frame starts with one byte opcode. Requests are followed by int request id,
+ * the server answers with {@link #OP_RESPONSE} frame carrying the same id, so requests can be pipelined.
+ * State of watched jobs is pushed by the server with {@link #OP_STATE} frames. State frames are coalesced:
+ * only the latest state is sent together with mask of event types occurred since the previous push.
+ */
+final class RemoteJobProtocol
+{
+    private RemoteJobProtocol()
+    {
+    }
+
+    static final int MAGIC = 0x4A43524D; // "JCRM"
+    static final int VERSION = 1;
+
+    // requests: int requestId, long jobId
+    static final byte OP_WATCH = 1;
+    static final byte OP_UNWATCH = 2;
+    static final byte OP_PAUSE = 3;
+    static final byte OP_RESUME = 4;
+    static final byte OP_TERMINATE = 5;
+    // int requestId, long jobId, int percent
+    static final byte OP_SET_PREPAREDNESS = 6;
+    // int requestId
+    static final byte OP_LIST = 7;
+
+    // int requestId, byte result, payload
+    static final byte OP_RESPONSE = 64;
+    // state record
+    static final byte OP_STATE = 65;
+
+    static final byte RESULT_OK = 0;
+    static final byte RESULT_UNKNOWN_JOB = 1;
+    static final byte RESULT_ERROR = 2;
+
+    /**
+     * Snapshot of the job state transferred over the wire.
+     */
+    static class State
+    {
+        long jobId;
+        int events;
+        int status;
+        int preparedness;
+        long createdTime;
+        long startedTime;
+        long endedTime;
+        long remainedTime;
+        String message;
+
+        static State capture(long jobId, JobControl jobControl, int events, String message)
+        {
+            State state = new State();
+            state.jobId = jobId;
+            state.events = events;
+            JobSnapshot snapshot = JobSnapshot.capture(jobId, jobControl);
+            state.status = snapshot.getStatus();
+            state.preparedness = snapshot.getPreparedness();
+            state.createdTime = snapshot.getCreatedTime();
+            state.startedTime = snapshot.getStartedTime();
+            state.endedTime = snapshot.getEndedTime();
+            state.remainedTime = snapshot.getRemainedTime();
+            state.message = message;
+            return state;
+        }
+
+        void write(DataOutputStream out) throws IOException
+        {
+            out.writeLong(jobId);
+            out.writeByte(events);
+            out.writeByte(status);
+            out.writeByte(preparedness);
+            out.writeLong(createdTime);
+            out.writeLong(startedTime);
+            out.writeLong(endedTime);
+            out.writeLong(remainedTime);
+            writeString(out, message);
+        }
+
+        static State read(DataInputStream in) throws IOException
+        {
+            State state = new State();
+            state.jobId = in.readLong();
+            state.events = in.readUnsignedByte();
+            state.status = in.readByte();
+            state.preparedness = in.readByte();
+            state.createdTime = in.readLong();
+            state.startedTime = in.readLong();
+            state.endedTime = in.readLong();
+            state.remainedTime = in.readLong();
+            state.message = readString(in);
+            return state;
+        }
+    }
+
+    static void writeString(DataOutputStream out, String str) throws IOException
+    {
+        out.writeBoolean(str != null);
+        if( str != null )
+            out.writeUTF(str.length() > 8192 ? str.substring(0, 8192) : str);
+    }
+
+    static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,424 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ru.biosoft.jobcontrol.RemoteJobProtocol.State;
+
+/**
+ * Exports local jobs so they can be controlled and watched from other JVMs by {@link RemoteJobClient}.
+ *
+ * Server listens on the loopback interface only. Each connection is served by reader thread executing
+ * requests and writer thread pushing coalesced state of watched jobs every push interval.
+ *
+ * <pre>
+ * RemoteJobServer server = new RemoteJobServer(0);
+ * server.start();
+ * server.export(job);
+ * int port = server.getPort();
+ * </pre>
+ */
+public class RemoteJobServer
+{
+    private static final Logger log = Logger.getLogger(RemoteJobServer.class.getName());
+
+    /** Default interval between state pushes in milliseconds */
+    public static final long DEFAULT_PUSH_INTERVAL = 50;
+
+    private final int port;
+    private final Map<Long, JobControl> jobs = new ConcurrentHashMap<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private volatile long pushInterval = DEFAULT_PUSH_INTERVAL;
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * Constructs server.
+     *
+     * @param port port to listen on or 0 to choose free port
+     */
+    public RemoteJobServer(int port)
+    {
+        this.port = port;
+    }
+
+    /**
+     * Sets interval between state pushes. Changes of the job state within the interval are coalesced.
+     *
+     * @param pushInterval interval in milliseconds
+     */
+    public void setPushInterval(long pushInterval)
+    {
+        this.pushInterval = Math.max(pushInterval, 1);
+    }
+
+    /**
+     * Exports the job under its {@link AbstractJobControl#getJobId() id}.
+     */
+    public void export(AbstractJobControl jobControl)
+    {
+        export(jobControl.getJobId(), jobControl);
+    }
+
+    /**
+     * Exports the job under specified id.
+     *
+     * @param jobId identifier used by clients
+     * @param jobControl job to export
+     */
+    public void export(long jobId, JobControl jobControl)
+    {
+        jobs.put(jobId, jobControl);
+    }
+
+    /**
+     * Removes the job from exported ones. Clients watching the job stop receiving its state.
+     */
+    public void unexport(long jobId)
+    {
+        if( jobs.remove(jobId) == null )
+            return;
+        for( Connection connection : connections )
+            connection.unwatch(jobId);
+    }
+
+    /**
+     * Starts listening for connections.
+     *
+     * @exception IOException if server socket cannot be opened
+     */
+    public synchronized void start() throws IOException
+    {
+        if( serverSocket != null )
+            return;
+        final ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        serverSocket = socket;
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                accept(socket);
+            }
+        }, "JobControl remote server " + socket.getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns port the server listens on or -1 if it is not started.
+     */
+    public int getPort()
+    {
+        ServerSocket socket = serverSocket;
+        return socket == null ? -1 : socket.getLocalPort();
+    }
+
+    /**
+     * Stops the server closing all connections.
+     */
+    public synchronized void stop()
+    {
+        ServerSocket socket = serverSocket;
+        serverSocket = null;
+        if( socket != null )
+        {
+            try
+            {
+                socket.close();
+            }
+            catch( IOException e )
+            {
+                log.log(Level.FINE, "Cannot close server socket", e);
+            }
+        }
+        for( Connection connection : connections )
+            connection.close();
+    }
+
+    private void accept(ServerSocket socket)
+    {
+        while( !socket.isClosed() )
+        {
+            try
+            {
+                Socket client = socket.accept();
+                client.setTcpNoDelay(true);
+                Connection connection = new Connection(client);
+                connections.add(connection);
+                connection.start();
+            }
+            catch( IOException e )
+            {
+                if( !socket.isClosed() )
+                    log.log(Level.WARNING, "Cannot accept connection", e);
+            }
+        }
+    }
+
+    /**
+     * Subscription of the connection to the job state.
+     */
+    private class Watch extends CoalescingJobListener
+    {
+        final long jobId;
+        final JobControl jobControl;
+        final Connection connection;
+
+        Watch(long jobId, JobControl jobControl, Connection connection)
+        {
+            this.jobId = jobId;
+            this.jobControl = jobControl;
+            this.connection = connection;
+        }
+
+        @Override
+        protected void changed()
+        {
+            connection.dirty.add(this);
+        }
+
+        State capture()
+        {
+            return State.capture(jobId, jobControl, drain(), getMessage());
+        }
+    }
+
+    private class Connection
+    {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final Map<Long, Watch> watches = new ConcurrentHashMap<>();
+        final Queue<Watch> dirty = new ConcurrentLinkedQueue<>();
+        volatile boolean closed = false;
+
+        Connection(Socket socket) throws IOException
+        {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void start()
+        {
+            String name = "JobControl remote connection " + socket.getRemoteSocketAddress();
+            Thread reader = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    read();
+                }
+            }, name + " reader");
+            reader.setDaemon(true);
+            reader.start();
+            Thread writer = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    push();
+                }
+            }, name + " writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        void read()
+        {
+            try
+            {
+                if( in.readInt() != RemoteJobProtocol.MAGIC || in.readInt() != RemoteJobProtocol.VERSION )
+                    throw new IOException("Unsupported protocol");
+                synchronized( out )
+                {
+                    out.writeInt(RemoteJobProtocol.MAGIC);
+                    out.writeInt(RemoteJobProtocol.VERSION);
+                    out.flush();
+                }
+                while( !closed )
+                {
+                    byte op = in.readByte();
+                    int requestId = in.readInt();
+                    handle(op, requestId);
+                    // flush once per batch of pipelined requests
+                    if( in.available() == 0 )
+                    {
+                        synchronized( out )
+                        {
+                            out.flush();
+                        }
+                    }
+                }
+            }
+            catch( EOFException e )
+            {
+                // client disconnected
+            }
+            catch( IOException e )
+            {
+                if( !closed )
+                    log.log(Level.FINE, "Connection " + socket.getRemoteSocketAddress() + " failed", e);
+            }
+            finally
+            {
+                close();
+            }
+        }
+
+        void handle(byte op, int requestId) throws IOException
+        {
+            if( op == RemoteJobProtocol.OP_LIST )
+            {
+                Long[] ids = jobs.keySet().toArray(new Long[0]);
+                synchronized( out )
+                {
+                    out.writeByte(RemoteJobProtocol.OP_RESPONSE);
+                    out.writeInt(requestId);
+                    out.writeByte(RemoteJobProtocol.RESULT_OK);
+                    out.writeInt(ids.length);
+                    for( Long id : ids )
+                        out.writeLong(id);
+                }
+                return;
+            }
+
+            long jobId = in.readLong();
+            int percent = op == RemoteJobProtocol.OP_SET_PREPAREDNESS ? in.readInt() : 0;
+            JobControl jobControl = jobs.get(jobId);
+            if( jobControl == null )
+            {
+                respond(requestId, RemoteJobProtocol.RESULT_UNKNOWN_JOB, null);
+                return;
+            }
+
+            State state = null;
+            try
+            {
+                switch( op )
+                {
+                    case RemoteJobProtocol.OP_WATCH:
+                        // pushes of the watch must not overtake the response creating the proxy on the client
+                        synchronized( out )
+                        {
+                            watch(jobId, jobControl);
+                            respond(requestId, RemoteJobProtocol.RESULT_OK, State.capture(jobId, jobControl, 0, null));
+                        }
+                        return;
+                    case RemoteJobProtocol.OP_UNWATCH:
+                        unwatch(jobId);
+                        break;
+                    case RemoteJobProtocol.OP_PAUSE:
+                        jobControl.pause();
+                        break;
+                    case RemoteJobProtocol.OP_RESUME:
+                        jobControl.resume();
+                        break;
+                    case RemoteJobProtocol.OP_TERMINATE:
+                        jobControl.terminate();
+                        break;
+                    case RemoteJobProtocol.OP_SET_PREPAREDNESS:
+                        jobControl.setPreparedness(percent);
+                        break;
+                    default:
+                        throw new IOException("Unknown opcode " + op);
+                }
+            }
+            catch( RuntimeException e )
+            {
+                log.log(Level.WARNING, "Remote request " + op + " for job " + jobId + " failed", e);
+                respond(requestId, RemoteJobProtocol.RESULT_ERROR, null);
+                return;
+            }
+            respond(requestId, RemoteJobProtocol.RESULT_OK, state);
+        }
+
+        void respond(int requestId, byte result, State state) throws IOException
+        {
+            synchronized( out )
+            {
+                out.writeByte(RemoteJobProtocol.OP_RESPONSE);
+                out.writeInt(requestId);
+                out.writeByte(result);
+                out.writeBoolean(state != null);
+                if( state != null )
+                    state.write(out);
+            }
+        }
+
+        void watch(long jobId, JobControl jobControl)
+        {
+            Watch watch = new Watch(jobId, jobControl, this);
+            if( watches.putIfAbsent(jobId, watch) == null )
+                jobControl.addListener(watch);
+        }
+
+        void unwatch(long jobId)
+        {
+            Watch watch = watches.remove(jobId);
+            if( watch != null )
+                watch.jobControl.removeListener(watch);
+        }
+
+        void push()
+        {
+            try
+            {
+                while( !closed )
+                {
+                    Thread.sleep(pushInterval);
+                    Watch watch = dirty.poll();
+                    if( watch == null )
+                        continue;
+                    synchronized( out )
+                    {
+                        for( ; watch != null; watch = dirty.poll() )
+                        {
+                            if( watches.get(watch.jobId) != watch )
+                                continue;
+                            out.writeByte(RemoteJobProtocol.OP_STATE);
+                            watch.capture().write(out);
+                        }
+                        out.flush();
+                    }
+                }
+            }
+            catch( InterruptedException | IOException e )
+            {
+                close();
+            }
+        }
+
+        void close()
+        {
+            if( closed )
+                return;
+            closed = true;
+            connections.remove(this);
+            for( Long jobId : watches.keySet() )
+                unwatch(jobId);
+            try
+            {
+                socket.close();
+            }
+            catch( IOException e )
+            {
+                log.log(Level.FINE, "Cannot close connection", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * Lightweight handle to the result data kept by {@link ResultStore}.
+ *
+ * Handles are passed to listeners instead of the data itself,
+ * the data is kept either in direct (off-heap) buffer or in memory-mapped temporary file.
+ *
+ * @see ResultStore
+ */
+public class ResultHandle
+{
+    private final String name;
+    private final long size;
+    private volatile ByteBuffer buffer;
+    private final File file;
+    private final ResultStore store;
+    /** set when the data may be referenced outside of the handle, by a view or by a listener */
+    private volatile boolean handedOut = false;
+
+    ResultHandle(ResultStore store, String name, ByteBuffer buffer)
+    {
+        this(store, name, buffer, null);
+    }
+
+    ResultHandle(ResultStore store, String name, ByteBuffer buffer, File file)
+    {
+        this.store = store;
+        this.name = name;
+        this.buffer = buffer;
+        this.size = buffer.capacity();
+        this.file = file;
+    }
+
+    /**
+     * Returns name of the result.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns size of the result data in bytes.
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns true if result data was spilled to memory-mapped temporary file.
+     */
+    public boolean isMapped()
+    {
+        return file != null;
+    }
+
+    /**
+     * Returns true if result data was already released.
+     */
+    public boolean isReleased()
+    {
+        return buffer == null;
+    }
+
+    /**
+     * Returns read-only view of the result data.
+     *
+     * Data is not copied, every call returns new view with independent position and limit.
+     *
+     * @return read-only buffer positioned at the beginning of the data
+     * @exception IllegalStateException if handle was already released
+     */
+    public ByteBuffer getBuffer()
+    {
+        ByteBuffer buffer = this.buffer;
+        if( buffer == null )
+            throw new IllegalStateException("Result " + name + " is already released");
+        handedOut = true;
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Marks the handle as delivered to listeners, which may keep views of its data.
+     */
+    void handOut()
+    {
+        handedOut = true;
+    }
+
+    /**
+     * Releases result data: direct buffer is freed or temporary file is unmapped and deleted.
+     *
+     * Memory is freed immediately only if no view of the data was handed out by {@link #getBuffer()}
+     * and the handle was not delivered to listeners. Otherwise the handle just drops the data,
+     * and memory is freed by the garbage collector when the last view becomes unreachable,
+     * so views obtained before this call stay valid.
+     */
+    public void release()
+    {
+        ByteBuffer buffer;
+        synchronized( this )
+        {
+            buffer = this.buffer;
+            if( buffer == null )
+                return;
+            this.buffer = null;
+        }
+
+        if( !handedOut )
+            MemoryAccess.free(buffer);
+        // mapping stays valid after the file is deleted
+        if( file != null && !file.delete() )
+            file.deleteOnExit();
+        store.released(this);
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " (" + size + " bytes" + ( isMapped() ? ", mapped" : "" ) + ")";
+    }
+}
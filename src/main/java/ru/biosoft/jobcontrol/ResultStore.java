@@ -0,0 +1,177 @@
+package ru.biosoft.jobcontrol;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage for large job results kept outside of Java heap.
+ *
+ * Results are copied into direct buffers while total amount of off-heap data is below the limit,
+ * larger results are spilled to memory-mapped temporary files.
+ * Store returns {@link ResultHandle} objects which can be passed to
+ * {@link AbstractJobControl#resultsAreReady(Object[])} instead of the data.
+ *
+ * Results can be released one by one by {@link ResultHandle#release()} or all together by {@link #release()},
+ * which is called when the job is disposed or terminated.
+ * Data which may still be referenced by views or listeners is left to the garbage collector.
+ *
+ * @see AbstractJobControl#getResultStore()
+ */
+public class ResultStore
+{
+    /** Default amount of off-heap memory after which results are spilled to disk: 64Mb */
+    public static final long DEFAULT_OFF_HEAP_LIMIT = 64L * 1024 * 1024;
+
+    private final long offHeapLimit;
+    private final File tempDirectory;
+
+    private final List<ResultHandle> handles = new ArrayList<>();
+    private long offHeapBytes = 0;
+    private long mappedBytes = 0;
+
+    /**
+     * Constructs ResultStore with default off-heap limit and system temporary directory.
+     */
+    public ResultStore()
+    {
+        this(DEFAULT_OFF_HEAP_LIMIT, null);
+    }
+
+    /**
+     * Constructs ResultStore.
+     *
+     * @param offHeapLimit amount of off-heap memory in bytes after which results are spilled to disk
+     * @param tempDirectory directory for temporary files or <code>null</code> for system default
+     */
+    public ResultStore(long offHeapLimit, File tempDirectory)
+    {
+        this.offHeapLimit = offHeapLimit;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Stores result data.
+     *
+     * @param name name of the result
+     * @param data data to store, remaining bytes are consumed
+     * @return handle to stored data
+     * @exception IOException if temporary file cannot be created
+     */
+    public ResultHandle store(String name, ByteBuffer data) throws IOException
+    {
+        int size = data.remaining();
+        boolean offHeap;
+        synchronized( this )
+        {
+            offHeap = offHeapBytes + size <= offHeapLimit;
+            if( offHeap )
+                offHeapBytes += size;
+        }
+
+        ResultHandle handle;
+        if( offHeap )
+        {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+            buffer.put(data);
+            buffer.flip();
+            handle = new ResultHandle(this, name, buffer);
+        }
+        else
+        {
+            handle = spill(name, data);
+        }
+
+        synchronized( this )
+        {
+            if( !offHeap )
+                mappedBytes += size;
+            handles.add(handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Stores result data.
+     *
+     * @param name name of the result
+     * @param data data to store
+     * @return handle to stored data
+     * @exception IOException if temporary file cannot be created
+     */
+    public ResultHandle store(String name, byte[] data) throws IOException
+    {
+        return store(name, ByteBuffer.wrap(data));
+    }
+
+    private ResultHandle spill(String name, ByteBuffer data) throws IOException
+    {
+        File file = File.createTempFile("jobresult", ".tmp", tempDirectory);
+        file.deleteOnExit();
+        try( RandomAccessFile raf = new RandomAccessFile(file, "rw") )
+        {
+            FileChannel channel = raf.getChannel();
+            long size = data.remaining();
+            while( data.hasRemaining() )
+                channel.write(data);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            // mapping remains valid after the channel is closed
+            return new ResultHandle(this, name, buffer, file);
+        }
+        catch( IOException | RuntimeException e )
+        {
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns handles of all results stored so far.
+     */
+    public synchronized ResultHandle[] getHandles()
+    {
+        return handles.toArray(new ResultHandle[handles.size()]);
+    }
+
+    /**
+     * Returns amount of result data kept in direct buffers.
+     */
+    public synchronized long getOffHeapBytes()
+    {
+        return offHeapBytes;
+    }
+
+    /**
+     * Returns amount of result data spilled to temporary files.
+     */
+    public synchronized long getMappedBytes()
+    {
+        return mappedBytes;
+    }
+
+    /**
+     * Releases all stored results.
+     */
+    public void release()
+    {
+        for( ResultHandle handle : getHandles() )
+            handle.release();
+    }
+
+    /**
+     * Called by the handle after it drops its data.
+     */
+    synchronized void released(ResultHandle handle)
+    {
+        if( !handles.remove(handle) )
+            return;
+        if( handle.isMapped() )
+            mappedBytes -= handle.getSize();
+        else
+            offHeapBytes -= handle.getSize();
+    }
+}
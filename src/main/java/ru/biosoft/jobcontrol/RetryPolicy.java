@@ -0,0 +1,189 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Policy of re-running jobs terminated by error.
+ *
+ * When the job with the policy ends with {@link JobControl#TERMINATED_BY_ERROR} and the condition accepts its exception,
+ * the job is run again after exponential backoff delay with random jitter. Delays are counted by shared {@link HashedTimingWheel},
+ * then the job is run by the policy executor, so no thread waits for the retry.
+ * Attempt number and delay before the next attempt are available from {@link JobControlEvent#getAttempt()}
+ * and {@link JobControlEvent#getRetryDelay()}.
+ *
+ * Retry calls {@link JobControl#run()}, so the policy is useful for jobs doing their work in <code>doRun()</code>:
+ * <pre>
+ * job.setRetryPolicy(RetryPolicy.exponential(5, 1, TimeUnit.SECONDS).retryOn(RetryPolicy.causedBy(IOException.class)));
+ * </pre>
+ * Policy can be shared by several jobs.
+ *
+ * Retries are not managed by {@link JobAdmissionController}, {@link PriorityJobScheduler} or {@link SingleFlightJobExecutor}
+ * even if the first attempt was submitted to them: the submitter considers the job finished after the failed attempt,
+ * and the retry runs outside of its limits. Use {@link #setExecutor(Executor)} to bound number of concurrent retries.
+ *
+ * @see AbstractJobControl#setRetryPolicy(RetryPolicy)
+ */
+public class RetryPolicy
+{
+    /** Default ratio of subsequent delays */
+    public static final double DEFAULT_MULTIPLIER = 2;
+
+    /** Default maximal share of the delay randomly subtracted from it */
+    public static final double DEFAULT_JITTER = 0.2;
+
+    /** Default maximal delay in milliseconds */
+    public static final long DEFAULT_MAX_DELAY = TimeUnit.MINUTES.toMillis(10);
+
+    private static class DefaultExecutorHolder
+    {
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(new DaemonThreadFactory("JobControl retry"));
+    }
+
+    private final int maxAttempts;
+    private final long initialDelay;
+    private double multiplier = DEFAULT_MULTIPLIER;
+    private double jitter = DEFAULT_JITTER;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private Predicate<JobControlException> condition;
+    private Executor executor;
+
+    private RetryPolicy(int maxAttempts, long initialDelay)
+    {
+        if( maxAttempts < 1 )
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = Math.max(initialDelay, 0);
+    }
+
+    /**
+     * Creates policy with exponential backoff retrying on any error.
+     *
+     * @param maxAttempts maximal number of attempts including the first run
+     * @param initialDelay delay before the second attempt
+     * @param unit unit of the delay
+     */
+    public static RetryPolicy exponential(int maxAttempts, long initialDelay, TimeUnit unit)
+    {
+        return new RetryPolicy(maxAttempts, unit.toMillis(initialDelay));
+    }
+
+    /**
+     * Creates condition accepting exceptions caused by the errors of specified classes,
+     * the whole cause chain of {@link JobControlException#getError()} is checked.
+     * Jobs terminated without exception are not accepted.
+     *
+     * @param errorClasses classes of transient errors
+     */
+    @SafeVarargs
+    public static Predicate<JobControlException> causedBy(final Class<? extends Throwable> ... errorClasses)
+    {
+        return new Predicate<JobControlException>()
+        {
+            @Override
+            public boolean test(JobControlException ex)
+            {
+                if( ex == null )
+                    return false;
+                for( Throwable t = ex.getError(); t != null; t = t.getCause() == t ? null : t.getCause() )
+                {
+                    for( Class<? extends Throwable> errorClass : errorClasses )
+                    {
+                        if( errorClass.isInstance(t) )
+                            return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Sets condition of the retry. Exception is <code>null</code> if the job was terminated without it.
+     *
+     * @return this policy
+     */
+    public RetryPolicy retryOn(Predicate<JobControlException> condition)
+    {
+        this.condition = condition;
+        return this;
+    }
+
+    /**
+     * Sets ratio of subsequent delays.
+     *
+     * @return this policy
+     */
+    public RetryPolicy setMultiplier(double multiplier)
+    {
+        this.multiplier = Math.max(multiplier, 1);
+        return this;
+    }
+
+    /**
+     * Sets maximal share of the delay randomly subtracted from it, from 0 to 1.
+     * Jitter spreads retries of jobs failed at the same time.
+     *
+     * @return this policy
+     */
+    public RetryPolicy setJitter(double jitter)
+    {
+        this.jitter = Math.min(Math.max(jitter, 0), 1);
+        return this;
+    }
+
+    /**
+     * Sets maximal delay between attempts.
+     *
+     * @return this policy
+     */
+    public RetryPolicy setMaxDelay(long maxDelay, TimeUnit unit)
+    {
+        this.maxDelay = unit.toMillis(maxDelay);
+        return this;
+    }
+
+    /**
+     * Sets executor running retries, by default shared pool of daemon threads is used.
+     *
+     * @return this policy
+     */
+    public RetryPolicy setExecutor(Executor executor)
+    {
+        this.executor = executor;
+        return this;
+    }
+
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    Executor getExecutor()
+    {
+        return executor == null ? DefaultExecutorHolder.INSTANCE : executor;
+    }
+
+    /**
+     * Returns delay before the next attempt or -1 if the job should not be retried.
+     *
+     * @param attempt number of the failed attempt starting from 1
+     * @param ex exception the attempt was terminated with or <code>null</code>
+     * @return delay in milliseconds or -1
+     */
+    public long getDelay(int attempt, JobControlException ex)
+    {
+        if( attempt >= maxAttempts )
+            return -1;
+        if( condition != null && !condition.test(ex) )
+            return -1;
+        double delay = Math.min(initialDelay * Math.pow(multiplier, attempt - 1), maxDelay);
+        if( jitter > 0 )
+            delay -= delay * jitter * ThreadLocalRandom.current().nextDouble();
+        return (long)delay;
+    }
+}
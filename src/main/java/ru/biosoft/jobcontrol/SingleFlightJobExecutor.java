@@ -0,0 +1,432 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs jobs deduplicating ones with equal {@link AbstractJobControl#getContentKey() content keys}.
+ *
+ * If the job with the same key is already running, submitted job is not started: listener is added to the running job
+ * and returned {@link Flight} completes together with it. Listener joined to the job which has just terminated
+ * still receives <code>jobTerminated</code> exactly once. Results of completed jobs are kept in the cache bounded by
+ * number of entries and time to live, submissions with cached keys complete immediately.
+ * Jobs without content key are always run. Terminating the shared job cancels it for all submissions joined to it.
+ *
+ * Jobs are run by {@link JobControl#run()}, so they should do their work in <code>doRun()</code>.
+ * Results are the objects passed to {@link AbstractJobControl#resultsAreReady(Object[])} or empty array.
+ *
+ * <pre>
+ * analysis.setContentKey(Arrays.asList("blast", database, query));
+ * executor.submit(analysis, listener).getResult().thenAccept(...);
+ * </pre>
+ */
+public class SingleFlightJobExecutor
+{
+    /** Default maximal number of cached results */
+    public static final int DEFAULT_CACHE_SIZE = 100;
+
+    /** Default time to live of cached results in milliseconds */
+    public static final long DEFAULT_CACHE_TTL = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Object[] NO_RESULTS = new Object[0];
+
+    /**
+     * Submission of the job.
+     */
+    public static class Flight
+    {
+        private final JobControl jobControl;
+        private final CompletableFuture<Object[]> result;
+        private final boolean shared;
+        private final boolean cached;
+
+        Flight(JobControl jobControl, CompletableFuture<Object[]> result, boolean shared, boolean cached)
+        {
+            this.jobControl = jobControl;
+            this.result = result;
+            this.shared = shared;
+            this.cached = cached;
+        }
+
+        /**
+         * Returns job which computes the results: submitted one or the job with the same key which was already running.
+         * Returns <code>null</code> if results were taken from the cache.
+         *
+         * The job is shared by all joined submissions, so {@link JobControl#terminate()} cancels it for every one of them.
+         */
+        public JobControl getJobControl()
+        {
+            return jobControl;
+        }
+
+        /**
+         * Returns results of the job. Stage is completed exceptionally with {@link JobControlException}
+         * if the job was terminated.
+         */
+        public CompletionStage<Object[]> getResult()
+        {
+            return result;
+        }
+
+        /**
+         * Returns true if the submission is attached to the job started by another submission.
+         */
+        public boolean isShared()
+        {
+            return shared;
+        }
+
+        /**
+         * Returns true if results were taken from the cache.
+         */
+        public boolean isCached()
+        {
+            return cached;
+        }
+    }
+
+    private static class CacheEntry
+    {
+        final Object[] results;
+        final long expires;
+
+        CacheEntry(Object[] results, long expires)
+        {
+            this.results = results;
+            this.expires = expires;
+        }
+    }
+
+    private static class ResultsListener extends JobControlListenerAdapter
+    {
+        volatile Object[] results;
+        volatile JobControlException exception;
+
+        @Override
+        public void resultsReady(JobControlEvent event)
+        {
+            results = event.getResults();
+        }
+
+        @Override
+        public void jobTerminated(JobControlEvent event)
+        {
+            if( event.getException() != null )
+                exception = event.getException();
+        }
+    }
+
+    /**
+     * Listener of the submission joined to the running job. The job may terminate before the listener is added,
+     * so termination is also delivered when the flight completes, whichever comes first.
+     * Listener removes itself from the job on termination.
+     */
+    private static class JoinedListener implements MaskedJobControlListener, BiConsumer<Object[], Throwable>
+    {
+        final JobControl jobControl;
+        final JobControlListener listener;
+        final int mask;
+        final AtomicBoolean terminated = new AtomicBoolean();
+
+        JoinedListener(JobControl jobControl, JobControlListener listener)
+        {
+            this.jobControl = jobControl;
+            this.listener = listener;
+            this.mask = listener instanceof MaskedJobControlListener ? ( (MaskedJobControlListener)listener ).getEventMask()
+                    : JobControlEvent.ALL_EVENTS;
+        }
+
+        /**
+         * Termination is always listened to remove the listener.
+         */
+        @Override
+        public int getEventMask()
+        {
+            return mask | JobControlEvent.JOB_TERMINATED;
+        }
+
+        @Override
+        public void valueChanged(JobControlEvent event)
+        {
+            listener.valueChanged(event);
+        }
+
+        @Override
+        public void jobStarted(JobControlEvent event)
+        {
+            listener.jobStarted(event);
+        }
+
+        @Override
+        public void jobTerminated(JobControlEvent event)
+        {
+            jobControl.removeListener(this);
+            if( terminated.compareAndSet(false, true) && ( mask & JobControlEvent.JOB_TERMINATED ) != 0 )
+                listener.jobTerminated(event);
+        }
+
+        @Override
+        public void jobPaused(JobControlEvent event)
+        {
+            listener.jobPaused(event);
+        }
+
+        @Override
+        public void jobResumed(JobControlEvent event)
+        {
+            listener.jobResumed(event);
+        }
+
+        @Override
+        public void resultsReady(JobControlEvent event)
+        {
+            listener.resultsReady(event);
+        }
+
+        @Override
+        public void accept(Object[] results, Throwable error)
+        {
+            if( error == null )
+                jobTerminated(new JobControlEvent(jobControl));
+            else
+                jobTerminated(new JobControlEvent(jobControl, error instanceof JobControlException ? (JobControlException)error
+                        : new JobControlException(error)));
+        }
+    }
+
+    private final Executor executor;
+    private final Map<Object, Flight> running = new ConcurrentHashMap<>();
+    private final LinkedHashMap<Object, CacheEntry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+    private long cacheTtl = DEFAULT_CACHE_TTL;
+    private long sharedCount;
+    private long cachedCount;
+
+    /**
+     * Constructs executor running jobs in its own daemon threads.
+     */
+    public SingleFlightJobExecutor()
+    {
+        this(Executors.newCachedThreadPool(new DaemonThreadFactory("JobControl single flight")));
+    }
+
+    /**
+     * Constructs executor running jobs using specified executor.
+     *
+     * @param executor executor which runs jobs
+     */
+    public SingleFlightJobExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets bounds of the result cache. Zero size disables caching.
+     * Time to live is applied to results cached after this call.
+     *
+     * @param size maximal number of cached results
+     * @param ttl time to live of cached results
+     * @param unit unit of time to live
+     */
+    public synchronized void setCacheLimits(int size, long ttl, TimeUnit unit)
+    {
+        this.cacheSize = Math.max(size, 0);
+        this.cacheTtl = unit.toMillis(ttl);
+        evict(System.currentTimeMillis());
+    }
+
+    /**
+     * Submits the job.
+     *
+     * @param jobControl job to run
+     * @return submission
+     */
+    public Flight submit(AbstractJobControl jobControl)
+    {
+        return submit(jobControl, null);
+    }
+
+    /**
+     * Submits the job adding listener to the job which actually computes the results.
+     *
+     * @param jobControl job to run
+     * @param listener listener or <code>null</code>
+     * @return submission
+     */
+    public Flight submit(AbstractJobControl jobControl, JobControlListener listener)
+    {
+        Object key = jobControl.getContentKey();
+        if( key == null )
+            return start(null, jobControl, listener);
+        Object[] results = getCached(key);
+        if( results != null )
+            return new Flight(null, CompletableFuture.completedFuture(results), false, true);
+        while( true )
+        {
+            Flight flight = running.get(key);
+            if( flight == null )
+            {
+                flight = new Flight(jobControl, new CompletableFuture<Object[]>(), false, false);
+                if( running.putIfAbsent(key, flight) != null )
+                    continue;
+                return start(key, jobControl, listener, flight);
+            }
+            synchronized( this )
+            {
+                sharedCount++;
+            }
+            if( listener != null )
+            {
+                JoinedListener joined = new JoinedListener(flight.jobControl, listener);
+                flight.jobControl.addListener(joined);
+                flight.result.whenComplete(joined);
+            }
+            return new Flight(flight.jobControl, flight.result, true, false);
+        }
+    }
+
+    private Flight start(Object key, AbstractJobControl jobControl, JobControlListener listener)
+    {
+        return start(key, jobControl, listener, new Flight(jobControl, new CompletableFuture<Object[]>(), false, false));
+    }
+
+    private Flight start(final Object key, final AbstractJobControl jobControl, JobControlListener listener, final Flight flight)
+    {
+        final ResultsListener resultsListener = new ResultsListener();
+        jobControl.addListener(resultsListener);
+        jobControl.addListener(listener);
+        Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    jobControl.run();
+                }
+                finally
+                {
+                    jobControl.removeListener(resultsListener);
+                    finished(key, jobControl, flight, resultsListener);
+                }
+            }
+        };
+        try
+        {
+            executor.execute(task);
+        }
+        catch( RejectedExecutionException e )
+        {
+            jobControl.removeListener(resultsListener);
+            jobControl.removeListener(listener);
+            if( key != null )
+                running.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        return flight;
+    }
+
+    private void finished(Object key, AbstractJobControl jobControl, Flight flight, ResultsListener resultsListener)
+    {
+        int status = jobControl.getStatus();
+        if( status == JobControl.COMPLETED )
+        {
+            Object[] results = resultsListener.results;
+            if( results == null )
+                results = NO_RESULTS;
+            if( key != null )
+                putCached(key, results);
+            flight.result.complete(results);
+        }
+        else
+        {
+            JobControlException ex = resultsListener.exception;
+            if( ex == null )
+                ex = new JobControlException(status, "Job " + jobControl.getTextStatus().toLowerCase());
+            flight.result.completeExceptionally(ex);
+        }
+        if( key != null )
+            running.remove(key, flight);
+    }
+
+    private synchronized Object[] getCached(Object key)
+    {
+        CacheEntry entry = cache.get(key);
+        if( entry == null )
+            return null;
+        if( entry.expires <= System.currentTimeMillis() )
+        {
+            cache.remove(key);
+            return null;
+        }
+        cachedCount++;
+        return entry.results;
+    }
+
+    private synchronized void putCached(Object key, Object[] results)
+    {
+        if( cacheSize == 0 )
+            return;
+        long now = System.currentTimeMillis();
+        cache.put(key, new CacheEntry(results, now + cacheTtl));
+        evict(now);
+    }
+
+    private void evict(long now)
+    {
+        Iterator<CacheEntry> it = cache.values().iterator();
+        int excess = cache.size() - cacheSize;
+        while( it.hasNext() )
+        {
+            CacheEntry entry = it.next();
+            if( excess > 0 || entry.expires <= now )
+            {
+                it.remove();
+                excess--;
+            }
+        }
+    }
+
+    /**
+     * Removes cached results of the key.
+     */
+    public synchronized void invalidate(Object key)
+    {
+        cache.remove(key);
+    }
+
+    /**
+     * Returns number of submissions attached to already running jobs.
+     */
+    public synchronized long getSharedCount()
+    {
+        return sharedCount;
+    }
+
+    /**
+     * Returns number of submissions served from the cache.
+     */
+    public synchronized long getCachedCount()
+    {
+        return cachedCount;
+    }
+
+    /**
+     * Returns number of running jobs with content keys.
+     */
+    public int getRunningCount()
+    {
+        return running.size();
+    }
+}
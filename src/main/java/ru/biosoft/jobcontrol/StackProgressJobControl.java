@@ -1,12 +1,23 @@
 package ru.biosoft.jobcontrol;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.Stack;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
  * Progress bar with stack which maps subprocesses progress to subranges of total process.
+ * 
+ * The stack belongs to the thread which runs the job. Other worker threads of the same job
+ * should obtain their own progress stack using {@link #fork(int, int)}.
  */
 public abstract class StackProgressJobControl extends ClassJobControl
 {
@@ -32,7 +43,324 @@ public abstract class StackProgressJobControl extends ClassJobControl
         }
     }
 
-    private Stack<Range> stack = new Stack<>();
+    /**
+     * Maps number of processed elements of the range to the current progress range.
+     * Preparedness is updated only when its integer value changes.
+     */
+    private class RangeProgress
+    {
+        private final Range range;
+        private final long size;
+        private long nextUpdate;
+
+        RangeProgress(long size)
+        {
+            this.range = stack.peek();
+            this.size = size;
+            this.nextUpdate = size == 0 ? Long.MAX_VALUE : 0;
+        }
+
+        /**
+         * @param done number of processed elements
+         */
+        void update(long done)
+        {
+            if( done < nextUpdate )
+                return;
+            int percent = (int)range.translateValue(100.0 * done / size);
+            StackProgressJobControl.super.setPreparedness(percent);
+            double width = range.to - range.from;
+            if( done >= size || width <= 0 )
+            {
+                nextUpdate = Long.MAX_VALUE;
+                return;
+            }
+            // first element count at which integer percent grows
+            long next = (long)Math.ceil( ( percent + 1 - range.from ) * size / width );
+            nextUpdate = Math.min(Math.max(next, done + 1), size);
+        }
+    }
+
+    /**
+     * Progress stack of the worker thread.
+     * 
+     * Fork is mapped to the subrange of the job progress and has its own stack,
+     * so it must be used by single thread only. Job preparedness combines progress of all forks
+     * which are not closed yet, thus forks running simultaneously should cover adjacent subranges.
+     * 
+     * @see StackProgressJobControl#fork(int, int)
+     */
+    public class ProgressFork
+    {
+        private final Range root;
+        /** shadow fork does not affect job progress */
+        private final boolean shadow;
+        private final Deque<Range> forkStack = new ArrayDeque<>();
+        private volatile double done = 0;
+        private volatile boolean closed = false;
+        private volatile boolean terminated = false;
+        private int percent = 0;
+
+        private ProgressFork(Range root, boolean shadow)
+        {
+            this.root = root;
+            this.shadow = shadow;
+            forkStack.push(root);
+        }
+
+        /**
+         * Pushes new progress range into the stack of this fork mapping it to the current range.
+         * 
+         * @param from lower bound of new range
+         * @param to upper bound of new range
+         */
+        public void pushProgress(int from, int to)
+        {
+            forkStack.push(forkStack.peek().getSubrange(from, to));
+        }
+
+        /**
+         * Pops progress range from the stack of this fork.
+         */
+        public void popProgress()
+        {
+            setPreparedness(100);
+            forkStack.pop();
+        }
+
+        /**
+         * Sets preparedness of the current range of this fork.
+         * 
+         * @param percent percent of preparedness
+         */
+        public void setPreparedness(int percent)
+        {
+            if( closed )
+                return;
+            double value = forkStack.peek().translateValue(percent) - root.from;
+            double width = root.to - root.from;
+            int forkPercent = width <= 0 ? 100 : (int) ( 100 * value / width );
+            if( forkPercent == this.percent )
+                return;
+            this.percent = forkPercent;
+            if( shadow )
+                return;
+            done = value;
+            updateForkedProgress();
+        }
+
+        /**
+         * Returns preparedness of this fork in percent.
+         */
+        public int getPreparedness()
+        {
+            return percent;
+        }
+
+        /**
+         * Returns the job this fork belongs to.
+         */
+        public StackProgressJobControl getJobControl()
+        {
+            return StackProgressJobControl.this;
+        }
+
+        /**
+         * Requests the worker using this fork to stop.
+         */
+        public void terminate()
+        {
+            terminated = true;
+        }
+
+        /**
+         * Returns true if the fork or the whole job was terminated.
+         */
+        public boolean isTerminated()
+        {
+            return terminated || getStatus() == TERMINATED_BY_REQUEST;
+        }
+
+        /**
+         * Tests status of the fork and the job. Waits while the job is paused.
+         * 
+         * @exception JobControlException with status {@link JobControl#TERMINATED_BY_REQUEST} if the fork or the job was terminated
+         */
+        public void checkStatus() throws JobControlException
+        {
+            if( isTerminated() )
+                throw new JobControlException(TERMINATED_BY_REQUEST);
+            StackProgressJobControl.this.checkStatus();
+        }
+
+        /**
+         * Marks the fork as completed. Should be called when worker finishes its part of job.
+         */
+        public void close()
+        {
+            if( closed )
+                return;
+            percent = 100;
+            done = root.to - root.from;
+            closed = true;
+            if( shadow )
+                return;
+            updateForkedProgress();
+            removeClosedForks();
+        }
+    }
+
+    /** Default time between status checks in chunked iteration, in milliseconds */
+    public static final long DEFAULT_CHUNK_TIME = 10;
+
+    /** Default share of finished partitions after which stragglers are launched again */
+    public static final double DEFAULT_SPECULATION_THRESHOLD = 0.75;
+
+    /**
+     * State of the partition processed by {@link StackProgressJobControl#forCollection(Collection, ParallelIteration, Executor, int, boolean)}.
+     * Guarded by the partition set monitor.
+     */
+    private static class Partition<T>
+    {
+        final List<T> elements;
+        final ProgressFork primary;
+        ProgressFork copy;
+        ProgressFork winner;
+
+        Partition(List<T> elements, ProgressFork primary)
+        {
+            this.elements = elements;
+            this.primary = primary;
+        }
+    }
+
+    /**
+     * Partitions of one parallel iteration with their completion state.
+     */
+    private class PartitionSet<T>
+    {
+        final List<Partition<T>> partitions = new ArrayList<>();
+        final ParallelIteration<T> iteration;
+        int active;
+        int finished;
+        boolean stopped;
+        Throwable error;
+
+        PartitionSet(ParallelIteration<T> iteration)
+        {
+            this.iteration = iteration;
+        }
+
+        void launch(final Executor executor, final Partition<T> partition, final ProgressFork fork)
+        {
+            active++;
+            try
+            {
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        process(partition, fork);
+                    }
+                });
+            }
+            catch( RuntimeException e )
+            {
+                active--;
+                fail(e);
+            }
+        }
+
+        void process(Partition<T> partition, ProgressFork fork)
+        {
+            boolean completed = false;
+            Throwable failure = null;
+            boolean broken = false;
+            try
+            {
+                List<T> elements = partition.elements;
+                int size = elements.size();
+                int i = 0;
+                for( ; i < size; i++ )
+                {
+                    if( fork.isTerminated() )
+                        break;
+                    if( !iteration.run(elements.get(i), fork) )
+                    {
+                        broken = true;
+                        break;
+                    }
+                    fork.setPreparedness((int) ( 100L * ( i + 1 ) / size ));
+                }
+                completed = i == size;
+            }
+            catch( JobControlException e )
+            {
+                if( !fork.isTerminated() )
+                    failure = e;
+            }
+            catch( Throwable t )
+            {
+                failure = t;
+            }
+            synchronized( this )
+            {
+                active--;
+                if( failure != null )
+                {
+                    fail(failure);
+                }
+                else if( broken )
+                {
+                    stop();
+                }
+                else if( completed && partition.winner == null )
+                {
+                    partition.winner = fork;
+                    finished++;
+                    if( fork == partition.primary )
+                    {
+                        if( partition.copy != null )
+                            partition.copy.terminate();
+                    }
+                    else
+                    {
+                        speculativeWins.incrementAndGet();
+                        partition.primary.terminate();
+                    }
+                    partition.primary.close();
+                }
+                notifyAll();
+            }
+        }
+
+        void fail(Throwable t)
+        {
+            if( error == null )
+                error = t;
+            stop();
+        }
+
+        void stop()
+        {
+            stopped = true;
+            for( Partition<T> partition : partitions )
+            {
+                partition.primary.terminate();
+                if( partition.copy != null )
+                    partition.copy.terminate();
+            }
+        }
+    }
+
+    private Deque<Range> stack = new ArrayDeque<>();
+    private final List<ProgressFork> forks = new CopyOnWriteArrayList<>();
+    /** number of fork updates not published yet */
+    private final AtomicInteger forkUpdates = new AtomicInteger();
+    private final AtomicLong speculativeLaunches = new AtomicLong();
+    private final AtomicLong speculativeWins = new AtomicLong();
+    private volatile double speculationThreshold = DEFAULT_SPECULATION_THRESHOLD;
     
     public StackProgressJobControl(Logger log)
     {
@@ -40,6 +368,64 @@ public abstract class StackProgressJobControl extends ClassJobControl
         stack.push(new Range(0,100));
     }
 
+    /**
+     * Creates progress stack for the worker thread mapping it to the current range.
+     * 
+     * Don't forget to call {@link ProgressFork#close()} after worker will finish.
+     * 
+     * @param from lower bound of worker range
+     * @param to upper bound of worker range
+     * @return progress handle to be used by the worker thread
+     */
+    public ProgressFork fork(int from, int to)
+    {
+        ProgressFork fork = new ProgressFork(stack.peek().getSubrange(from, to), false);
+        forks.add(fork);
+        return fork;
+    }
+
+    /**
+     * Publishes combined progress of the forks. Forks are updated by different threads without locks:
+     * the thread which finds no update in progress sums the fork values and publishes the sum,
+     * repeating it while other forks report updates, the others just count their update and return.
+     * So sums are published one after another and preparedness never goes back.
+     */
+    private void updateForkedProgress()
+    {
+        if( forkUpdates.getAndIncrement() != 0 )
+            return;
+        int missed = 1;
+        do
+        {
+            double from = Double.MAX_VALUE;
+            double done = 0;
+            for( ProgressFork fork : forks )
+            {
+                from = Math.min(from, fork.root.from);
+                done += fork.done;
+            }
+            if( from != Double.MAX_VALUE )
+                super.setPreparedness((int) ( from + done ));
+            missed = forkUpdates.addAndGet(-missed);
+        }
+        while( missed != 0 );
+    }
+
+    /**
+     * Removes leading closed forks. Concurrent calls may remove the same forks, which is harmless.
+     */
+    private void removeClosedForks()
+    {
+        List<ProgressFork> closed = new ArrayList<>();
+        for( ProgressFork fork : forks )
+        {
+            if( !fork.closed )
+                break;
+            closed.add(fork);
+        }
+        forks.removeAll(closed);
+    }
+
     /**
      * Pushes new progress range into stack mapping it to the current range.
      * 
@@ -104,9 +490,245 @@ public abstract class StackProgressJobControl extends ClassJobControl
         return true;
     }
     
+    /**
+     * Iterates over list passing contiguous chunks to iteration.
+     * 
+     * Chunk size is adapted so that each chunk takes about {@link #DEFAULT_CHUNK_TIME} milliseconds,
+     * status check and progress update are done once per chunk.
+     * 
+     * @see #forChunks(List, long, TimeUnit, ChunkIteration)
+     * @param list list to iterate over, should support fast random access
+     * @param iteration handler to handle each chunk
+     * @return true if was finished, false if break was done (either by user or by iteration)
+     */
+    public <T> boolean forChunks(List<T> list, ChunkIteration<T> iteration)
+    {
+        return forChunks(list, DEFAULT_CHUNK_TIME, TimeUnit.MILLISECONDS, iteration);
+    }
+
+    /**
+     * Iterates over list passing contiguous chunks to iteration.
+     * 
+     * Chunks are {@link List#subList(int, int) views} of the list. The first chunk has one element,
+     * then chunk size is adapted to the measured time of previous chunks, so that status checks and progress updates
+     * are done at the target interval whatever the cost of the element is. Size is at most doubled or halved per chunk
+     * to smooth out variations of element costs. Between chunks the job status is checked, so the iteration
+     * waits while the job is paused and stops when it is terminated.
+     * 
+     * @param list list to iterate over, should support fast random access
+     * @param chunkTime target time of one chunk
+     * @param unit unit of chunk time
+     * @param iteration handler to handle each chunk
+     * @return true if was finished, false if break was done (either by user or by iteration)
+     */
+    public <T> boolean forChunks(List<T> list, long chunkTime, TimeUnit unit, ChunkIteration<T> iteration)
+    {
+        long target = Math.max(unit.toNanos(chunkTime), 1);
+        int size = list.size();
+        RangeProgress progress = new RangeProgress(size);
+        progress.update(0);
+        int chunk = 1;
+        for( int from = 0; from < size; )
+        {
+            int to = (int)Math.min((long)from + chunk, size);
+            long start = System.nanoTime();
+            if( !iteration.run(list.subList(from, to)) )
+                return false;
+            long elapsed = System.nanoTime() - start;
+            from = to;
+            progress.update(from);
+            try
+            {
+                checkStatus();
+            }
+            catch( JobControlException e )
+            {
+                return false;
+            }
+            if( elapsed <= target / 2 )
+                chunk = (int)Math.min((long)chunk * 2, Integer.MAX_VALUE);
+            else if( elapsed < target * 2 )
+                chunk = Math.max((int) ( chunk * (double)target / elapsed ), 1);
+            else
+                chunk = Math.max(chunk / 2, 1);
+        }
+        return true;
+    }
+
+    /**
+     * Iterates over collection in parallel.
+     * 
+     * Collection is split into contiguous partitions, each partition is processed by the executor
+     * using its own {@link ProgressFork} mapped to the subrange of the current progress range.
+     * 
+     * In speculative mode, when the share of finished partitions reaches {@link #setSpeculationThreshold(double) threshold},
+     * each unfinished partition is launched once again. The copy which finishes first wins,
+     * the other one is terminated via its fork, so iteration should check {@link ProgressFork#checkStatus()}
+     * in long operations. Since elements of straggler partitions may be processed twice,
+     * iteration must be idempotent in speculative mode.
+     * 
+     * @param collection collection to iterate over
+     * @param iteration handler to handle each element
+     * @param executor executor running partitions, should have enough threads for speculative copies
+     * @param partitionCount number of partitions
+     * @param speculative true to launch copies of straggler partitions
+     * @return true if was finished, false if break was done (either by user or by iteration)
+     * @exception JobControlException if iteration failed
+     */
+    public <T> boolean forCollection(Collection<T> collection, ParallelIteration<T> iteration, Executor executor, int partitionCount,
+            boolean speculative) throws JobControlException
+    {
+        List<T> elements = new ArrayList<>(collection);
+        int size = elements.size();
+        int count = Math.max(Math.min(partitionCount, size), 1);
+        PartitionSet<T> set = new PartitionSet<>(iteration);
+        for( int p = 0; p < count; p++ )
+        {
+            int from = (int) ( (long)size * p / count );
+            int to = (int) ( (long)size * ( p + 1 ) / count );
+            set.partitions.add(new Partition<>(elements.subList(from, to), fork((int) ( 100L * from / Math.max(size, 1) ),
+                    (int) ( 100L * to / Math.max(size, 1) ))));
+        }
+        synchronized( set )
+        {
+            for( Partition<T> partition : set.partitions )
+                set.launch(executor, partition, partition.primary);
+            boolean speculated = !speculative;
+            while( set.active > 0 )
+            {
+                if( getStatus() == TERMINATED_BY_REQUEST && !set.stopped )
+                    set.stop();
+                if( !speculated && !set.stopped && set.finished >= speculationThreshold * count && set.finished < count )
+                {
+                    speculated = true;
+                    for( Partition<T> partition : set.partitions )
+                    {
+                        if( partition.winner != null )
+                            continue;
+                        partition.copy = new ProgressFork(partition.primary.root, true);
+                        speculativeLaunches.incrementAndGet();
+                        set.launch(executor, partition, partition.copy);
+                    }
+                }
+                try
+                {
+                    set.wait(100);
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    set.stop();
+                    break;
+                }
+            }
+            for( Partition<T> partition : set.partitions )
+                partition.primary.close();
+        }
+        if( set.error instanceof JobControlException )
+            throw (JobControlException)set.error;
+        if( set.error != null )
+            throw new JobControlException(set.error);
+        return !set.stopped && getStatus() != TERMINATED_BY_REQUEST;
+    }
+
+    /**
+     * Sets share of finished partitions after which speculative copies of unfinished ones are launched.
+     * 
+     * @param threshold share from 0 to 1
+     */
+    public void setSpeculationThreshold(double threshold)
+    {
+        this.speculationThreshold = threshold;
+    }
+
+    /**
+     * Returns number of speculative copies of partitions launched by this job.
+     */
+    public long getSpeculativeLaunchCount()
+    {
+        return speculativeLaunches.get();
+    }
+
+    /**
+     * Returns number of speculative copies which finished before the original partition.
+     */
+    public long getSpeculativeWinCount()
+    {
+        return speculativeWins.get();
+    }
+
+    /**
+     * Iterates over range of integer indices calling iteration.
+     * 
+     * Progress is calculated from the index and updated only when its integer value changes.
+     * Unlike {@link #forCollection(Collection, Iteration)} no progress subrange is pushed
+     * for each element, so no allocation is done per iteration.
+     * 
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param iteration handler to handle each iteration
+     * @return true if was finished, false if break was done (either by user or by iteration)
+     */
+    public boolean forRange(int from, int to, IntIteration iteration)
+    {
+        RangeProgress progress = new RangeProgress(Math.max((long)to - from, 0));
+        progress.update(0);
+        for( int i = from; i < to; i++ )
+        {
+            if( !iteration.run(i) )
+                return false;
+            progress.update((long)i - from + 1);
+            if(getStatus() == TERMINATED_BY_REQUEST) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Iterates over range of long indices calling iteration.
+     * 
+     * @see #forRange(int, int, IntIteration)
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param iteration handler to handle each iteration
+     * @return true if was finished, false if break was done (either by user or by iteration)
+     */
+    public boolean forLongRange(long from, long to, LongIteration iteration)
+    {
+        RangeProgress progress = new RangeProgress(Math.max(to - from, 0));
+        progress.update(0);
+        for( long i = from; i < to; i++ )
+        {
+            if( !iteration.run(i) )
+                return false;
+            progress.update(i - from + 1);
+            if(getStatus() == TERMINATED_BY_REQUEST) return false;
+        }
+        return true;
+    }
+
     @Override
     public void setPreparedness(int percent)
     {
         super.setPreparedness((int)stack.peek().translateValue(percent));
     }
+
+    /**
+     * Returns bounds of the current progress range, so its progress can be reported by other threads
+     * by {@link #setJobPreparedness(int)} without touching the stack.
+     * 
+     * @return array of lower and upper bound in percents of the whole job
+     */
+    double[] getCurrentRange()
+    {
+        Range range = stack.peek();
+        return new double[] {range.from, range.to};
+    }
+
+    /**
+     * Sets preparedness of the whole job bypassing the progress stack.
+     */
+    void setJobPreparedness(int percent)
+    {
+        super.setPreparedness(percent);
+    }
 }
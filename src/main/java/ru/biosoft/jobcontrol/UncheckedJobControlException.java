@@ -0,0 +1,28 @@
+package ru.biosoft.jobcontrol;
+
+/**
+ * Wraps {@link JobControlException} into unchecked exception, so it can be thrown from the code which cannot throw
+ * checked exceptions, like {@link java.util.Spliterator} or stream operations.
+ */
+@SuppressWarnings ( "serial" )
+public class UncheckedJobControlException extends RuntimeException
+{
+    /**
+     * Constructs exception wrapping the cause.
+     *
+     * @param cause job control exception
+     */
+    public UncheckedJobControlException(JobControlException cause)
+    {
+        super(cause.getMessage(), cause);
+    }
+
+    /**
+     * Returns wrapped job control exception.
+     */
+    @Override
+    public synchronized JobControlException getCause()
+    {
+        return (JobControlException)super.getCause();
+    }
+}
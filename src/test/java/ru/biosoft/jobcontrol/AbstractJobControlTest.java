@@ -0,0 +1,101 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+public class AbstractJobControlTest
+{
+    private static class SleepingJob extends ClassJobControl
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+
+        SleepingJob()
+        {
+            super(null);
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            started.countDown();
+            try
+            {
+                Thread.sleep(10000);
+            }
+            catch( InterruptedException e )
+            {
+                checkStatus();
+                throw new JobControlException(e);
+            }
+        }
+    }
+
+    @Test
+    public void terminateInterruptsBlockedJob() throws InterruptedException
+    {
+        final SleepingJob job = new SleepingJob();
+        job.setInterruptOnTerminate(true);
+        final boolean[] interruptedAfterRun = new boolean[1];
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                job.run();
+                interruptedAfterRun[0] = Thread.currentThread().isInterrupted();
+            }
+        };
+        thread.start();
+        assertTrue(job.started.await(5, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        job.terminate();
+        thread.join(5000);
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertFalse(thread.isAlive());
+        assertTrue("Cancellation took " + latency + " ms", latency < 1000);
+        assertEquals(JobControl.TERMINATED_BY_REQUEST, job.getStatus());
+        assertFalse(interruptedAfterRun[0]);
+    }
+
+    @Test
+    public void externalInterruptIsPreserved() throws InterruptedException
+    {
+        final FunctionJobControl job = new FunctionJobControl(null);
+        job.setInterruptOnTerminate(true);
+        job.functionStarted();
+        final CountDownLatch attached = new CountDownLatch(1);
+        final boolean[] workerInterrupted = new boolean[1];
+        Thread worker = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                job.attachThread();
+                attached.countDown();
+                while( !Thread.currentThread().isInterrupted() )
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                job.detachThread();
+                workerInterrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        };
+        worker.start();
+        assertTrue(attached.await(5, TimeUnit.SECONDS));
+
+        // interrupt of the job thread which was not sent by the job
+        Thread.currentThread().interrupt();
+        // terminate() does not interrupt the calling thread, so only the worker is interrupted by the job
+        job.terminate();
+        while( worker.isAlive() )
+            Thread.yield();
+        job.functionFinished();
+        assertTrue(Thread.interrupted());
+        assertFalse(workerInterrupted[0]);
+    }
+}
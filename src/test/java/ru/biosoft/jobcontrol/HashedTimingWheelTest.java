@@ -0,0 +1,122 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ru.biosoft.jobcontrol.HashedTimingWheel.Timeout;
+
+public class HashedTimingWheelTest
+{
+    private final HashedTimingWheel wheel = new HashedTimingWheel(1, 8, "Test timer");
+
+    @After
+    public void tearDown()
+    {
+        wheel.stop();
+    }
+
+    private static Runnable countDown(final CountDownLatch latch)
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void farFutureTimeoutDoesNotFire() throws InterruptedException
+    {
+        CountDownLatch far = new CountDownLatch(1);
+        CountDownLatch near = new CountDownLatch(1);
+        Timeout farTimeout = wheel.schedule(countDown(far), Long.MAX_VALUE, TimeUnit.DAYS);
+        wheel.schedule(countDown(far), Long.MAX_VALUE - 1, TimeUnit.NANOSECONDS);
+        wheel.schedule(countDown(near), 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(near.await(5, TimeUnit.SECONDS));
+        assertFalse(far.await(50, TimeUnit.MILLISECONDS));
+        assertFalse(farTimeout.isExpired());
+        assertTrue(farTimeout.cancel());
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotFire() throws InterruptedException
+    {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch near = new CountDownLatch(1);
+        Timeout timeout = wheel.schedule(countDown(cancelled), 10, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        wheel.schedule(countDown(near), 30, TimeUnit.MILLISECONDS);
+
+        assertTrue(near.await(5, TimeUnit.SECONDS));
+        assertEquals(1, cancelled.getCount());
+        assertTrue(timeout.isCancelled());
+    }
+
+    private static class WaitingJob extends ClassJobControl
+    {
+        final long maxMillis;
+
+        WaitingJob(long maxMillis)
+        {
+            super(null);
+            this.maxMillis = maxMillis;
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            long end = System.currentTimeMillis() + maxMillis;
+            try
+            {
+                while( getStatus() == RUNNING && System.currentTimeMillis() < end )
+                    Thread.sleep(5);
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    public void farFutureDeadlineDoesNotTerminateJob()
+    {
+        WaitingJob relative = new WaitingJob(50);
+        relative.setDeadline(JobDeadline.after(Long.MAX_VALUE, TimeUnit.DAYS));
+        relative.run();
+        assertEquals(JobControl.COMPLETED, relative.getStatus());
+        assertFalse(relative.isTimedOut());
+
+        WaitingJob absolute = new WaitingJob(50);
+        absolute.setDeadline(JobDeadline.at(Long.MAX_VALUE));
+        absolute.run();
+        assertEquals(JobControl.COMPLETED, absolute.getStatus());
+        assertFalse(absolute.isTimedOut());
+    }
+
+    @Test
+    public void exceededDeadlineTerminatesJob()
+    {
+        WaitingJob job = new WaitingJob(10000);
+        job.setDeadline(JobDeadline.after(20, TimeUnit.MILLISECONDS));
+        job.run();
+        assertTrue(job.isTimedOut());
+
+        WaitingJob past = new WaitingJob(10000);
+        past.setDeadline(JobDeadline.at(Long.MIN_VALUE));
+        past.run();
+        assertTrue(past.isTimedOut());
+    }
+}
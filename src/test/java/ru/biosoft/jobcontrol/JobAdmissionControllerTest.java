@@ -0,0 +1,195 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class JobAdmissionControllerTest
+{
+    private static final Object KEY = "key";
+
+    private static class GatedJob extends ClassJobControl
+    {
+        static final AtomicInteger running = new AtomicInteger();
+        static final AtomicInteger maxRunning = new AtomicInteger();
+
+        final CountDownLatch gate;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        GatedJob(CountDownLatch gate)
+        {
+            super(null);
+            this.gate = gate;
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            int n = running.incrementAndGet();
+            maxRunning.set(Math.max(maxRunning.get(), n));
+            try
+            {
+                gate.await(5, TimeUnit.SECONDS);
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                running.decrementAndGet();
+                done.countDown();
+            }
+        }
+    }
+
+    private static void waitFor(JobAdmissionController controller, int running) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while( controller.getRunningCount(KEY) != running && System.currentTimeMillis() < end )
+            Thread.sleep(1);
+        assertEquals(running, controller.getRunningCount(KEY));
+    }
+
+    @Test
+    public void limitsRunningJobs() throws InterruptedException
+    {
+        GatedJob.maxRunning.set(0);
+        JobAdmissionController controller = new JobAdmissionController();
+        controller.setLimit(KEY, 2, 10);
+        CountDownLatch gate = new CountDownLatch(1);
+        GatedJob[] jobs = new GatedJob[5];
+        for( int i = 0; i < jobs.length; i++ )
+        {
+            jobs[i] = new GatedJob(gate);
+            controller.submit(KEY, jobs[i]);
+        }
+
+        waitFor(controller, 2);
+        assertEquals(3, controller.getQueuedCount(KEY));
+        assertEquals(-1, controller.getQueuePosition(jobs[0]));
+        assertEquals(0, controller.getQueuePosition(jobs[2]));
+        assertEquals(2, controller.getQueuePosition(jobs[4]));
+        assertEquals(JobControl.CREATED, jobs[4].getStatus());
+
+        gate.countDown();
+        for( GatedJob job : jobs )
+            assertTrue(job.done.await(5, TimeUnit.SECONDS));
+        waitFor(controller, 0);
+        assertEquals(0, controller.getQueuedCount(KEY));
+        assertTrue(GatedJob.maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFullAndCancelsWaiting() throws InterruptedException
+    {
+        JobAdmissionController controller = new JobAdmissionController();
+        controller.setLimit(KEY, 1, 1);
+        CountDownLatch gate = new CountDownLatch(1);
+        GatedJob running = new GatedJob(gate);
+        GatedJob waiting = new GatedJob(gate);
+        controller.submit(KEY, running);
+        controller.submit(KEY, waiting);
+        try
+        {
+            controller.submit(KEY, new GatedJob(gate));
+            fail("Job should be rejected");
+        }
+        catch( RejectedExecutionException e )
+        {
+        }
+
+        assertTrue(controller.cancel(waiting));
+        assertFalse(controller.cancel(waiting));
+        assertEquals(0, controller.getQueuedCount(KEY));
+        gate.countDown();
+        assertTrue(running.done.await(5, TimeUnit.SECONDS));
+        waitFor(controller, 0);
+        assertEquals(JobControl.CREATED, waiting.getStatus());
+    }
+
+    @Test
+    public void putWaitsForRoomInQueue() throws InterruptedException
+    {
+        final JobAdmissionController controller = new JobAdmissionController();
+        controller.setLimit(KEY, 1, 0);
+        CountDownLatch gate = new CountDownLatch(1);
+        GatedJob first = new GatedJob(gate);
+        final GatedJob second = new GatedJob(gate);
+        controller.submit(KEY, first);
+        waitFor(controller, 1);
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread producer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    controller.put(KEY, second);
+                    submitted.countDown();
+                }
+                catch( InterruptedException e )
+                {
+                }
+            }
+        };
+        producer.start();
+        assertFalse(submitted.await(50, TimeUnit.MILLISECONDS));
+
+        gate.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        producer.join();
+    }
+
+    @Test
+    public void rejectedQueuedJobReturnsToHeadOfQueue() throws InterruptedException
+    {
+        final AtomicBoolean reject = new AtomicBoolean();
+        JobAdmissionController controller = new JobAdmissionController(new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                if( reject.get() )
+                    throw new RejectedExecutionException("rejected");
+                new Thread(command).start();
+            }
+        });
+        controller.setLimit(KEY, 1, 10);
+        CountDownLatch gate = new CountDownLatch(1);
+        GatedJob first = new GatedJob(gate);
+        GatedJob second = new GatedJob(gate);
+        controller.submit(KEY, first);
+        controller.submit(KEY, second);
+        waitFor(controller, 1);
+
+        reject.set(true);
+        gate.countDown();
+        assertTrue(first.done.await(5, TimeUnit.SECONDS));
+        waitFor(controller, 0);
+        assertEquals(0, controller.getQueuePosition(second));
+        assertEquals(JobControl.CREATED, second.getStatus());
+
+        // next submission starts the job waiting at the head
+        reject.set(false);
+        GatedJob third = new GatedJob(gate);
+        controller.submit(KEY, third);
+        assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        assertTrue(third.done.await(5, TimeUnit.SECONDS));
+        waitFor(controller, 0);
+        assertEquals(0, controller.getQueuedCount(KEY));
+    }
+}
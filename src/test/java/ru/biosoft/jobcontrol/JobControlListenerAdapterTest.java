@@ -0,0 +1,142 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class JobControlListenerAdapterTest
+{
+    private static class TerminationListener extends JobControlListenerAdapter
+    {
+        int terminated;
+
+        @Override
+        public void jobTerminated(JobControlEvent event)
+        {
+            terminated++;
+        }
+    }
+
+    private static class StartAndTerminationListener extends TerminationListener
+    {
+        @Override
+        public void jobStarted(JobControlEvent event)
+        {
+        }
+    }
+
+    /**
+     * Listener recording names of all received events.
+     */
+    private static class RecordingListener implements MaskedJobControlListener
+    {
+        final int mask;
+        final List<String> events = new ArrayList<>();
+
+        RecordingListener(int mask)
+        {
+            this.mask = mask;
+        }
+
+        @Override
+        public int getEventMask()
+        {
+            return mask;
+        }
+
+        @Override
+        public void valueChanged(JobControlEvent event)
+        {
+            events.add("valueChanged");
+        }
+
+        @Override
+        public void jobStarted(JobControlEvent event)
+        {
+            events.add("jobStarted");
+        }
+
+        @Override
+        public void jobTerminated(JobControlEvent event)
+        {
+            events.add("jobTerminated");
+        }
+
+        @Override
+        public void jobPaused(JobControlEvent event)
+        {
+            events.add("jobPaused");
+        }
+
+        @Override
+        public void jobResumed(JobControlEvent event)
+        {
+            events.add("jobResumed");
+        }
+
+        @Override
+        public void resultsReady(JobControlEvent event)
+        {
+            events.add("resultsReady");
+        }
+    }
+
+    private static void runCycle(FunctionJobControl job)
+    {
+        job.functionStarted();
+        job.setPreparedness(50);
+        job.pause();
+        job.resume();
+        job.resultsAreReady(new Object[0]);
+        job.functionFinished();
+    }
+
+    @Test
+    public void maskHoldsOverriddenMethods()
+    {
+        assertEquals(0, new JobControlListenerAdapter().getEventMask());
+        assertEquals(JobControlEvent.JOB_TERMINATED, new TerminationListener().getEventMask());
+        assertEquals(JobControlEvent.JOB_TERMINATED | JobControlEvent.JOB_STARTED, new StartAndTerminationListener().getEventMask());
+    }
+
+    @Test
+    public void eventsAreDispatchedBySubscription()
+    {
+        FunctionJobControl job = new FunctionJobControl(null);
+        RecordingListener all = new RecordingListener(JobControlEvent.ALL_EVENTS);
+        RecordingListener lifecycle = new RecordingListener(JobControlEvent.JOB_STARTED | JobControlEvent.JOB_TERMINATED);
+        TerminationListener adapter = new TerminationListener();
+        job.addListener(all);
+        job.addListener(lifecycle);
+        job.addListener(adapter);
+        runCycle(job);
+        assertEquals("[jobStarted, valueChanged, jobPaused, jobResumed, resultsReady, jobTerminated]", all.events.toString());
+        assertEquals("[jobStarted, jobTerminated]", lifecycle.events.toString());
+        assertEquals(1, adapter.terminated);
+    }
+
+    @Test
+    public void dispatchIsSkippedWithoutSubscribers()
+    {
+        FunctionJobControl job = new FunctionJobControl(null);
+        job.addListener(new TerminationListener());
+        assertTrue(job.hasListeners(JobControlEvent.JOB_TERMINATED));
+        assertFalse(job.hasListeners(JobControlEvent.VALUE_CHANGED | JobControlEvent.JOB_PAUSED));
+
+        RecordingListener values = new RecordingListener(JobControlEvent.VALUE_CHANGED);
+        job.addListener(values);
+        assertTrue(job.hasListeners(JobControlEvent.VALUE_CHANGED | JobControlEvent.JOB_PAUSED));
+        runCycle(job);
+        assertEquals("[valueChanged]", values.events.toString());
+
+        job.removeListener(values);
+        assertFalse(job.hasListeners(JobControlEvent.VALUE_CHANGED));
+        runCycle(job);
+        assertEquals(1, values.events.size());
+    }
+}
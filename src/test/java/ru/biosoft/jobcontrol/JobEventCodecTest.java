@@ -0,0 +1,177 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class JobEventCodecTest
+{
+    private static final JobEventRecord RECORD = new JobEventRecord(42, 7, JobControlEvent.JOB_TERMINATED,
+            JobControl.TERMINATED_BY_ERROR, 63, 1700000000000L, "Failed: \u0444\u0430\u0439\u043b \ud83d\ude00",
+            "java.io.IOException: disk full");
+
+    private static void assertRecord(JobEventRecord expected, JobEventRecord actual)
+    {
+        assertEquals(expected.getJobId(), actual.getJobId());
+        assertEquals(expected.getSequence(), actual.getSequence());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getPreparedness(), actual.getPreparedness());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals(expected.getException(), actual.getException());
+    }
+
+    @Test
+    public void roundTrip()
+    {
+        for( ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.allocate(1024), ByteBuffer.allocateDirect(1024)} )
+        {
+            JobEventRecord empty = new JobEventRecord(1, 2, JobControlEvent.VALUE_CHANGED, JobControl.RUNNING, 5, 3, null, null);
+            int length = JobEventCodec.encode(buffer, RECORD);
+            assertEquals(length + JobEventCodec.HEADER_SIZE + 4, length + JobEventCodec.encode(buffer, empty));
+            buffer.flip();
+
+            assertEquals(JobEventCodec.VERSION, JobEventCodec.getVersion(buffer, 0));
+            assertEquals(length, JobEventCodec.getLength(buffer, 0));
+            assertEquals(42, JobEventCodec.getJobId(buffer, 0));
+            assertEquals(7, JobEventCodec.getSequence(buffer, 0));
+            assertEquals(JobControlEvent.JOB_TERMINATED, JobEventCodec.getType(buffer, 0));
+            assertEquals(JobControl.TERMINATED_BY_ERROR, JobEventCodec.getStatus(buffer, 0));
+            assertEquals(63, JobEventCodec.getPreparedness(buffer, 0));
+            assertEquals(1700000000000L, JobEventCodec.getTimestamp(buffer, 0));
+            assertEquals(1, JobEventCodec.getJobId(buffer, length));
+
+            assertRecord(RECORD, JobEventCodec.decode(buffer));
+            JobEventRecord decoded = JobEventCodec.decode(buffer);
+            assertRecord(empty, decoded);
+            assertNull(decoded.getMessage());
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    @Test
+    public void overflowKeepsPositionAndLongStringsAreTruncated()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(40);
+        buffer.put((byte)1);
+        try
+        {
+            JobEventCodec.encode(buffer, RECORD);
+            fail("Record should not fit");
+        }
+        catch( BufferOverflowException e )
+        {
+        }
+        assertEquals(1, buffer.position());
+
+        StringBuilder sb = new StringBuilder();
+        while( sb.length() < JobEventCodec.MAX_STRING_LENGTH + 100 )
+            sb.append("abcdefgh");
+        buffer = ByteBuffer.allocate(JobEventCodec.MAX_STRING_LENGTH * 2);
+        JobEventCodec.encode(buffer, new JobEventRecord(1, 1, JobControlEvent.JOB_STARTED, JobControl.RUNNING, 0, 0, sb.toString(), null));
+        buffer.flip();
+        assertEquals(JobEventCodec.MAX_STRING_LENGTH, JobEventCodec.decode(buffer).getMessage().length());
+    }
+
+    @Test
+    public void unsupportedVersionIsRejected()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        JobEventCodec.encode(buffer, RECORD);
+        buffer.flip();
+        buffer.put(0, (byte) ( JobEventCodec.VERSION + 1 ));
+        try
+        {
+            JobEventCodec.decode(buffer);
+            fail("Unknown version should be rejected");
+        }
+        catch( IllegalArgumentException e )
+        {
+        }
+    }
+
+    /**
+     * Same fields as {@link JobEventRecord} for comparison with Java serialization.
+     */
+    private static class SerializableRecord implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final long jobId, sequence, timestamp;
+        final int type, status, preparedness;
+        final String message, exception;
+
+        SerializableRecord(JobEventRecord record)
+        {
+            jobId = record.getJobId();
+            sequence = record.getSequence();
+            timestamp = record.getTimestamp();
+            type = record.getType();
+            status = record.getStatus();
+            preparedness = record.getPreparedness();
+            message = record.getMessage();
+            exception = record.getException();
+        }
+    }
+
+    private static byte[] serialize(Object object) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void smallerAndFasterThanJavaSerialization() throws IOException, ClassNotFoundException
+    {
+        int encoded = JobEventCodec.encode(ByteBuffer.allocate(1024), RECORD);
+        int serialized = serialize(new SerializableRecord(RECORD)).length;
+        assertTrue(encoded + " vs " + serialized, encoded * 2 < serialized);
+
+        int count = 20000;
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        long codecTime = Long.MAX_VALUE;
+        long serializationTime = Long.MAX_VALUE;
+        // the best of several rounds to exclude warm-up
+        for( int round = 0; round < 3; round++ )
+        {
+            long start = System.nanoTime();
+            for( int i = 0; i < count; i++ )
+            {
+                buffer.clear();
+                JobEventCodec.encode(buffer, RECORD);
+                buffer.flip();
+                JobEventCodec.decode(buffer);
+            }
+            codecTime = Math.min(codecTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for( int i = 0; i < count; i++ )
+            {
+                byte[] data = serialize(new SerializableRecord(RECORD));
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data)))
+                {
+                    in.readObject();
+                }
+            }
+            serializationTime = Math.min(serializationTime, System.nanoTime() - start);
+        }
+        assertTrue(codecTime + " vs " + serializationTime, codecTime < serializationTime);
+    }
+}
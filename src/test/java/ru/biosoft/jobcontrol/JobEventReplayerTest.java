@@ -0,0 +1,164 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ru.biosoft.jobcontrol.JobEventReplayer.ReplayedJobControl;
+
+public class JobEventReplayerTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class StepJob extends ClassJobControl
+    {
+        final boolean fail;
+
+        StepJob(boolean fail)
+        {
+            super(null);
+            this.fail = fail;
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            for( int i = 1; i <= 4; i++ )
+                setPreparedness(i * 20);
+            if( fail )
+                throw new JobControlException(new IOException("disk full"));
+            resultsAreReady();
+        }
+    }
+
+    /**
+     * Listener writing events of the job into the list as "type status preparedness".
+     */
+    private static class Trace extends JobControlListenerAdapter
+    {
+        final List<String> events = new ArrayList<>();
+
+        private void add(int type, JobControlEvent event)
+        {
+            events.add(JobControlEvent.getTypeName(type) + " " + event.getStatus() + " " + event.getPreparedness());
+        }
+
+        @Override
+        public void valueChanged(JobControlEvent event)
+        {
+            add(JobControlEvent.VALUE_CHANGED, event);
+        }
+
+        @Override
+        public void jobStarted(JobControlEvent event)
+        {
+            add(JobControlEvent.JOB_STARTED, event);
+        }
+
+        JobControlException exception;
+
+        @Override
+        public void jobTerminated(JobControlEvent event)
+        {
+            add(JobControlEvent.JOB_TERMINATED, event);
+            exception = event.getException();
+        }
+
+        @Override
+        public void resultsReady(JobControlEvent event)
+        {
+            add(JobControlEvent.RESULTS_READY, event);
+        }
+    }
+
+    private File record(StepJob... jobs) throws IOException
+    {
+        File file = folder.newFile();
+        try (JobEventRecorder recorder = new JobEventRecorder(file))
+        {
+            for( StepJob job : jobs )
+                recorder.record(job);
+            for( StepJob job : jobs )
+                job.run();
+        }
+        return file;
+    }
+
+    @Test
+    public void replayReproducesRecordedEvents() throws IOException
+    {
+        StepJob completed = new StepJob(false);
+        StepJob failed = new StepJob(true);
+        Trace completedTrace = new Trace();
+        Trace failedTrace = new Trace();
+        completed.addListener(completedTrace);
+        failed.addListener(failedTrace);
+        File file = record(completed, failed);
+
+        JobEventReplayer replayer = new JobEventReplayer(file);
+        assertEquals(completedTrace.events.size() + failedTrace.events.size(), replayer.getCount());
+        assertEquals(2, replayer.getJobs().size());
+        ReplayedJobControl replayedCompleted = replayer.getJob(completed.getJobId());
+        ReplayedJobControl replayedFailed = replayer.getJob(failed.getJobId());
+        Trace replayedCompletedTrace = new Trace();
+        Trace replayedFailedTrace = new Trace();
+        replayedCompleted.addListener(replayedCompletedTrace);
+        replayedFailed.addListener(replayedFailedTrace);
+
+        assertEquals(replayer.getCount(), replayer.replay(JobEventReplayer.MAXIMUM_SPEED));
+        assertEquals(completedTrace.events, replayedCompletedTrace.events);
+        assertEquals(failedTrace.events, replayedFailedTrace.events);
+        assertEquals(JobControl.COMPLETED, replayedCompleted.getStatus());
+        assertEquals(JobControl.TERMINATED_BY_ERROR, replayedFailed.getStatus());
+        assertEquals(80, replayedFailed.getPreparedness());
+
+        // recorded error keeps its class and message
+        Throwable error = replayedFailedTrace.exception.getError();
+        assertTrue(error instanceof JobEventReplayer.RecordedError);
+        assertEquals(IOException.class.getName(), ( (JobEventReplayer.RecordedError)error ).getErrorClassName());
+        assertEquals("disk full", error.getMessage());
+        assertEquals(new IOException("disk full").toString(), error.toString());
+        // replaying thread is detached when the job ends
+        assertNull(replayedCompleted.getThread());
+        assertNull(replayedFailed.getThread());
+    }
+
+    @Test
+    public void truncatedRecordingIsReadUpToLastWholeRecord() throws IOException
+    {
+        File file = record(new StepJob(false));
+        int count = new JobEventReplayer(file).getCount();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.setLength(raf.length() - 3);
+        }
+        JobEventReplayer replayer = new JobEventReplayer(file);
+        assertEquals(count - 1, replayer.getCount());
+        assertEquals(count - 1, replayer.replay(JobEventReplayer.MAXIMUM_SPEED));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.writeInt(0);
+        }
+        try
+        {
+            new JobEventReplayer(file);
+            fail("File without header should be rejected");
+        }
+        catch( IOException e )
+        {
+        }
+    }
+}
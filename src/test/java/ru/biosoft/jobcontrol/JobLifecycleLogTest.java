@@ -0,0 +1,209 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobLifecycleLogTest
+{
+    private static class RecordingHandler extends Handler
+    {
+        final List<LogRecord> records = new ArrayList<>();
+
+        @Override
+        public synchronized void publish(LogRecord record)
+        {
+            records.add(record);
+        }
+
+        synchronized List<LogRecord> getRecords()
+        {
+            return new ArrayList<>(records);
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    private Logger logger;
+    private RecordingHandler handler;
+
+    @Before
+    public void setUp()
+    {
+        logger = Logger.getLogger(JobLifecycleLogTest.class.getName());
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.ALL);
+        handler = new RecordingHandler();
+        logger.addHandler(handler);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException
+    {
+        // entries of the test must not reach the handler of the next one
+        JobLifecycleLog.getDefault().flush(5000);
+        logger.removeHandler(handler);
+    }
+
+    private static class EmptyJob extends ClassJobControl
+    {
+        EmptyJob(Logger log)
+        {
+            super(log);
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+        }
+    }
+
+    @Test
+    public void transitionsArePublishedAsynchronously() throws InterruptedException
+    {
+        EmptyJob job = new EmptyJob(logger);
+        job.run();
+        assertTrue(JobLifecycleLog.getDefault().flush(5000));
+        List<String> transitions = new ArrayList<>();
+        for( LogRecord record : handler.getRecords() )
+        {
+            assertEquals(job.getJobId(), record.getParameters()[0]);
+            transitions.add((String)record.getParameters()[1]);
+        }
+        assertEquals(2, transitions.size());
+        assertEquals(JobLifecycleLog.getTransitionName(JobLifecycleLog.STARTED), transitions.get(0));
+        assertEquals(JobLifecycleLog.getTransitionName(JobLifecycleLog.ENDED), transitions.get(1));
+    }
+
+    @Test
+    public void errorIsLoggedSynchronouslyOnce() throws InterruptedException
+    {
+        FunctionJobControl job = new FunctionJobControl(logger);
+        job.functionStarted();
+        IOException error = new IOException("disk full");
+        job.functionTerminatedByError(error);
+
+        // published before the call returns, not by the log thread
+        LogRecord severe = null;
+        for( LogRecord record : handler.getRecords() )
+        {
+            if( record.getLevel() == Level.SEVERE )
+                severe = record;
+        }
+        assertSame(error, severe.getThrown());
+        assertEquals(JobControl.TERMINATED_BY_ERROR, job.getStatus());
+
+        assertTrue(JobLifecycleLog.getDefault().flush(5000));
+        int logged = 0;
+        for( LogRecord record : handler.getRecords() )
+        {
+            if( record.getThrown() != null )
+            {
+                assertSame(error, record.getThrown());
+                logged++;
+            }
+            if( record.getLevel() != Level.SEVERE )
+                assertNull(record.getThrown());
+        }
+        assertEquals(1, logged);
+    }
+
+    @Test
+    public void functionErrorIsPassedToExceptionOccured()
+    {
+        final List<JobControlException> exceptions = new ArrayList<>();
+        FunctionJobControl job = new FunctionJobControl(logger)
+        {
+            @Override
+            public void exceptionOccured(JobControlException ex)
+            {
+                exceptions.add(ex);
+                super.exceptionOccured(ex);
+            }
+        };
+        job.functionStarted();
+        IOException error = new IOException("disk full");
+        job.functionTerminatedByError(error);
+
+        assertEquals(1, exceptions.size());
+        assertSame(error, exceptions.get(0).getError());
+        assertEquals(JobControl.TERMINATED_BY_ERROR, job.getStatus());
+    }
+
+    @Test
+    public void entriesAreDroppedWhenBufferIsFull() throws InterruptedException
+    {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Handler blocking = new Handler()
+        {
+            @Override
+            public void publish(LogRecord record)
+            {
+                blocked.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void flush()
+            {
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+        logger.addHandler(blocking);
+        try
+        {
+            JobLifecycleLog lifecycleLog = new JobLifecycleLog(4);
+            lifecycleLog.log(logger, Level.FINE, 1, JobLifecycleLog.STARTED, JobLifecycleLog.NO_DURATION, null);
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            for( int i = 0; i < 10; i++ )
+                lifecycleLog.log(logger, Level.FINE, 1, JobLifecycleLog.PAUSED, JobLifecycleLog.NO_DURATION, null);
+            // entry being published keeps its place until the handler returns
+            assertEquals(7, lifecycleLog.getDroppedCount());
+            assertFalse(lifecycleLog.flush(10));
+            release.countDown();
+            assertTrue(lifecycleLog.flush(5000));
+            assertEquals(4, handler.getRecords().size());
+        }
+        finally
+        {
+            release.countDown();
+            logger.removeHandler(blocking);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.biosoft.jobcontrol;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs {@link JobLoadGenerator} from the command line with <code>name=value</code> arguments named as the setters, e.g.
+ * <pre>
+ * java ru.biosoft.jobcontrol.JobLoadBenchmark jobCount=100000 threadCount=8 listenerCount=3 churnRate=1000
+ * </pre>
+ */
+public class JobLoadBenchmark
+{
+    private static final Logger log = Logger.getLogger(JobLoadBenchmark.class.getName());
+
+    /**
+     * Runs the load test with parameters given as <code>name=value</code> arguments and logs the report.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        JobLoadGenerator generator = new JobLoadGenerator();
+        for( String arg : args )
+        {
+            int pos = arg.indexOf('=');
+            if( pos < 0 )
+                throw new IllegalArgumentException("Argument should be name=value: " + arg);
+            String name = arg.substring(0, pos);
+            String value = arg.substring(pos + 1);
+            switch( name )
+            {
+                case "jobCount":
+                    generator.setJobCount(Integer.parseInt(value));
+                    break;
+                case "threadCount":
+                    generator.setThreadCount(Integer.parseInt(value));
+                    break;
+                case "listenerCount":
+                    generator.setListenerCount(Integer.parseInt(value));
+                    break;
+                case "steps":
+                    generator.setSteps(Integer.parseInt(value));
+                    break;
+                case "maxRate":
+                    generator.setMaxRate(Integer.parseInt(value));
+                    break;
+                case "stackProgressShare":
+                    generator.setStackProgressShare(Double.parseDouble(value));
+                    break;
+                case "churnRate":
+                    generator.setChurnRate(Integer.parseInt(value));
+                    break;
+                case "terminateShare":
+                    generator.setTerminateShare(Double.parseDouble(value));
+                    break;
+                case "seed":
+                    generator.setSeed(Long.parseLong(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+        }
+        log.log(Level.INFO, "{0}", generator.run());
+    }
+}
@@ -0,0 +1,51 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class JobLoadGeneratorTest
+{
+    private static JobLoadGenerator generator(int jobCount)
+    {
+        JobLoadGenerator generator = new JobLoadGenerator();
+        generator.setJobCount(jobCount);
+        generator.setThreadCount(2);
+        generator.setListenerCount(3);
+        generator.setSteps(10);
+        generator.setMaxRate(3);
+        return generator;
+    }
+
+    @Test
+    public void allJobsCompleteWithoutChurn() throws InterruptedException
+    {
+        JobLoadGenerator generator = generator(500);
+        generator.setChurnRate(0);
+        JobLoadGenerator.Report report = generator.run();
+        assertEquals(500, report.getJobCount());
+        assertEquals(500, report.getCompletedCount());
+        assertEquals(0, report.getTerminatedCount());
+        assertEquals(0, report.getChurnCount());
+        // start, termination and a change per step reach every listener
+        assertTrue(report.getEventCount() >= 500L * 3 * ( 10 + 2 ));
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getLatency(0.5) <= report.getLatency(0.99));
+        assertTrue(report.getLatency(0.99) <= report.getLatency(1));
+        assertTrue(report.getPeakThreadCount() >= 2);
+        assertTrue(report.toString(), report.toString().length() > 0);
+    }
+
+    @Test
+    public void churnedJobsFinish() throws InterruptedException
+    {
+        JobLoadGenerator generator = generator(2000);
+        generator.setSteps(200);
+        generator.setChurnRate(20000);
+        generator.setTerminateShare(0.5);
+        JobLoadGenerator.Report report = generator.run();
+        assertEquals(2000, report.getCompletedCount() + report.getTerminatedCount());
+        assertTrue(report.getChurnCount() > 0);
+    }
+}
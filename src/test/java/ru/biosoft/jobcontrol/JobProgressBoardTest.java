@@ -0,0 +1,160 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JobProgressBoardTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class TestJob extends ClassJobControl
+    {
+        TestJob()
+        {
+            super(null);
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            setPreparedness(50);
+        }
+    }
+
+    @Test
+    public void publishedJobsAreVisibleToReaders() throws IOException
+    {
+        File file = folder.newFile();
+        try (JobProgressBoard board = JobProgressBoard.create(file, 4); JobProgressBoard reader = JobProgressBoard.open(file))
+        {
+            assertEquals(4, reader.getSlotCount());
+            TestJob job = new TestJob();
+            assertTrue(board.publish(job));
+            assertTrue(board.publish(job));
+            List<JobSnapshot> snapshots = reader.snapshot();
+            assertEquals(1, snapshots.size());
+            assertEquals(job.getJobId(), snapshots.get(0).getJobId());
+            assertEquals(JobControl.CREATED, snapshots.get(0).getStatus());
+
+            job.run();
+            JobSnapshot snapshot = reader.snapshot().get(0);
+            assertEquals(JobControl.COMPLETED, snapshot.getStatus());
+            assertEquals(job.getPreparedness(), snapshot.getPreparedness());
+            assertEquals(job.getStartedTime(), snapshot.getStartedTime());
+            assertEquals(job.getEndedTime(), snapshot.getEndedTime());
+
+            board.unpublish(job);
+            assertTrue(reader.snapshot().isEmpty());
+        }
+    }
+
+    @Test
+    public void slotOfFinishedJobIsReused() throws IOException
+    {
+        File file = folder.newFile();
+        try (JobProgressBoard board = JobProgressBoard.create(file, 1); JobProgressBoard reader = JobProgressBoard.open(file))
+        {
+            TestJob finished = new TestJob();
+            board.publish(finished);
+            finished.run();
+
+            TestJob running = new TestJob();
+            running.begin();
+            assertTrue(board.publish(running));
+            // events of the job which lost the slot do not overwrite it
+            finished.fireValueChanged();
+            List<JobSnapshot> snapshots = reader.snapshot();
+            assertEquals(1, snapshots.size());
+            assertEquals(running.getJobId(), snapshots.get(0).getJobId());
+            assertEquals(JobControl.RUNNING, snapshots.get(0).getStatus());
+
+            assertFalse(board.publish(new TestJob()));
+        }
+    }
+
+    @Test
+    public void readersSeeConsistentSlots() throws Exception
+    {
+        File file = folder.newFile();
+        try (final JobProgressBoard board = JobProgressBoard.create(file, 2); JobProgressBoard reader = JobProgressBoard.open(file))
+        {
+            final TestJob job = new TestJob();
+            job.begin();
+            board.publish(job);
+            final AtomicBoolean stop = new AtomicBoolean();
+            Thread writer = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for( int i = 0; !stop.get(); i++ )
+                        job.setPreparedness(i % 100);
+                }
+            };
+            // publishes and unpublishes other jobs in the second slot
+            Thread churn = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    while( !stop.get() )
+                    {
+                        TestJob other = new TestJob();
+                        other.begin();
+                        board.publish(other);
+                        other.setPreparedness(1);
+                        board.unpublish(other);
+                    }
+                }
+            };
+            writer.start();
+            churn.start();
+            try
+            {
+                long end = System.currentTimeMillis() + 300;
+                while( System.currentTimeMillis() < end )
+                {
+                    for( JobSnapshot snapshot : reader.snapshot() )
+                    {
+                        assertEquals(JobControl.RUNNING, snapshot.getStatus());
+                        if( snapshot.getJobId() != job.getJobId() )
+                            continue;
+                        assertEquals(job.getStartedTime(), snapshot.getStartedTime());
+                        assertEquals(job.getCreatedTime(), snapshot.getCreatedTime());
+                        assertEquals(-1, snapshot.getEndedTime());
+                        assertTrue(snapshot.getPreparedness() >= 0 && snapshot.getPreparedness() < 100);
+                    }
+                }
+            }
+            finally
+            {
+                stop.set(true);
+                writer.join();
+                churn.join();
+            }
+        }
+        // sequence counters are kept in the file and are even when writes are finished
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            for( int slot = 1; slot <= 2; slot++ )
+            {
+                raf.seek(JobProgressBoard.SLOT_SIZE * slot);
+                long sequence = raf.readLong();
+                assertTrue(sequence > 0);
+                assertEquals(0, sequence & 1);
+            }
+        }
+    }
+}
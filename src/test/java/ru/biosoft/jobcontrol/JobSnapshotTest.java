@@ -0,0 +1,89 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class JobSnapshotTest
+{
+    @Test
+    public void snapshotFollowsLifecycle()
+    {
+        FunctionJobControl job = new FunctionJobControl(null);
+        JobSnapshot created = job.snapshot();
+        assertEquals(job.getJobId(), created.getJobId());
+        assertEquals(JobControl.CREATED, created.getStatus());
+        assertEquals(-1, created.getStartedTime());
+        assertEquals(0, created.getElapsedTime());
+
+        job.functionStarted();
+        job.setPreparedness(40);
+        JobSnapshot running = job.snapshot();
+        assertEquals(JobControl.RUNNING, running.getStatus());
+        assertEquals(40, running.getPreparedness());
+        assertTrue(running.getStartedTime() >= created.getCreatedTime());
+        assertEquals(-1, running.getEndedTime());
+
+        job.pause();
+        assertEquals(JobControl.PAUSED, job.snapshot().getStatus());
+        job.resume();
+        job.setPreparedness(100);
+        job.functionFinished();
+        JobSnapshot completed = job.snapshot();
+        assertEquals(JobControl.COMPLETED, completed.getStatus());
+        assertEquals(100, completed.getPreparedness());
+        assertTrue(completed.getEndedTime() >= completed.getStartedTime());
+        assertEquals(completed.getEndedTime() - completed.getStartedTime(), completed.getElapsedTime());
+
+        // snapshots are immutable
+        assertEquals(JobControl.RUNNING, running.getStatus());
+        assertEquals(40, running.getPreparedness());
+        assertEquals(JobControl.CREATED, created.getStatus());
+    }
+
+    @Test
+    public void concurrentSnapshotsAreConsistent() throws InterruptedException
+    {
+        final FunctionJobControl job = new FunctionJobControl(null);
+        final AtomicReference<String> violation = new AtomicReference<>();
+        final int[] checked = new int[1];
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                while( !isInterrupted() && violation.get() == null )
+                {
+                    JobSnapshot snapshot = job.snapshot();
+                    checked[0]++;
+                    int status = snapshot.getStatus();
+                    boolean consistent;
+                    if( status == JobControl.RUNNING )
+                        consistent = snapshot.getStartedTime() != -1 && snapshot.getEndedTime() == -1;
+                    else if( status == JobControl.COMPLETED )
+                        consistent = snapshot.getPreparedness() == 100 && snapshot.getStartedTime() != -1
+                                && snapshot.getEndedTime() >= snapshot.getStartedTime();
+                    else
+                        consistent = status == JobControl.CREATED;
+                    if( !consistent || snapshot.getElapsedTime() < 0 )
+                        violation.set(snapshot.toString());
+                }
+            }
+        };
+        reader.start();
+        for( int cycle = 0; cycle < 2000 && violation.get() == null; cycle++ )
+        {
+            job.functionStarted();
+            for( int i = 0; i <= 100; i += 5 )
+                job.setPreparedness(i);
+            job.functionFinished();
+        }
+        reader.interrupt();
+        reader.join();
+        assertEquals(null, violation.get());
+        assertTrue(checked[0] > 0);
+    }
+}
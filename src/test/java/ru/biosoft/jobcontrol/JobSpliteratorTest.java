@@ -0,0 +1,137 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobSpliteratorTest
+{
+    private static class TestJob extends StackProgressJobControl
+    {
+        TestJob()
+        {
+            super(null);
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+        }
+    }
+
+    private TestJob job;
+    private final List<Integer> progress = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp()
+    {
+        job = new TestJob();
+        job.addListener(new JobControlListenerAdapter()
+        {
+            @Override
+            public void valueChanged(JobControlEvent event)
+            {
+                progress.add(event.getPreparedness());
+            }
+        });
+        job.begin();
+    }
+
+    private static List<Integer> numbers(int count)
+    {
+        List<Integer> numbers = new ArrayList<>();
+        for( int i = 0; i < count; i++ )
+            numbers.add(i);
+        return numbers;
+    }
+
+    @Test
+    public void sequentialStreamReportsProgress()
+    {
+        assertEquals(10000, JobSpliterator.stream(job, numbers(10000), false).count());
+        assertEquals(100, job.getPreparedness());
+    }
+
+    @Test
+    public void parallelStreamReportsProgressInCurrentRange()
+    {
+        job.pushProgress(50, 100);
+        for( int round = 0; round < 10; round++ )
+        {
+            progress.clear();
+            assertEquals(100000, JobSpliterator.stream(job, numbers(100000), true).count());
+            assertEquals(100, job.getPreparedness());
+            for( int i = 0; i < progress.size(); i++ )
+            {
+                assertTrue("Progress is out of range: " + progress, progress.get(i) >= 50);
+                if( i > 0 )
+                    assertTrue("Progress went back: " + progress, progress.get(i) >= progress.get(i - 1));
+            }
+        }
+        // the stack of the job thread was not touched by workers
+        job.setPreparedness(0);
+        assertEquals(50, job.getPreparedness());
+    }
+
+    @Test
+    public void terminationFailsTraversal()
+    {
+        final AtomicInteger visited = new AtomicInteger();
+        try
+        {
+            JobSpliterator.stream(job, numbers(1000), false).forEach(new Consumer<Integer>()
+            {
+                @Override
+                public void accept(Integer element)
+                {
+                    if( visited.incrementAndGet() == 100 )
+                        job.terminate();
+                }
+            });
+            fail("Terminated traversal should fail");
+        }
+        catch( UncheckedJobControlException e )
+        {
+            assertEquals(JobControl.TERMINATED_BY_REQUEST, e.getCause().getStatus());
+        }
+        assertEquals(100, visited.get());
+    }
+
+    @Test
+    public void traversalWaitsWhilePaused() throws InterruptedException
+    {
+        job.pause();
+        final long[] resumed = new long[1];
+        Thread resumer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch( InterruptedException e )
+                {
+                    return;
+                }
+                resumed[0] = System.nanoTime();
+                job.resume();
+            }
+        };
+        resumer.start();
+        assertEquals(10, JobSpliterator.stream(job, numbers(10), false).count());
+        long finished = System.nanoTime();
+        resumer.join();
+        assertTrue(resumed[0] != 0 && finished >= resumed[0]);
+    }
+}
@@ -0,0 +1,188 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobStatusHttpServerTest
+{
+    private static class IdleJob extends ClassJobControl
+    {
+        IdleJob()
+        {
+            super(null);
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+        }
+    }
+
+    private JobStatusHttpServer server;
+    private final IdleJob job = new IdleJob();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = new JobStatusHttpServer(0);
+        server.setPushInterval(5);
+        server.register(7, job);
+        server.start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop();
+    }
+
+    private HttpURLConnection open(String path) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+        connection.setReadTimeout(5000);
+        return connection;
+    }
+
+    private static String read(InputStream in) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)))
+        {
+            for( String line = reader.readLine(); line != null; line = reader.readLine() )
+                sb.append(line);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void servesJobSnapshots() throws IOException
+    {
+        HttpURLConnection connection = open("/jobs");
+        assertEquals(200, connection.getResponseCode());
+        String body = read(connection.getInputStream());
+        assertTrue(body, body.startsWith("[{\"id\":7,\"status\":" + JobControl.CREATED + ","));
+
+        connection = open("/jobs/7");
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(read(connection.getInputStream()).contains("\"preparedness\":0"));
+
+        assertEquals(404, open("/jobs/8").getResponseCode());
+        assertEquals(404, open("/jobs/x").getResponseCode());
+    }
+
+    @Test
+    public void streamsEventsAndHeartbeats() throws IOException
+    {
+        server.setHeartbeatInterval(20);
+        HttpURLConnection connection = open("/events");
+        assertEquals(200, connection.getResponseCode());
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)))
+        {
+            assertEquals("event: job", reader.readLine());
+            assertTrue(reader.readLine().startsWith("data: {\"id\":7,"));
+            assertEquals("", reader.readLine());
+            assertEquals(": connected", reader.readLine());
+            assertEquals("", reader.readLine());
+
+            // nothing happens: heartbeat
+            assertEquals(":", reader.readLine());
+            assertEquals("", reader.readLine());
+
+            job.run();
+            String line = reader.readLine();
+            while( line.equals(":") || line.isEmpty() )
+                line = reader.readLine();
+            assertEquals("event: job", line);
+            line = reader.readLine();
+            assertTrue(line, line.contains("\"status\":" + JobControl.COMPLETED + ","));
+            assertTrue(line, line.contains("\"jobStarted\"") || line.contains("\"jobTerminated\""));
+        }
+    }
+
+    @Test
+    public void stopReleasesThreadsAndAllowsRestart() throws IOException, InterruptedException
+    {
+        HttpURLConnection connection = open("/events");
+        assertEquals(200, connection.getResponseCode());
+        InputStream in = connection.getInputStream();
+        server.stop();
+        assertEquals(-1, server.getPort());
+        assertFalse(hasThread("JobControl HTTP push"));
+        // stream is closed by the server
+        try
+        {
+            while( in.read() != -1 )
+                ;
+        }
+        catch( IOException e )
+        {
+            // chunked stream is cut off
+        }
+        in.close();
+
+        server.start();
+        assertEquals(200, open("/jobs").getResponseCode());
+    }
+
+    @Test
+    public void slowClientDoesNotStallOthers() throws IOException
+    {
+        server.setStreamBacklog(2);
+        IdleJob[] jobs = new IdleJob[200];
+        for( int i = 0; i < jobs.length; i++ )
+        {
+            jobs[i] = new IdleJob();
+            server.register(100 + i, jobs[i]);
+        }
+        // client which never reads its stream
+        try (Socket slow = new Socket())
+        {
+            slow.setReceiveBufferSize(1024);
+            slow.connect(new InetSocketAddress("127.0.0.1", server.getPort()));
+            slow.getOutputStream().write("GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            slow.getOutputStream().flush();
+
+            HttpURLConnection connection = open("/events");
+            assertEquals(200, connection.getResponseCode());
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)))
+            {
+                for( int round = 1; round <= 100; round++ )
+                {
+                    for( IdleJob job : jobs )
+                        job.setPreparedness(round);
+                    // the last job is updated after others
+                    String id = "\"id\":" + ( 100 + jobs.length - 1 ) + ",";
+                    String preparedness = "\"preparedness\":" + round + ",";
+                    String line = reader.readLine();
+                    while( ! ( line.contains(id) && line.contains(preparedness) ) )
+                        line = reader.readLine();
+                }
+            }
+        }
+    }
+
+    private static boolean hasThread(String name)
+    {
+        for( Thread thread : Thread.getAllStackTraces().keySet() )
+        {
+            if( thread.getName().equals(name) && thread.isAlive() )
+                return true;
+        }
+        return false;
+    }
+}
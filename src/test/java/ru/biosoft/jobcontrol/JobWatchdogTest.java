@@ -0,0 +1,130 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import ru.biosoft.jobcontrol.JobWatchdog.StallListener;
+import ru.biosoft.jobcontrol.JobWatchdog.StallReport;
+
+public class JobWatchdogTest
+{
+    private static class SilentJob extends ClassJobControl
+    {
+        final boolean active;
+
+        SilentJob(boolean active)
+        {
+            super(null);
+            this.active = active;
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            long end = System.currentTimeMillis() + 5000;
+            try
+            {
+                for( int i = 0; getStatus() == RUNNING && System.currentTimeMillis() < end; i++ )
+                {
+                    Thread.sleep(5);
+                    if( active )
+                        setPreparedness(i % 100);
+                }
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    public void stalledJobIsReportedFromWatchdogThread() throws InterruptedException
+    {
+        JobWatchdog watchdog = new JobWatchdog(50, TimeUnit.MILLISECONDS);
+        watchdog.setScanInterval(10, TimeUnit.MILLISECONDS);
+        watchdog.setTerminateStalled(true);
+        final List<StallReport> reports = new CopyOnWriteArrayList<>();
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        watchdog.addStallListener(new StallListener()
+        {
+            @Override
+            public void jobStalled(StallReport report)
+            {
+                reports.add(report);
+                threads.add(Thread.currentThread().getName());
+            }
+        });
+
+        SilentJob silent = new SilentJob(false);
+        SilentJob active = new SilentJob(true);
+        Thread silentThread = new Thread(silent);
+        Thread activeThread = new Thread(active);
+        silentThread.start();
+        activeThread.start();
+        waitRunning(silent);
+        waitRunning(active);
+        watchdog.watch(silent);
+        watchdog.watch(active);
+
+        silentThread.join(5000);
+        assertEquals(JobControl.TERMINATED_BY_REQUEST, silent.getStatus());
+        active.terminate();
+        activeThread.join(5000);
+
+        assertEquals(1, reports.size());
+        StallReport report = reports.get(0);
+        assertSame(silent, report.getJobControl());
+        assertTrue(report.getIdleTime() >= 50);
+        assertNotNull(report.getThreadInfo());
+        assertTrue(threads.get(0), threads.get(0).startsWith("JobControl watchdog"));
+        assertEquals(0, watchdog.getJobCount());
+    }
+
+    @Test
+    public void scansRunInConfiguredExecutor() throws InterruptedException
+    {
+        final CountDownLatch executed = new CountDownLatch(2);
+        JobWatchdog watchdog = new JobWatchdog(1, TimeUnit.SECONDS);
+        watchdog.setScanInterval(5, TimeUnit.MILLISECONDS);
+        watchdog.setExecutor(new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                executed.countDown();
+                command.run();
+            }
+        });
+        SilentJob job = new SilentJob(false);
+        Thread thread = new Thread(job);
+        thread.start();
+        waitRunning(job);
+        watchdog.watch(job);
+        try
+        {
+            assertTrue(executed.await(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            job.terminate();
+            thread.join(5000);
+        }
+    }
+
+    private static void waitRunning(JobControl job) throws InterruptedException
+    {
+        while( job.getStatus() != JobControl.RUNNING )
+            Thread.sleep(1);
+    }
+}
@@ -0,0 +1,145 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ru.biosoft.jobcontrol.StackProgressJobControl.ProgressFork;
+
+public class MappedFileJobControlTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class LineCounter extends MappedFileJobControl
+    {
+        final AtomicLong lines = new AtomicLong();
+        /** chunk offset to chunk content */
+        final Map<Long, String> chunks = new ConcurrentHashMap<>();
+
+        LineCounter(File file)
+        {
+            super(null, file);
+        }
+
+        @Override
+        protected boolean processChunk(ByteBuffer chunk, long offset, ProgressFork fork) throws JobControlException
+        {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            for( int i = 0; i < bytes.length; i++ )
+            {
+                if( bytes[i] == '\n' )
+                    lines.incrementAndGet();
+                if( i % 16 == 0 )
+                    fork.setPreparedness(100 * i / bytes.length);
+            }
+            chunks.put(offset, new String(bytes, StandardCharsets.US_ASCII));
+            return true;
+        }
+    }
+
+    private File createFile(int lineCount, boolean trailingSeparator) throws IOException
+    {
+        StringBuilder content = new StringBuilder();
+        for( int i = 0; i < lineCount; i++ )
+        {
+            // lines longer and shorter than the chunk
+            int length = i % 50 == 0 ? 300 : i % 7;
+            for( int j = 0; j < length; j++ )
+                content.append((char) ( 'a' + j % 26 ));
+            if( trailingSeparator || i < lineCount - 1 )
+                content.append('\n');
+        }
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private static void assertAligned(LineCounter job, String content)
+    {
+        long total = 0;
+        for( Map.Entry<Long, String> entry : job.chunks.entrySet() )
+        {
+            long offset = entry.getKey();
+            String chunk = entry.getValue();
+            assertEquals(content.substring((int)offset, (int)offset + chunk.length()), chunk);
+            assertTrue("Chunk at " + offset + " does not start a line", offset == 0 || content.charAt((int)offset - 1) == '\n');
+            long end = offset + chunk.length();
+            assertTrue("Chunk at " + offset + " does not end a line", end == content.length() || chunk.endsWith("\n"));
+            total += chunk.length();
+        }
+        assertEquals(content.length(), total);
+    }
+
+    @Test
+    public void linesAreCountedInSmallChunks() throws IOException
+    {
+        File file = createFile(1000, true);
+        LineCounter job = new LineCounter(file);
+        job.setChunkSize(100);
+        job.setThreadCount(3);
+        job.run();
+        assertEquals(JobControl.COMPLETED, job.getStatus());
+        assertEquals(1000, job.lines.get());
+        assertTrue(job.chunks.size() > 10);
+        assertAligned(job, new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII));
+        assertEquals(100, job.getPreparedness());
+    }
+
+    @Test
+    public void lastRecordWithoutSeparatorIsProcessed() throws IOException
+    {
+        File file = createFile(101, false);
+        LineCounter job = new LineCounter(file);
+        job.setChunkSize(1);
+        job.setThreadCount(2);
+        job.run();
+        assertEquals(JobControl.COMPLETED, job.getStatus());
+        assertEquals(100, job.lines.get());
+        // every line is a chunk, long lines are not split
+        assertEquals(101, job.chunks.size());
+        assertAligned(job, new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void chunkFailureTerminatesJob() throws IOException
+    {
+        File file = createFile(1000, true);
+        LineCounter job = new LineCounter(file)
+        {
+            @Override
+            protected boolean processChunk(ByteBuffer chunk, long offset, ProgressFork fork) throws JobControlException
+            {
+                if( offset > 1000 )
+                    throw new JobControlException(new IOException("bad record"));
+                return super.processChunk(chunk, offset, fork);
+            }
+        };
+        job.setChunkSize(100);
+        job.run();
+        assertEquals(JobControl.TERMINATED_BY_ERROR, job.getStatus());
+    }
+
+    @Test
+    public void emptyFileIsCompleted() throws IOException
+    {
+        LineCounter job = new LineCounter(folder.newFile());
+        job.run();
+        assertEquals(JobControl.COMPLETED, job.getStatus());
+        assertEquals(0, job.lines.get());
+        assertEquals(100, job.getPreparedness());
+    }
+}
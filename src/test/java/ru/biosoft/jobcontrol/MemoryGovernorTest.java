@@ -0,0 +1,264 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class MemoryGovernorTest
+{
+    private static class LoopJob extends ClassJobControl
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread thread = new Thread(this);
+
+        LoopJob()
+        {
+            super(null);
+        }
+
+        LoopJob launch() throws InterruptedException
+        {
+            thread.start();
+            long end = System.currentTimeMillis() + 5000;
+            while( getStatus() != RUNNING && System.currentTimeMillis() < end )
+                Thread.sleep(1);
+            assertEquals(RUNNING, getStatus());
+            return this;
+        }
+
+        void finish() throws InterruptedException
+        {
+            release.countDown();
+            thread.join(5000);
+            assertEquals(COMPLETED, getStatus());
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            try
+            {
+                while( !release.await(1, TimeUnit.MILLISECONDS) )
+                    checkStatus();
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Governor reporting usage set by the test.
+     */
+    private static class TestGovernor extends MemoryGovernor
+    {
+        volatile double usage = 0.95;
+
+        TestGovernor()
+        {
+            super(0.9, 0.5);
+            setCheckInterval(1, TimeUnit.HOURS);
+        }
+
+        @Override
+        public double getUsage()
+        {
+            return usage;
+        }
+    }
+
+    @Test
+    public void admissionDependsOnEstimate()
+    {
+        MemoryGovernor governor = new MemoryGovernor(0.9, 0.5);
+        assertFalse(governor.canStart(Long.MAX_VALUE / 2));
+        try
+        {
+            governor.checkStart(Long.MAX_VALUE / 2);
+            fail("Job should be refused");
+        }
+        catch( RejectedExecutionException e )
+        {
+        }
+        try
+        {
+            new MemoryGovernor(0.5, 0.9);
+            fail("Low-water mark above high-water mark should be refused");
+        }
+        catch( IllegalArgumentException e )
+        {
+        }
+    }
+
+    @Test
+    public void pausesYoungestJobsFirstAndResumesInPauseOrder() throws InterruptedException
+    {
+        TestGovernor governor = new TestGovernor();
+        LoopJob old = new LoopJob().launch();
+        LoopJob young = new LoopJob().launch();
+        governor.register(old, 0);
+        governor.register(young, 0);
+        governor.install();
+        try
+        {
+            governor.check();
+            assertEquals(JobControl.PAUSED, young.getStatus());
+            assertFalse(governor.canStart(0));
+            governor.check();
+            assertEquals(JobControl.PAUSED, old.getStatus());
+            assertEquals(2, governor.getPausedCount());
+
+            // between the marks nothing changes
+            governor.usage = 0.7;
+            governor.check();
+            assertEquals(2, governor.getPausedCount());
+
+            governor.usage = 0.3;
+            governor.check();
+            assertEquals(JobControl.PAUSED, old.getStatus());
+            assertEquals(JobControl.RUNNING, young.getStatus());
+            governor.check();
+            assertEquals(JobControl.RUNNING, old.getStatus());
+            assertEquals(0, governor.getPausedCount());
+            assertTrue(governor.canStart(0));
+        }
+        finally
+        {
+            governor.uninstall();
+        }
+
+        old.finish();
+        young.finish();
+    }
+
+    @Test
+    public void uninstallResumesPausedJobs() throws InterruptedException
+    {
+        TestGovernor governor = new TestGovernor();
+        LoopJob job = new LoopJob().launch();
+        governor.register(job, 0);
+        governor.install();
+        governor.check();
+        assertEquals(JobControl.PAUSED, job.getStatus());
+        governor.uninstall();
+        assertEquals(0, governor.getPausedCount());
+        assertEquals(JobControl.RUNNING, job.getStatus());
+        job.finish();
+    }
+
+    @Test
+    public void pausesLargestEstimateAndForgetsTerminatedJobs() throws InterruptedException
+    {
+        TestGovernor governor = new TestGovernor();
+        governor.setPolicy(MemoryGovernor.PAUSE_LARGEST_ESTIMATE);
+        LoopJob large = new LoopJob().launch();
+        LoopJob small = new LoopJob().launch();
+        governor.register(large, 1 << 30);
+        governor.register(small, 1 << 10);
+        governor.install();
+        try
+        {
+            governor.check();
+            assertEquals(JobControl.PAUSED, large.getStatus());
+            assertEquals(JobControl.RUNNING, small.getStatus());
+
+            large.terminate();
+            large.thread.join(5000);
+            assertEquals(JobControl.TERMINATED_BY_REQUEST, large.getStatus());
+            assertEquals(0, governor.getPausedCount());
+        }
+        finally
+        {
+            governor.uninstall();
+        }
+        small.finish();
+    }
+
+    @Test
+    public void pauseListenerCanCallGovernorFromAnotherThread() throws InterruptedException
+    {
+        final TestGovernor governor = new TestGovernor();
+        final LoopJob job = new LoopJob().launch();
+        final AtomicBoolean unregistered = new AtomicBoolean();
+        job.addListener(new JobControlListenerAdapter()
+        {
+            @Override
+            public void jobPaused(JobControlEvent event)
+            {
+                Thread other = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        governor.unregister(job);
+                        unregistered.set(true);
+                    }
+                };
+                other.start();
+                try
+                {
+                    other.join(2000);
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        governor.register(job, 0);
+        governor.install();
+        try
+        {
+            governor.check();
+            assertTrue(unregistered.get());
+            // unregistered job is not kept paused
+            assertEquals(0, governor.getPausedCount());
+            assertEquals(JobControl.RUNNING, job.getStatus());
+        }
+        finally
+        {
+            governor.uninstall();
+        }
+        job.finish();
+    }
+
+    @Test
+    public void uninstallRestoresThresholds()
+    {
+        MemoryPoolMXBean pool = null;
+        for( MemoryPoolMXBean candidate : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            if( candidate.getType() == MemoryType.HEAP && candidate.isUsageThresholdSupported() && candidate.getUsage().getMax() > 0 )
+                pool = candidate;
+        }
+        if( pool == null )
+            return;
+        long previous = pool.getUsageThreshold();
+        long threshold = pool.getUsage().getMax() / 2;
+        pool.setUsageThreshold(threshold);
+        try
+        {
+            MemoryGovernor governor = new MemoryGovernor(0.9, 0.5);
+            governor.install();
+            assertEquals((long) ( pool.getUsage().getMax() * 0.9 ), pool.getUsageThreshold());
+            governor.uninstall();
+            assertEquals(threshold, pool.getUsageThreshold());
+        }
+        finally
+        {
+            pool.setUsageThreshold(previous);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class PriorityJobSchedulerTest
+{
+    /**
+     * Job working until released, checking its status.
+     */
+    private static class LoopJob extends ClassJobControl
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        LoopJob()
+        {
+            super(null);
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            try
+            {
+                while( !release.await(1, TimeUnit.MILLISECONDS) )
+                    checkStatus();
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                done.countDown();
+            }
+        }
+    }
+
+    private static void waitStatus(JobControl job, int status) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while( job.getStatus() != status && System.currentTimeMillis() < end )
+            Thread.sleep(1);
+        assertEquals(status, job.getStatus());
+    }
+
+    @Test
+    public void preemptsLowerPriorityJob() throws InterruptedException
+    {
+        PriorityJobScheduler scheduler = new PriorityJobScheduler(1);
+        LoopJob low = new LoopJob();
+        LoopJob high = new LoopJob();
+        scheduler.submit(low, 0);
+        waitStatus(low, JobControl.RUNNING);
+
+        scheduler.submit(high, 10);
+        assertEquals(JobControl.PAUSED, low.getStatus());
+        waitStatus(high, JobControl.RUNNING);
+        assertEquals(1, scheduler.getPreemptionCount());
+        assertEquals(1, scheduler.getWaitingCount());
+
+        high.release.countDown();
+        assertTrue(high.done.await(5, TimeUnit.SECONDS));
+        waitStatus(low, JobControl.RUNNING);
+        low.release.countDown();
+        waitStatus(low, JobControl.COMPLETED);
+    }
+
+    @Test
+    public void preemptedJobKeepsItsAging() throws InterruptedException
+    {
+        PriorityJobScheduler scheduler = new PriorityJobScheduler(1);
+        scheduler.setAgingInterval(10);
+        LoopJob old = new LoopJob();
+        LoopJob middle = new LoopJob();
+        LoopJob urgent = new LoopJob();
+        scheduler.submit(old, 0);
+        waitStatus(old, JobControl.RUNNING);
+        Thread.sleep(200);
+
+        // old job has aged above the priority of the middle one
+        scheduler.submit(middle, 1);
+        assertEquals(JobControl.RUNNING, old.getStatus());
+        assertEquals(0, scheduler.getPreemptionCount());
+
+        scheduler.submit(urgent, 1000);
+        assertEquals(JobControl.PAUSED, old.getStatus());
+        waitStatus(urgent, JobControl.RUNNING);
+        urgent.release.countDown();
+        // the slot goes back to the preempted job, not to the younger one
+        waitStatus(old, JobControl.RUNNING);
+        assertEquals(JobControl.CREATED, middle.getStatus());
+
+        old.release.countDown();
+        middle.release.countDown();
+        waitStatus(old, JobControl.COMPLETED);
+        waitStatus(middle, JobControl.COMPLETED);
+    }
+
+    @Test
+    public void listenersMayCallSchedulerFromOtherThreads() throws InterruptedException
+    {
+        final PriorityJobScheduler scheduler = new PriorityJobScheduler(1);
+        final CountDownLatch called = new CountDownLatch(1);
+        final AtomicBoolean blocked = new AtomicBoolean();
+        LoopJob low = new LoopJob();
+        low.addListener(new JobControlListenerAdapter()
+        {
+            @Override
+            public void jobPaused(JobControlEvent event)
+            {
+                Thread thread = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        scheduler.getWaitingCount();
+                        called.countDown();
+                    }
+                };
+                thread.start();
+                try
+                {
+                    // would deadlock if the scheduler lock was held during pause
+                    thread.join(1000);
+                    blocked.set(thread.isAlive());
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        scheduler.submit(low, 0);
+        waitStatus(low, JobControl.RUNNING);
+        LoopJob high = new LoopJob();
+        scheduler.submit(high, 10);
+        assertFalse(blocked.get());
+        assertTrue(called.await(5, TimeUnit.SECONDS));
+
+        high.release.countDown();
+        low.release.countDown();
+        waitStatus(low, JobControl.COMPLETED);
+    }
+}
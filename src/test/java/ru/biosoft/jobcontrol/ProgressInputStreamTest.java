@@ -0,0 +1,112 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProgressInputStreamTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FunctionJobControl job;
+    private final List<Integer> progress = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp()
+    {
+        job = new FunctionJobControl(null);
+        job.addListener(new JobControlListenerAdapter()
+        {
+            @Override
+            public void valueChanged(JobControlEvent event)
+            {
+                progress.add(event.getPreparedness());
+            }
+        });
+        job.functionStarted();
+    }
+
+    private void assertProgressCompleted()
+    {
+        assertEquals(100, job.getPreparedness());
+        assertTrue("Too many updates: " + progress.size(), progress.size() <= 101);
+        for( int i = 1; i < progress.size(); i++ )
+            assertTrue("Progress went back: " + progress, progress.get(i) >= progress.get(i - 1));
+    }
+
+    @Test
+    public void progressFollowsPosition() throws IOException
+    {
+        int size = 1 << 20;
+        ProgressInputStream in = new ProgressInputStream(job, new ByteArrayInputStream(new byte[size]), size);
+        byte[] buffer = new byte[1000];
+        int halfway = -1;
+        while( in.read(buffer, 0, buffer.length) >= 0 )
+        {
+            if( halfway < 0 && in.getPosition() >= size / 2 )
+                halfway = job.getPreparedness();
+        }
+        assertEquals(size, in.getPosition());
+        assertTrue("Preparedness at the middle: " + halfway, halfway >= 49 && halfway <= 50);
+        assertProgressCompleted();
+    }
+
+    @Test
+    public void terminatedJobInterruptsReading() throws IOException
+    {
+        int size = 1 << 20;
+        ProgressInputStream in = new ProgressInputStream(job, new ByteArrayInputStream(new byte[size]), size);
+        byte[] buffer = new byte[100];
+        long terminatedAt = -1;
+        try
+        {
+            while( in.read(buffer, 0, buffer.length) >= 0 )
+            {
+                if( terminatedAt < 0 && in.getPosition() >= size / 3 )
+                {
+                    job.terminate();
+                    terminatedAt = in.getPosition();
+                }
+            }
+            fail("Reading of terminated job should be interrupted");
+        }
+        catch( InterruptedIOException e )
+        {
+            assertEquals(JobControl.TERMINATED_BY_REQUEST, ( (JobControlException)e.getCause() ).getStatus());
+        }
+        // status is checked at least every percent and every check interval
+        assertTrue(in.getPosition() - terminatedAt <= Math.min(size / 100 + buffer.length, IOProgress.CHECK_INTERVAL + buffer.length));
+    }
+
+    @Test
+    public void fileChannelReportsProgress() throws IOException
+    {
+        File file = folder.newFile();
+        Files.write(file.toPath(), new byte[300000]);
+        try (ProgressFileChannel channel = ProgressFileChannel.open(job, file.toPath()))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            long total = 0;
+            for( int n; ( n = channel.read(buffer) ) >= 0; buffer.clear() )
+                total += n;
+            assertEquals(300000, total);
+            assertEquals(300000, channel.position());
+        }
+        assertProgressCompleted();
+    }
+}
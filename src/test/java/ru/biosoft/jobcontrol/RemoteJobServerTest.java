@@ -0,0 +1,220 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemoteJobServerTest
+{
+    private static class LoopJob extends ClassJobControl
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        LoopJob()
+        {
+            super(null);
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            try
+            {
+                for( int i = 0; !release.await(1, TimeUnit.MILLISECONDS); i++ )
+                {
+                    checkStatus();
+                    setPreparedness(i % 100);
+                }
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private RemoteJobServer server;
+    private RemoteJobClient client;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = new RemoteJobServer(0);
+        server.setPushInterval(1);
+        server.start();
+        client = new RemoteJobClient(server.getPort());
+    }
+
+    @After
+    public void tearDown()
+    {
+        client.close();
+        server.stop();
+    }
+
+    private static void waitStatus(JobControl job, int status) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while( job.getStatus() != status && System.currentTimeMillis() < end )
+            Thread.sleep(1);
+        assertEquals(status, job.getStatus());
+    }
+
+    @Test
+    public void controlsAndWatchesRemoteJob() throws Exception
+    {
+        LoopJob job = new LoopJob();
+        server.export(1, job);
+        Thread thread = new Thread(job);
+        thread.start();
+        waitStatus(job, JobControl.RUNNING);
+
+        assertEquals(1, client.list().length);
+        RemoteJobControl proxy = client.watch(1);
+        final CountDownLatch paused = new CountDownLatch(1);
+        final CountDownLatch terminated = new CountDownLatch(1);
+        proxy.addListener(new JobControlListenerAdapter()
+        {
+            @Override
+            public void jobPaused(JobControlEvent event)
+            {
+                paused.countDown();
+            }
+
+            @Override
+            public void jobTerminated(JobControlEvent event)
+            {
+                terminated.countDown();
+            }
+        });
+        assertEquals(JobControl.RUNNING, proxy.getStatus());
+
+        proxy.pause();
+        assertTrue(paused.await(5, TimeUnit.SECONDS));
+        assertEquals(JobControl.PAUSED, proxy.getStatus());
+        assertEquals(JobControl.PAUSED, job.getStatus());
+
+        proxy.terminate();
+        assertTrue(terminated.await(5, TimeUnit.SECONDS));
+        assertEquals(JobControl.TERMINATED_BY_REQUEST, proxy.getStatus());
+        thread.join(5000);
+
+        try
+        {
+            client.watch(2);
+            fail("Unknown job should not be watched");
+        }
+        catch( IOException e )
+        {
+        }
+    }
+
+    @Test
+    public void watchedProxyGetsStateChangedRightAfterWatch() throws Exception
+    {
+        for( int i = 0; i < 50; i++ )
+        {
+            LoopJob job = new LoopJob();
+            server.export(i, job);
+            Thread thread = new Thread(job);
+            thread.start();
+            waitStatus(job, JobControl.RUNNING);
+
+            CompletableFuture<RemoteJobControl> future = client.watchAsync(i);
+            // the job changes state while the watch request is handled
+            job.release.countDown();
+            RemoteJobControl proxy = future.get(5, TimeUnit.SECONDS);
+            waitStatus(proxy, JobControl.COMPLETED);
+            thread.join(5000);
+            proxy.unwatch();
+        }
+    }
+
+    @Test
+    public void runWaitsForRemoteTermination() throws Exception
+    {
+        LoopJob job = new LoopJob();
+        server.export(1, job);
+        Thread thread = new Thread(job);
+        thread.start();
+        waitStatus(job, JobControl.RUNNING);
+
+        final RemoteJobControl proxy = client.watch(1);
+        Thread waiter = new Thread(proxy);
+        waiter.start();
+        waiter.join(50);
+        assertTrue(waiter.isAlive());
+
+        job.release.countDown();
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        assertEquals(JobControl.COMPLETED, proxy.getStatus());
+        thread.join(5000);
+
+        // returns when the proxy stops receiving state
+        LoopJob other = new LoopJob();
+        server.export(2, other);
+        Thread otherThread = new Thread(other);
+        otherThread.start();
+        waitStatus(other, JobControl.RUNNING);
+        RemoteJobControl otherProxy = client.watch(2);
+        waiter = new Thread(otherProxy);
+        waiter.start();
+        client.close();
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        other.release.countDown();
+        otherThread.join(5000);
+    }
+
+    @Test
+    public void pendingRequestsFailWhenConnectionIsClosed() throws Exception
+    {
+        server.stop();
+        long end = System.currentTimeMillis() + 5000;
+        while( !client.isClosed() && System.currentTimeMillis() < end )
+            Thread.sleep(1);
+        assertTrue(client.isClosed());
+        assertFailed(client.listAsync());
+
+        RemoteJobClient other = new RemoteJobClient(startServer());
+        CompletableFuture<long[]> pending = other.listAsync();
+        other.close();
+        // completed either by the response or by close
+        assertTrue(pending.isDone());
+        assertFailed(other.watchAsync(1));
+    }
+
+    private int startServer() throws IOException
+    {
+        server = new RemoteJobServer(0);
+        server.start();
+        return server.getPort();
+    }
+
+    private static void assertFailed(CompletableFuture<?> future) throws InterruptedException, TimeoutException
+    {
+        try
+        {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        catch( ExecutionException e )
+        {
+            assertTrue(e.getCause() instanceof IOException);
+            return;
+        }
+        fail("Request is not failed");
+    }
+}
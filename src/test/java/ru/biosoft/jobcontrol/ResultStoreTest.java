@@ -0,0 +1,175 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultStoreTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] bytes(String s)
+    {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String content(ResultHandle handle)
+    {
+        ByteBuffer buffer = handle.getBuffer();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return new String(data, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void spillsOverLimit() throws IOException
+    {
+        ResultStore store = new ResultStore(16, folder.getRoot());
+        ResultHandle small = store.store("small", bytes("0123456789"));
+        ResultHandle large = store.store("large", bytes("abcdefghij"));
+
+        assertFalse(small.isMapped());
+        assertTrue(large.isMapped());
+        assertEquals(10, store.getOffHeapBytes());
+        assertEquals(10, store.getMappedBytes());
+        assertEquals("0123456789", content(small));
+        assertEquals("abcdefghij", content(large));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void releaseOfHandleFreesData() throws IOException
+    {
+        ResultStore store = new ResultStore(16, folder.getRoot());
+        ResultHandle small = store.store("small", bytes("0123456789"));
+        ResultHandle large = store.store("large", bytes("abcdefghij"));
+
+        large.release();
+        assertTrue(large.isReleased());
+        assertEquals(0, store.getMappedBytes());
+        assertEquals(0, folder.getRoot().list().length);
+        assertEquals(1, store.getHandles().length);
+        try
+        {
+            large.getBuffer();
+            fail("Released handle should not return data");
+        }
+        catch( IllegalStateException e )
+        {
+        }
+
+        small.release();
+        small.release();
+        assertEquals(0, store.getOffHeapBytes());
+        assertEquals(0, store.getHandles().length);
+
+        // released space is available again
+        assertFalse(store.store("again", bytes("0123456789abcdef")).isMapped());
+    }
+
+    private static class StoringJob extends ClassJobControl
+    {
+        final boolean fail;
+        ResultHandle handle;
+
+        StoringJob(boolean fail)
+        {
+            super(null);
+            this.fail = fail;
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            try
+            {
+                handle = getResultStore().store("result", bytes("result"));
+            }
+            catch( IOException e )
+            {
+                throw new JobControlException(e);
+            }
+            if( fail )
+                throw new JobControlException(new IOException("failed"));
+        }
+    }
+
+    @Test
+    public void terminatedJobReleasesResults()
+    {
+        StoringJob job = new StoringJob(true);
+        job.run();
+
+        assertEquals(JobControl.TERMINATED_BY_ERROR, job.getStatus());
+        assertTrue(job.handle.isReleased());
+        assertEquals(0, job.getResultStore().getHandles().length);
+    }
+
+    private static class DeliveringJob extends AbstractJobControl
+    {
+        DeliveringJob()
+        {
+            super(null);
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            terminate();
+            try
+            {
+                resultsAreReady(new Object[] {getResultStore().store("result", bytes("result"))});
+            }
+            catch( IOException e )
+            {
+                throw new JobControlException(e);
+            }
+        }
+    }
+
+    @Test
+    public void terminatedJobKeepsDeliveredDataReadable()
+    {
+        final ByteBuffer[] views = new ByteBuffer[1];
+        DeliveringJob job = new DeliveringJob();
+        job.addListener(new JobControlListenerAdapter()
+        {
+            @Override
+            public void resultsReady(JobControlEvent event)
+            {
+                views[0] = ( (ResultHandle)event.getResults()[0] ).getBuffer();
+            }
+        });
+        job.run();
+
+        assertEquals(JobControl.TERMINATED_BY_REQUEST, job.getStatus());
+        assertEquals(0, job.getResultStore().getHandles().length);
+        byte[] data = new byte[views[0].remaining()];
+        views[0].get(data);
+        assertEquals("result", new String(data, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void completedJobKeepsResultsUntilDisposed()
+    {
+        StoringJob job = new StoringJob(false);
+        job.run();
+
+        assertEquals(JobControl.COMPLETED, job.getStatus());
+        assertEquals("result", content(job.handle));
+
+        job.dispose();
+        assertTrue(job.handle.isReleased());
+        assertEquals(0, job.getResultStore().getOffHeapBytes());
+    }
+}
@@ -0,0 +1,183 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RetryPolicyTest
+{
+    /**
+     * Listener remembering attempt and retry delay of terminated attempts.
+     */
+    private static class AttemptListener extends JobControlListenerAdapter
+    {
+        final List<String> attempts = new ArrayList<>();
+        final CountDownLatch finished;
+
+        AttemptListener(int count)
+        {
+            finished = new CountDownLatch(count);
+        }
+
+        @Override
+        public synchronized void jobTerminated(JobControlEvent event)
+        {
+            attempts.add(event.getAttempt() + ":" + event.getStatus() + ":" + ( event.getRetryDelay() >= 0 ));
+            finished.countDown();
+        }
+
+        synchronized List<String> getAttempts()
+        {
+            return new ArrayList<>(attempts);
+        }
+    }
+
+    /**
+     * Job failing with the error until specified attempt.
+     */
+    private static class FlakyJob extends ClassJobControl
+    {
+        final int failures;
+        final Exception error;
+        volatile int runs;
+
+        FlakyJob(int failures, Exception error)
+        {
+            super(null);
+            this.failures = failures;
+            this.error = error;
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            if( ++runs <= failures )
+                throw new JobControlException(error);
+        }
+    }
+
+    private static RetryPolicy policy(int maxAttempts)
+    {
+        return RetryPolicy.exponential(maxAttempts, 1, TimeUnit.MILLISECONDS).setJitter(0);
+    }
+
+    private static final String FAILED = JobControl.TERMINATED_BY_ERROR + ":";
+    private static final String COMPLETED = JobControl.COMPLETED + ":";
+
+    @Test
+    public void retryAfterEndWithException() throws InterruptedException
+    {
+        FlakyJob job = new FlakyJob(2, new IllegalStateException(new IOException("connection reset")));
+        job.setRetryPolicy(policy(5).retryOn(RetryPolicy.causedBy(IOException.class)));
+        AttemptListener listener = new AttemptListener(3);
+        job.addListener(listener);
+        job.run();
+        assertTrue(listener.finished.await(5, TimeUnit.SECONDS));
+        List<String> attempts = listener.getAttempts();
+        assertEquals("1:" + FAILED + "true", attempts.get(0));
+        assertEquals("2:" + FAILED + "true", attempts.get(1));
+        assertEquals("3:" + COMPLETED + "false", attempts.get(2));
+        assertEquals(3, job.runs);
+        assertEquals(3, job.getAttempt());
+    }
+
+    @Test
+    public void errorNotAcceptedByConditionIsNotRetried() throws InterruptedException
+    {
+        FlakyJob job = new FlakyJob(1, new IllegalArgumentException());
+        job.setRetryPolicy(policy(5).retryOn(RetryPolicy.causedBy(IOException.class)));
+        AttemptListener listener = new AttemptListener(1);
+        job.addListener(listener);
+        job.run();
+        assertEquals("1:" + FAILED + "false", listener.getAttempts().get(0));
+        Thread.sleep(50);
+        assertEquals(1, job.runs);
+    }
+
+    @Test
+    public void attemptsAreLimited() throws InterruptedException
+    {
+        FlakyJob job = new FlakyJob(10, new IOException());
+        job.setRetryPolicy(policy(2));
+        AttemptListener listener = new AttemptListener(2);
+        job.addListener(listener);
+        job.run();
+        assertTrue(listener.finished.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(2, job.runs);
+        assertEquals("2:" + FAILED + "false", listener.getAttempts().get(1));
+    }
+
+    /**
+     * Function job failed by {@link AbstractJobControl#exceptionOccured(JobControlException)} and ended by
+     * {@link FunctionJobControl#functionFinished()}, so the attempt ends without exception.
+     */
+    private static class FunctionJob extends FunctionJobControl
+    {
+        volatile int runs;
+
+        FunctionJob()
+        {
+            super(null);
+        }
+
+        void fail()
+        {
+            functionStarted();
+            exceptionOccured(new JobControlException(new IOException()));
+            functionFinished();
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            runs++;
+        }
+    }
+
+    @Test
+    public void retryAfterEndWithMessage() throws InterruptedException
+    {
+        FunctionJob job = new FunctionJob();
+        job.setRetryPolicy(policy(3));
+        AttemptListener listener = new AttemptListener(2);
+        job.addListener(listener);
+        job.fail();
+        assertTrue(listener.finished.await(5, TimeUnit.SECONDS));
+        assertEquals("1:" + FAILED + "true", listener.getAttempts().get(0));
+        assertEquals("2:" + COMPLETED + "false", listener.getAttempts().get(1));
+        assertEquals(1, job.runs);
+    }
+
+    @Test
+    public void causedByRejectsEndWithoutException() throws InterruptedException
+    {
+        FunctionJob job = new FunctionJob();
+        job.setRetryPolicy(policy(3).retryOn(RetryPolicy.causedBy(IOException.class)));
+        AttemptListener listener = new AttemptListener(1);
+        job.addListener(listener);
+        job.fail();
+        assertEquals("1:" + FAILED + "false", listener.getAttempts().get(0));
+        assertEquals(JobControl.TERMINATED_BY_ERROR, job.getStatus());
+        Thread.sleep(50);
+        assertEquals(0, job.runs);
+    }
+
+    @Test
+    public void cancelRetryStopsPendingRetry() throws InterruptedException
+    {
+        FlakyJob job = new FlakyJob(1, new IOException());
+        job.setRetryPolicy(RetryPolicy.exponential(2, 200, TimeUnit.MILLISECONDS).setJitter(0));
+        job.run();
+        assertTrue(job.cancelRetry());
+        Thread.sleep(300);
+        assertEquals(1, job.runs);
+    }
+}
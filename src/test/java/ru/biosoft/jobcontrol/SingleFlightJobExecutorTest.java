@@ -0,0 +1,152 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ru.biosoft.jobcontrol.SingleFlightJobExecutor.Flight;
+
+public class SingleFlightJobExecutorTest
+{
+    private static class KeyedJob extends AbstractJobControl
+    {
+        final CountDownLatch release;
+        final AtomicInteger runs;
+
+        KeyedJob(Object key, CountDownLatch release, AtomicInteger runs)
+        {
+            super(null);
+            this.release = release;
+            this.runs = runs;
+            setContentKey(key);
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+            runs.incrementAndGet();
+            try
+            {
+                release.await();
+            }
+            catch( InterruptedException e )
+            {
+                throw new JobControlException(e);
+            }
+            resultsAreReady(new Object[] {"result"});
+        }
+    }
+
+    private static class TerminationCounter extends JobControlListenerAdapter
+    {
+        final AtomicInteger terminated = new AtomicInteger();
+
+        @Override
+        public void jobTerminated(JobControlEvent event)
+        {
+            terminated.incrementAndGet();
+        }
+    }
+
+    private static Object[] await(Flight flight) throws Exception
+    {
+        return flight.getResult().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void jobsWithEqualKeysRunOnce() throws Exception
+    {
+        SingleFlightJobExecutor executor = new SingleFlightJobExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        Flight first = executor.submit(new KeyedJob("key", release, runs));
+        TerminationCounter counter = new TerminationCounter();
+        Flight second = executor.submit(new KeyedJob("key", release, runs), counter);
+        assertTrue(second.isShared());
+        assertEquals(first.getJobControl(), second.getJobControl());
+        release.countDown();
+        assertArrayEquals(new Object[] {"result"}, await(first));
+        assertArrayEquals(new Object[] {"result"}, await(second));
+        // delivered by the job and by the flight completion, but only once
+        assertEquals(1, counter.terminated.get());
+        assertEquals(1, runs.get());
+        // joined listener is removed after termination
+        assertFalse(( (AbstractJobControl)first.getJobControl() ).hasListeners(JobControlEvent.ALL_EVENTS));
+
+        Flight cached = executor.submit(new KeyedJob("key", release, runs));
+        assertTrue(cached.isCached());
+        assertNull(cached.getJobControl());
+        assertArrayEquals(new Object[] {"result"}, await(cached));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void lateJoinerReceivesTermination() throws Exception
+    {
+        SingleFlightJobExecutor executor = new SingleFlightJobExecutor();
+        executor.setCacheLimits(0, 0, TimeUnit.MILLISECONDS);
+        final CountDownLatch terminating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // holds the owner in jobTerminated, after the listeners to notify were taken and before the flight is finished
+        JobControlListener owner = new JobControlListenerAdapter()
+        {
+            @Override
+            public void jobTerminated(JobControlEvent event)
+            {
+                terminating.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        AtomicInteger runs = new AtomicInteger();
+        Flight first = executor.submit(new KeyedJob("key", new CountDownLatch(0), runs), owner);
+        assertTrue(terminating.await(5, TimeUnit.SECONDS));
+
+        TerminationCounter counter = new TerminationCounter();
+        Flight late = executor.submit(new KeyedJob("key", new CountDownLatch(0), runs), counter);
+        assertTrue(late.isShared());
+        assertEquals(JobControl.COMPLETED, late.getJobControl().getStatus());
+        release.countDown();
+        await(first);
+        await(late);
+        assertEquals(1, counter.terminated.get());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void maskedJoinerIsNotNotifiedOfTermination() throws Exception
+    {
+        SingleFlightJobExecutor executor = new SingleFlightJobExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        executor.submit(new KeyedJob("key", release, runs));
+        TerminationCounter counter = new TerminationCounter()
+        {
+            @Override
+            public int getEventMask()
+            {
+                return JobControlEvent.RESULTS_READY;
+            }
+        };
+        Flight second = executor.submit(new KeyedJob("key", release, runs), counter);
+        release.countDown();
+        await(second);
+        assertEquals(0, counter.terminated.get());
+        assertFalse(second.isCached());
+        assertFalse(( (AbstractJobControl)second.getJobControl() ).hasListeners(JobControlEvent.ALL_EVENTS));
+    }
+}
@@ -0,0 +1,352 @@
+package ru.biosoft.jobcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.biosoft.jobcontrol.StackProgressJobControl.ProgressFork;
+
+public class StackProgressJobControlTest
+{
+    private static class TestJob extends StackProgressJobControl
+    {
+        TestJob()
+        {
+            super(null);
+        }
+
+        @Override
+        protected void doRun() throws JobControlException
+        {
+        }
+    }
+
+    private TestJob job;
+    private final List<Integer> progress = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp()
+    {
+        job = new TestJob();
+        job.addListener(new JobControlListenerAdapter()
+        {
+            @Override
+            public void valueChanged(JobControlEvent event)
+            {
+                progress.add(event.getPreparedness());
+            }
+        });
+        job.begin();
+    }
+
+    private void assertMonotonic()
+    {
+        for( int i = 1; i < progress.size(); i++ )
+            assertTrue("Progress went back: " + progress, progress.get(i) >= progress.get(i - 1));
+    }
+
+    @Test
+    public void forRangeVisitsAllIndices()
+    {
+        final long[] sum = new long[1];
+        assertTrue(job.forRange(0, 100000, new IntIteration()
+        {
+            @Override
+            public boolean run(int index)
+            {
+                sum[0] += index;
+                return true;
+            }
+        }));
+        assertEquals(99999L * 100000 / 2, sum[0]);
+        assertEquals(100, job.getPreparedness());
+        // updated only when integer percent changes
+        assertTrue(progress.size() <= 101);
+        assertMonotonic();
+    }
+
+    @Test
+    public void forLongRangeMapsToCurrentRange()
+    {
+        job.pushProgress(50, 100);
+        final long[] count = new long[1];
+        assertTrue(job.forLongRange(1L << 40, ( 1L << 40 ) + 1000, new LongIteration()
+        {
+            @Override
+            public boolean run(long index)
+            {
+                count[0]++;
+                return true;
+            }
+        }));
+        assertEquals(1000, count[0]);
+        assertEquals(50, (int)progress.get(0));
+        assertEquals(100, job.getPreparedness());
+    }
+
+    @Test
+    public void forRangeStopsOnBreakAndTermination()
+    {
+        assertFalse(job.forRange(0, 100, new IntIteration()
+        {
+            @Override
+            public boolean run(int index)
+            {
+                return index < 10;
+            }
+        }));
+
+        final int[] visited = new int[1];
+        assertFalse(job.forRange(0, 100, new IntIteration()
+        {
+            @Override
+            public boolean run(int index)
+            {
+                if( ++visited[0] == 5 )
+                    job.terminate();
+                return true;
+            }
+        }));
+        assertEquals(5, visited[0]);
+    }
+
+    @Test
+    public void forkedProgressNeverGoesBack() throws InterruptedException
+    {
+        for( int round = 0; round < 20; round++ )
+        {
+            setUp();
+            progress.clear();
+            List<Thread> threads = new ArrayList<>();
+            for( int w = 0; w < 4; w++ )
+            {
+                final ProgressFork fork = job.fork(w * 25, ( w + 1 ) * 25);
+                threads.add(new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for( int i = 0; i <= 1000; i++ )
+                            fork.setPreparedness(i / 10);
+                        fork.close();
+                    }
+                });
+            }
+            for( Thread thread : threads )
+                thread.start();
+            for( Thread thread : threads )
+                thread.join();
+            assertMonotonic();
+            assertEquals(100, job.getPreparedness());
+        }
+    }
+
+    private static List<Integer> numbers(int count)
+    {
+        List<Integer> numbers = new ArrayList<>();
+        for( int i = 0; i < count; i++ )
+            numbers.add(i);
+        return numbers;
+    }
+
+    @Test
+    public void parallelForCollectionVisitsAllElements() throws JobControlException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            final Set<Integer> visited = ConcurrentHashMap.newKeySet();
+            assertTrue(job.forCollection(numbers(1000), new ParallelIteration<Integer>()
+            {
+                @Override
+                public boolean run(Integer element, ProgressFork fork)
+                {
+                    assertTrue(visited.add(element));
+                    return true;
+                }
+            }, executor, 8, false));
+            assertEquals(1000, visited.size());
+            assertEquals(100, job.getPreparedness());
+            assertEquals(0, job.getSpeculativeLaunchCount());
+            assertMonotonic();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void stragglerPartitionIsRunSpeculatively() throws JobControlException
+    {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try
+        {
+            // only the partition of the stuck element is unfinished when the copies are launched
+            job.setSpeculationThreshold(7 / 8.0);
+            final AtomicBoolean stuck = new AtomicBoolean();
+            final AtomicBoolean stopped = new AtomicBoolean();
+            long start = System.currentTimeMillis();
+            assertTrue(job.forCollection(numbers(8), new ParallelIteration<Integer>()
+            {
+                @Override
+                public boolean run(Integer element, ProgressFork fork) throws JobControlException
+                {
+                    // the first visit of the last element hangs until its copy wins
+                    if( element == 7 && stuck.compareAndSet(false, true) )
+                    {
+                        try
+                        {
+                            for( long end = System.currentTimeMillis() + 5000; System.currentTimeMillis() < end; )
+                            {
+                                fork.checkStatus();
+                                Thread.sleep(1);
+                            }
+                        }
+                        catch( InterruptedException e )
+                        {
+                            throw new JobControlException(e);
+                        }
+                        finally
+                        {
+                            stopped.set(fork.isTerminated());
+                        }
+                    }
+                    return true;
+                }
+            }, executor, 8, true));
+            assertTrue(System.currentTimeMillis() - start < 4000);
+            assertTrue(stopped.get());
+            assertEquals(1, job.getSpeculativeLaunchCount());
+            assertEquals(1, job.getSpeculativeWinCount());
+            assertEquals(100, job.getPreparedness());
+            assertMonotonic();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void parallelForCollectionPropagatesError()
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            job.forCollection(numbers(100), new ParallelIteration<Integer>()
+            {
+                @Override
+                public boolean run(Integer element, ProgressFork fork)
+                {
+                    if( element == 50 )
+                        throw new IllegalStateException("broken element");
+                    return true;
+                }
+            }, executor, 4, true);
+            fail("Error should be propagated");
+        }
+        catch( JobControlException e )
+        {
+            assertEquals("broken element", e.getError().getMessage());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void forChunksGrowsCheapChunks()
+    {
+        List<Integer> list = numbers(100000);
+        final List<Integer> visited = new ArrayList<>();
+        final int[] chunks = new int[1];
+        assertTrue(job.forChunks(list, new ChunkIteration<Integer>()
+        {
+            @Override
+            public boolean run(List<Integer> chunk)
+            {
+                chunks[0]++;
+                visited.addAll(chunk);
+                return true;
+            }
+        }));
+        assertEquals(list, visited);
+        assertTrue("Too many chunks: " + chunks[0], chunks[0] < 1000);
+        assertEquals(100, job.getPreparedness());
+        assertMonotonic();
+    }
+
+    @Test
+    public void forChunksWaitsWhilePaused()
+    {
+        final long[] resumed = new long[1];
+        final long[] next = new long[1];
+        final int[] chunks = new int[1];
+        assertTrue(job.forChunks(numbers(10), 1, TimeUnit.SECONDS, new ChunkIteration<Integer>()
+        {
+            @Override
+            public boolean run(List<Integer> chunk)
+            {
+                if( ++chunks[0] == 1 )
+                {
+                    job.pause();
+                    new Thread()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            try
+                            {
+                                Thread.sleep(100);
+                            }
+                            catch( InterruptedException e )
+                            {
+                                return;
+                            }
+                            resumed[0] = System.nanoTime();
+                            job.resume();
+                        }
+                    }.start();
+                }
+                else if( chunks[0] == 2 )
+                    next[0] = System.nanoTime();
+                return true;
+            }
+        }));
+        assertTrue(chunks[0] >= 2);
+        assertTrue("Chunk was processed while paused", next[0] >= resumed[0] && resumed[0] != 0);
+    }
+
+    @Test
+    public void forChunksStopsWhenTerminated()
+    {
+        final int[] chunks = new int[1];
+        assertFalse(job.forChunks(numbers(1000), new ChunkIteration<Integer>()
+        {
+            @Override
+            public boolean run(List<Integer> chunk)
+            {
+                chunks[0]++;
+                job.terminate();
+                return true;
+            }
+        }));
+        assertEquals(1, chunks[0]);
+    }
+}